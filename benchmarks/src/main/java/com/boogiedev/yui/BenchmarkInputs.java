@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) boogiedev.com, all rights reserved.
+ * This code is licensed under the LGPL 3.0 license,
+ * available at the root application directory.
+ */
+
+package com.boogiedev.yui;
+
+/**
+ * Generates the JS and CSS inputs of the benchmarks, by repeating a template until the requested size is reached. Each repetition declares its
+ * own symbols, so that the symbol tree grows along with the input.
+ */
+public final class BenchmarkInputs {
+
+	/**
+	 * Input sizes.
+	 */
+	public enum Size {
+
+		/** About 2 KB. */
+		SMALL(2 * 1024),
+
+		/** About 100 KB. */
+		MEDIUM(100 * 1024),
+
+		/** About 4 MB. */
+		LARGE(4 * 1024 * 1024);
+
+		/** The size, in characters. */
+		private final int length;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param length
+		 *          The size, in characters.
+		 */
+		private Size(int length) {
+			this.length = length;
+		}
+
+		/**
+		 * Returns the size.
+		 *
+		 * @return The size, in characters.
+		 */
+		public int getLength() {
+			return length;
+		}
+
+	}
+
+	/** The beginning of each repetition of the templates. */
+	public static final String SEPARATOR = "/* Module ";
+
+	/** The JS template, "%1$d" being replaced by the index of the repetition. */
+	private static final String JS_TEMPLATE = "" //
+			+ "/* Module %1$d, with a comment that must be removed. */\n" //
+			+ "var module%1$d = (function (window, undefined) {\n" //
+			+ "    var counter = 0, settings = { 'name': 'module%1$d', 'enabled': true, \"max-count\": %1$d };\n" //
+			+ "    function increment(amount) {\n" //
+			+ "        var previousValue = counter;\n" //
+			+ "        counter += amount || 1;\n" //
+			+ "        return previousValue;\n" //
+			+ "    }\n" //
+			+ "    function describe(prefix) {\n" //
+			+ "        var message = prefix + ' ' + 'module' + ' ' + \"%1$d\" + ': ' + counter;\n" //
+			+ "        if (settings['enabled'] && counter < settings[\"max-count\"]) {\n" //
+			+ "            for (var index = 0; index < 3; index++) {\n" //
+			+ "                message += window['String'](index);\n" //
+			+ "            }\n" //
+			+ "        }\n" //
+			+ "        return message.replace(/[0-9]+/g, function (match) { return '#' + match; });\n" //
+			+ "    }\n" //
+			+ "    return { increment: increment, describe: describe, 'settings': settings };\n" //
+			+ "})(this);\n";
+
+	/** The function-heavy JS template, "%1$d" being replaced by the index of the repetition: mostly small and nested functions. */
+	private static final String JS_FUNCTIONS_TEMPLATE = "" //
+			+ "/* Module %1$d, with a comment that must be removed. */\n" //
+			+ "function add%1$d(a, b) { return a + b; }\n" //
+			+ "function compose%1$d(f, g) { return function (x) { return f(g(x)); }; }\n" //
+			+ "var handlers%1$d = {\n" //
+			+ "    click: function (event) { return add%1$d(event.x, 1); },\n" //
+			+ "    keyup: function (event) { return function () { return event.key; }; },\n" //
+			+ "    map: function (values) { return values.map(function (value) { return add%1$d(value, %1$d); }); }\n" //
+			+ "};\n" //
+			+ "var twice%1$d = compose%1$d(function (x) { return x * 2; }, function (y) { return y + 1; });\n";
+
+	/** The CSS template, "%1$d" being replaced by the index of the repetition. */
+	private static final String CSS_TEMPLATE = "" //
+			+ "/* Module %1$d, with a comment that must be removed. */\n" //
+			+ ".module-%1$d, .module-%1$d > .title {\n" //
+			+ "    margin: 0px 0px 0px 0px;\n" //
+			+ "    padding: 0.50em 1.0em;\n" //
+			+ "    color: #ffffff;\n" //
+			+ "    background: rgb(51, 102, 153) url(\"images/module-%1$d.png\") no-repeat;\n" //
+			+ "    font-weight: bold;\n" //
+			+ "}\n" //
+			+ "\n" //
+			+ ".module-%1$d:hover {\n" //
+			+ "    border: none;\n" //
+			+ "    color : #AABBCC ;\n" //
+			+ "}\n" //
+			+ "\n" //
+			+ "@media screen and (max-width: %1$dpx) {\n" //
+			+ "    .module-%1$d { display: none; }\n" //
+			+ "}\n";
+
+	/**
+	 * Private constructor.
+	 */
+	private BenchmarkInputs() {
+	}
+
+	/**
+	 * Generates a JS input.
+	 *
+	 * @param size
+	 *          The input size.
+	 * @return The JS input.
+	 */
+	public static String js(Size size) {
+		return repeat(JS_TEMPLATE, size);
+	}
+
+	/**
+	 * Generates a function-heavy JS input, declaring about one function every 50 characters.
+	 *
+	 * @param size
+	 *          The input size.
+	 * @return The JS input.
+	 */
+	public static String jsFunctions(Size size) {
+		return repeat(JS_FUNCTIONS_TEMPLATE, size);
+	}
+
+	/**
+	 * Generates a JS input made of string concatenations, as found in generated files.
+	 *
+	 * @param count
+	 *          The number of concatenations.
+	 * @param chainLength
+	 *          The number of concatenations by statement.
+	 * @return The JS input.
+	 */
+	public static String jsConcatenations(int count, int chainLength) {
+		StringBuilder input = new StringBuilder(count * 20);
+		for (int i = 0; i < count; i++) {
+			if (i % chainLength == 0) {
+				input.append(i == 0 ? "" : ";\n").append("var html").append(i / chainLength).append(" = \"<ul>\"");
+			}
+			input.append(" + \"<li>").append(i).append("</li>\"");
+		}
+		return input.append(";\n").toString();
+	}
+
+	/**
+	 * Generates a CSS input.
+	 *
+	 * @param size
+	 *          The input size.
+	 * @return The CSS input.
+	 */
+	public static String css(Size size) {
+		return repeat(CSS_TEMPLATE, size);
+	}
+
+	/**
+	 * Repeats a template until the requested size is reached.
+	 *
+	 * @param template
+	 *          The template.
+	 * @param size
+	 *          The input size.
+	 * @return The generated input.
+	 */
+	private static String repeat(String template, Size size) {
+		StringBuilder input = new StringBuilder(size.getLength() + template.length() * 2);
+		for (int i = 0; input.length() < size.getLength(); i++) {
+			input.append(String.format(template, i));
+		}
+		return input.toString();
+	}
+
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) boogiedev.com, all rights reserved.
+ * This code is licensed under the LGPL 3.0 license,
+ * available at the root application directory.
+ */
+
+package com.boogiedev.yui;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler, so that the allocation rates are reported along with the throughputs. The JMH command line options
+ * are supported, e.g. a regular expression selecting the benchmarks to run, or "-p size=LARGE".
+ */
+public final class Benchmarks {
+
+	/**
+	 * Private constructor.
+	 */
+	private Benchmarks() {
+	}
+
+	/**
+	 * Runs the benchmarks.
+	 *
+	 * @param args
+	 *          The JMH command line options.
+	 * @throws CommandLineOptionException
+	 *           If the command line options are invalid.
+	 * @throws RunnerException
+	 *           If an error occurred while running the benchmarks.
+	 * @throws IOException
+	 *           If an error occurred while listing the benchmarks.
+	 */
+	public static void main(String[] args) throws CommandLineOptionException, RunnerException, IOException {
+		CommandLineOptions options = new CommandLineOptions(args);
+		if (options.shouldHelp() || options.shouldList() || options.shouldListProfilers() || options.shouldListResultFormats()) {
+			org.openjdk.jmh.Main.main(args);
+			return;
+		}
+		new Runner(new OptionsBuilder().parent(options).addProfiler(GCProfiler.class).build()).run();
+	}
+
+}
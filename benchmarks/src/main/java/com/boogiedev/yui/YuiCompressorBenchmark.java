@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) boogiedev.com, all rights reserved.
+ * This code is licensed under the LGPL 3.0 license,
+ * available at the root application directory.
+ */
+
+package com.boogiedev.yui;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.helpers.NOPLogger;
+
+import com.yahoo.platform.yui.compressor.CssCompressor;
+import com.yahoo.platform.yui.compressor.SinglePassCssCompressor;
+
+/**
+ * Benchmarks the CSS compression, and the end-to-end compression of input directories.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class YuiCompressorBenchmark {
+
+	/** Position of the line break, as used by {@link YuiCompressor}. */
+	private static final int LINE_BREAK = 200;
+
+	/** The number of input files the JS and CSS inputs are split into. */
+	private static final int FILES = 16;
+
+	/**
+	 * The CSS input.
+	 */
+	@State(Scope.Thread)
+	public static class CssInput {
+
+		/** The input size. */
+		@Param
+		public BenchmarkInputs.Size size;
+
+		/** The CSS input. */
+		private String source;
+
+		/**
+		 * Generates the CSS input.
+		 */
+		@Setup(Level.Trial)
+		public void setup() {
+			source = BenchmarkInputs.css(size);
+		}
+
+	}
+
+	/**
+	 * The JS and CSS input directories, each of them containing {@link #FILES} files.
+	 */
+	@State(Scope.Thread)
+	public static class InputDirs {
+
+		/** The input size, of each of the JS and CSS inputs. */
+		@Param
+		public BenchmarkInputs.Size size;
+
+		/** The number of threads used to compress the files. */
+		@Param({ "1", "4" })
+		public int threads;
+
+		/** The directory containing the input directories and the output files. */
+		private File dir;
+
+		/** The JS output file. */
+		private File jsOutputFile;
+
+		/** The CSS output file. */
+		private File cssOutputFile;
+
+		/** The compressor, keeping the input files. */
+		private YuiCompressor yuiCompressor;
+
+		/**
+		 * Writes the input files, and creates the compressor.
+		 *
+		 * @throws IOException
+		 *           If an error occurred while writing the input files.
+		 */
+		@Setup(Level.Trial)
+		public void setup() throws IOException {
+			dir = Files.createTempDirectory("yui-benchmark").toFile();
+			File jsInputDir = split(BenchmarkInputs.js(size), new File(dir, "js"), ".js");
+			File cssInputDir = split(BenchmarkInputs.css(size), new File(dir, "css"), ".css");
+			jsOutputFile = new File(dir, "all.js");
+			cssOutputFile = new File(dir, "all.css");
+			yuiCompressor = new YuiCompressor(jsInputDir, jsOutputFile, null, cssInputDir, cssOutputFile, null);
+			yuiCompressor.setLogger(NOPLogger.NOP_LOGGER);
+			yuiCompressor.setKeepInputs(true);
+			yuiCompressor.setThreads(threads);
+		}
+
+		/**
+		 * Deletes the output files, so that each invocation compresses all the input files again.
+		 *
+		 * @throws IOException
+		 *           If an error occurred while deleting.
+		 */
+		@Setup(Level.Invocation)
+		public void deleteOutputFiles() throws IOException {
+			for (File outputFile : new File[] { jsOutputFile, cssOutputFile }) {
+				Files.deleteIfExists(outputFile.toPath());
+				Files.deleteIfExists(BuildManifest.getFile(outputFile).toPath());
+			}
+		}
+
+		/**
+		 * Deletes the input directories and the output files.
+		 *
+		 * @throws IOException
+		 *           If an error occurred while deleting.
+		 */
+		@TearDown(Level.Trial)
+		public void tearDown() throws IOException {
+			Files.walkFileTree(dir.toPath(), new SimpleFileVisitor<Path>() {
+
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+					Files.delete(file);
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+					Files.delete(dir);
+					return FileVisitResult.CONTINUE;
+				}
+
+			});
+		}
+
+		/**
+		 * Splits an input into {@link #FILES} files, at the beginning of the repetitions of its template.
+		 *
+		 * @param input
+		 *          The input.
+		 * @param inputDir
+		 *          The directory the files are written into.
+		 * @param suffix
+		 *          The suffix of the files.
+		 * @return The directory the files have been written into.
+		 * @throws IOException
+		 *           If an error occurred while writing.
+		 */
+		private static File split(String input, File inputDir, String suffix) throws IOException {
+			Files.createDirectories(inputDir.toPath());
+			int start = 0;
+			for (int i = 0; i < FILES; i++) {
+				int end = input.indexOf(BenchmarkInputs.SEPARATOR, Math.max(start + 1, input.length() * (i + 1) / FILES));
+				if (end < 0 || i == FILES - 1) {
+					end = input.length();
+				}
+				File file = new File(inputDir, String.format("%02d", i) + suffix);
+				Files.write(file.toPath(), input.substring(start, end).getBytes(Charset.defaultCharset()));
+				start = end;
+			}
+			return inputDir;
+		}
+
+	}
+
+	/**
+	 * Benchmarks the CSS compression.
+	 *
+	 * @param input
+	 *          The CSS input.
+	 * @return The compressed CSS.
+	 * @throws IOException
+	 *           If an error occurred while compressing.
+	 */
+	@Benchmark
+	public String cssCompress(CssInput input) throws IOException {
+		StringWriter writer = new StringWriter();
+		new CssCompressor(new StringReader(input.source)).compress(writer, LINE_BREAK);
+		return writer.toString();
+	}
+
+	/**
+	 * Benchmarks the single-pass CSS compression.
+	 *
+	 * @param input
+	 *          The CSS input.
+	 * @return The compressed CSS.
+	 * @throws IOException
+	 *           If an error occurred while compressing.
+	 */
+	@Benchmark
+	public String cssCompressSinglePass(CssInput input) throws IOException {
+		StringWriter writer = new StringWriter();
+		new SinglePassCssCompressor(new StringReader(input.source)).compress(writer, LINE_BREAK);
+		return writer.toString();
+	}
+
+	/**
+	 * Benchmarks the end-to-end compression of the JS and CSS input directories into their output files.
+	 *
+	 * @param inputDirs
+	 *          The input directories.
+	 * @return The JS output file.
+	 * @throws YuiCompressorException
+	 *           If an error occurred while compressing.
+	 */
+	@Benchmark
+	public File compressAll(InputDirs inputDirs) throws YuiCompressorException {
+		inputDirs.yuiCompressor.compressAll();
+		return inputDirs.jsOutputFile;
+	}
+
+}
@@ -0,0 +1,476 @@
+/*
+ * Copyright (c) boogiedev.com, all rights reserved.
+ * This code is licensed under the LGPL 3.0 license,
+ * available at the root application directory.
+ */
+
+package com.yahoo.platform.yui.compressor;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+import org.mozilla.javascript.ErrorReporter;
+import org.mozilla.javascript.EvaluatorException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.boogiedev.yui.BenchmarkInputs;
+
+/**
+ * Benchmarks the phases of {@link JavaScriptCompressor}, each of them starting from the state left by the previous ones:
+ * <ul>
+ * <li>The phases that modify the compressor state get a fresh one before each invocation, prepared outside of the measurement.</li>
+ * <li>{@link JavaScriptCompressor#printSymbolTree(java.io.Writer, int, boolean)} only reads the compressor state, which is then prepared once per
+ * trial, and writes to a writer counting the chars, so that only the allocations of the printing are measured.</li>
+ * </ul>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JavaScriptCompressorBenchmark {
+
+	/** Position of the line break, as used by the YUI compressor. */
+	private static final int LINE_BREAK = 200;
+
+	/**
+	 * Error reporter failing on errors, and ignoring warnings.
+	 */
+	private static class FailingErrorReporter implements ErrorReporter {
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void error(String message, String sourceName, int line, String lineSource, int lineOffset) {
+			throw runtimeError(message, sourceName, line, lineSource, lineOffset);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public EvaluatorException runtimeError(String message, String sourceName, int line, String lineSource, int lineOffset) {
+			return new EvaluatorException(message, sourceName, line, lineSource, lineOffset);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void warning(String message, String sourceName, int line, String lineSource, int lineOffset) {
+		}
+
+	}
+
+	/**
+	 * Writer counting the written chars, and discarding them.
+	 */
+	private static class CountingWriter extends Writer {
+
+		/** The number of written chars. */
+		private long count;
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void write(char[] cbuf, int off, int len) {
+			count += len;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void flush() {
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void close() {
+		}
+
+	}
+
+	/**
+	 * The JS input.
+	 */
+	@State(Scope.Thread)
+	public static class Input {
+
+		/** The input size. */
+		@Param
+		public BenchmarkInputs.Size size;
+
+		/** Whether the input should be function-heavy (see {@link BenchmarkInputs#jsFunctions(BenchmarkInputs.Size)}). */
+		@Param({ "false", "true" })
+		public boolean functionHeavy;
+
+		/** The JS input. */
+		private String source;
+
+		/** The tokens of the JS input. */
+		private JavaScriptTokens tokens;
+
+		/**
+		 * Generates and parses the JS input.
+		 *
+		 * @throws IOException
+		 *           If an error occurred while parsing.
+		 */
+		@Setup(Level.Trial)
+		public void setup() throws IOException {
+			source = functionHeavy ? BenchmarkInputs.jsFunctions(size) : BenchmarkInputs.js(size);
+			tokens = JavaScriptCompressor.parse(new StringReader(source), new FailingErrorReporter());
+		}
+
+	}
+
+	/**
+	 * Fresh tokens, as returned by {@link JavaScriptCompressor#parse(java.io.Reader, ErrorReporter)}.
+	 */
+	@State(Scope.Thread)
+	public static class ParsedTokens {
+
+		/** The tokens. */
+		private JavaScriptTokens tokens;
+
+		/**
+		 * Copies the tokens of the JS input.
+		 *
+		 * @param input
+		 *          The JS input.
+		 */
+		@Setup(Level.Invocation)
+		public void setup(Input input) {
+			tokens = new JavaScriptTokens(input.tokens);
+		}
+
+	}
+
+	/**
+	 * Fresh tokens of a JS input made of string concatenations (see {@link BenchmarkInputs#jsConcatenations(int, int)}).
+	 */
+	@State(Scope.Thread)
+	public static class ConcatenatedTokens {
+
+		/** The number of concatenations. */
+		private static final int COUNT = 100000;
+
+		/** The number of concatenations by statement. */
+		@Param({ "100", "100000" })
+		public int chainLength;
+
+		/** The tokens of the JS input. */
+		private JavaScriptTokens parsedTokens;
+
+		/** The tokens. */
+		private JavaScriptTokens tokens;
+
+		/**
+		 * Generates and parses the JS input.
+		 *
+		 * @throws IOException
+		 *           If an error occurred while parsing.
+		 */
+		@Setup(Level.Trial)
+		public void parse() throws IOException {
+			String source = BenchmarkInputs.jsConcatenations(COUNT, chainLength);
+			parsedTokens = JavaScriptCompressor.parse(new StringReader(source), new FailingErrorReporter());
+		}
+
+		/**
+		 * Copies the tokens of the JS input.
+		 */
+		@Setup(Level.Invocation)
+		public void setup() {
+			tokens = new JavaScriptTokens(parsedTokens);
+		}
+
+	}
+
+	/**
+	 * Directory of many small JS files (see {@link BenchmarkInputs.Size#SMALL}), compressed by fresh compressors or by a reused one.
+	 */
+	@State(Scope.Thread)
+	public static class SmallFiles {
+
+		/** The number of files. */
+		private static final int COUNT = 100;
+
+		/** Whether a single compressor should be reused for all the files (see {@link JavaScriptCompressor#reset(java.io.Reader)}). */
+		@Param({ "false", "true" })
+		public boolean reuse;
+
+		/** The JS files. */
+		private String[] sources;
+
+		/** The reused compressor. */
+		private JavaScriptCompressor compressor;
+
+		/**
+		 * Generates the JS files.
+		 */
+		@Setup(Level.Trial)
+		public void setup() {
+			sources = new String[COUNT];
+			for (int i = 0; i < COUNT; i++) {
+				// distinct files, as found in a directory
+				sources[i] = "var file" + i + " = " + i + ";\n" + BenchmarkInputs.js(BenchmarkInputs.Size.SMALL);
+			}
+			compressor = new JavaScriptCompressor(new FailingErrorReporter());
+		}
+
+	}
+
+	/**
+	 * Fresh compressor whose tokens have been optimized, ready to build its symbol tree.
+	 */
+	@State(Scope.Thread)
+	public static class OptimizedCompressor {
+
+		/** The compressor. */
+		private JavaScriptCompressor compressor;
+
+		/**
+		 * Creates the compressor.
+		 *
+		 * @param input
+		 *          The JS input.
+		 * @throws IOException
+		 *           If an error occurred while parsing.
+		 */
+		@Setup(Level.Invocation)
+		public void setup(Input input) throws IOException {
+			compressor = optimizedCompressor(input);
+		}
+
+	}
+
+	/**
+	 * Fresh compressor whose symbol tree has been built, ready to be munged.
+	 */
+	@State(Scope.Thread)
+	public static class BuiltCompressor {
+
+		/** The compressor. */
+		private JavaScriptCompressor compressor;
+
+		/**
+		 * Creates the compressor.
+		 *
+		 * @param input
+		 *          The JS input.
+		 * @throws IOException
+		 *           If an error occurred while parsing.
+		 */
+		@Setup(Level.Invocation)
+		public void setup(Input input) throws IOException {
+			compressor = optimizedCompressor(input);
+			compressor.buildSymbolTree();
+		}
+
+	}
+
+	/**
+	 * Compressor whose symbol tree has been munged, ready to be printed.
+	 */
+	@State(Scope.Thread)
+	public static class MungedCompressor {
+
+		/** The compressor. */
+		private JavaScriptCompressor compressor;
+
+		/**
+		 * Creates the compressor.
+		 *
+		 * @param input
+		 *          The JS input.
+		 * @throws IOException
+		 *           If an error occurred while parsing.
+		 */
+		@Setup(Level.Trial)
+		public void setup(Input input) throws IOException {
+			compressor = optimizedCompressor(input);
+			compressor.buildSymbolTree();
+			compressor.mungeSymboltree();
+		}
+
+	}
+
+	/**
+	 * Benchmarks the parsing of the JS input into tokens.
+	 *
+	 * @param input
+	 *          The JS input.
+	 * @return The tokens.
+	 * @throws IOException
+	 *           If an error occurred while parsing.
+	 */
+	@Benchmark
+	public JavaScriptTokens parse(Input input) throws IOException {
+		return JavaScriptCompressor.parse(new StringReader(input.source), new FailingErrorReporter());
+	}
+
+	/**
+	 * Benchmarks the rewriting of the tokens: merging and quoting of the string literals, optimization of the member accesses and object literal
+	 * keys.
+	 *
+	 * @param tokens
+	 *          Fresh tokens.
+	 * @return The processed tokens.
+	 */
+	@Benchmark
+	public JavaScriptTokens processTokens(ParsedTokens tokens) {
+		JavaScriptCompressor.processTokens(tokens.tokens, true);
+		return tokens.tokens;
+	}
+
+	/**
+	 * Benchmarks the rewriting of the tokens of a JS input made of 100,000 string concatenations.
+	 *
+	 * @param tokens
+	 *          Fresh tokens.
+	 * @return The processed tokens.
+	 */
+	@Benchmark
+	public JavaScriptTokens processConcatenatedTokens(ConcatenatedTokens tokens) {
+		JavaScriptCompressor.processTokens(tokens.tokens, true);
+		return tokens.tokens;
+	}
+
+	/**
+	 * Benchmarks the building of the symbol tree.
+	 *
+	 * @param compressor
+	 *          Fresh compressor whose tokens have been optimized.
+	 * @return The compressor.
+	 */
+	@Benchmark
+	public JavaScriptCompressor buildSymbolTree(OptimizedCompressor compressor) {
+		compressor.compressor.buildSymbolTree();
+		return compressor.compressor;
+	}
+
+	/**
+	 * Benchmarks the munging of the symbol tree.
+	 *
+	 * @param compressor
+	 *          Fresh compressor whose symbol tree has been built.
+	 * @return The compressor.
+	 */
+	@Benchmark
+	public JavaScriptCompressor mungeSymboltree(BuiltCompressor compressor) {
+		compressor.compressor.mungeSymboltree();
+		return compressor.compressor;
+	}
+
+	/**
+	 * Benchmarks the printing of the symbol tree.
+	 *
+	 * @param compressor
+	 *          Compressor whose symbol tree has been munged.
+	 * @return The number of chars of the compressed JS.
+	 * @throws IOException
+	 *           If an error occurred while printing.
+	 */
+	@Benchmark
+	public long printSymbolTree(MungedCompressor compressor) throws IOException {
+		CountingWriter writer = new CountingWriter();
+		compressor.compressor.printSymbolTree(writer, LINE_BREAK, true);
+		return writer.count;
+	}
+
+	/**
+	 * Benchmarks the parsing of the JS input into tokens, on as many threads as there are cores: compared to {@link #parse(Input)}, it shows how
+	 * the parsing scales when several files are compressed concurrently.
+	 *
+	 * @param input
+	 *          The JS input.
+	 * @return The tokens.
+	 * @throws IOException
+	 *           If an error occurred while parsing.
+	 */
+	@Benchmark
+	@Threads(Threads.MAX)
+	public JavaScriptTokens parseOnAllCores(Input input) throws IOException {
+		return parse(input);
+	}
+
+	/**
+	 * Benchmarks the printing of the symbol tree, on as many threads as there are cores: compared to {@link #printSymbolTree(MungedCompressor)},
+	 * it shows how the printing scales when several files are compressed concurrently.
+	 *
+	 * @param compressor
+	 *          Compressor whose symbol tree has been munged.
+	 * @return The number of chars of the compressed JS.
+	 * @throws IOException
+	 *           If an error occurred while printing.
+	 */
+	@Benchmark
+	@Threads(Threads.MAX)
+	public long printSymbolTreeOnAllCores(MungedCompressor compressor) throws IOException {
+		return printSymbolTree(compressor);
+	}
+
+	/**
+	 * Benchmarks the whole compression of a directory of many small JS files: compared with fresh compressors, a reused compressor shows the gain of
+	 * recycling the parser and the arrays from one file to the next one.
+	 *
+	 * @param files
+	 *          The JS files.
+	 * @return The number of chars of the compressed JS files.
+	 * @throws IOException
+	 *           If an error occurred while compressing.
+	 */
+	@Benchmark
+	public long compressSmallFiles(SmallFiles files) throws IOException {
+		CountingWriter writer = new CountingWriter();
+		for (String source : files.sources) {
+			JavaScriptCompressor compressor;
+			if (files.reuse) {
+				compressor = files.compressor;
+				compressor.reset(new StringReader(source));
+			} else {
+				compressor = new JavaScriptCompressor(new StringReader(source), new FailingErrorReporter());
+			}
+			compressor.compress(writer, LINE_BREAK, true, false, true, false);
+		}
+		return writer.count;
+	}
+
+	/**
+	 * Creates a compressor whose tokens have been optimized, as done by
+	 * {@link JavaScriptCompressor#compress(java.io.Writer, int, boolean, boolean, boolean, boolean)} with munging enabled.
+	 *
+	 * @param input
+	 *          The JS input.
+	 * @return The compressor.
+	 * @throws IOException
+	 *           If an error occurred while parsing.
+	 */
+	private static JavaScriptCompressor optimizedCompressor(Input input) throws IOException {
+		JavaScriptCompressor compressor = new JavaScriptCompressor(new StringReader(input.source), new FailingErrorReporter());
+		compressor.munge = true;
+		JavaScriptCompressor.processTokens(compressor.tokens, true);
+		return compressor;
+	}
+
+}
@@ -12,21 +12,20 @@ import java.io.IOException;
 import java.io.Reader;
 import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
-import java.util.Hashtable;
-import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
 import java.util.StringTokenizer;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.mozilla.javascript.CompilerEnvirons;
+import org.mozilla.javascript.Decompiler;
 import org.mozilla.javascript.ErrorReporter;
 import org.mozilla.javascript.EvaluatorException;
 import org.mozilla.javascript.Parser;
 import org.mozilla.javascript.ScriptRuntime;
 import org.mozilla.javascript.Token;
+import org.mozilla.javascript.TokenDecompiler;
 
 public class JavaScriptCompressor {
 
@@ -38,7 +37,11 @@ public class JavaScriptCompressor {
 
 	static final Set builtin = new HashSet();
 
-	static final Map literals = new Hashtable();
+	/*
+	 * Literals of the tokens, indexed by token type: an immutable array lookup, without boxing nor locking, can be shared by threads compressing
+	 * concurrently.
+	 */
+	private static final String[] literals = new String[Token.LAST_TOKEN + 1];
 
 	static final Set reserved = new HashSet();
 
@@ -107,92 +110,92 @@ public class JavaScriptCompressor {
 		// (206,380 symbols per scope)
 
 		// The following list comes from org/mozilla/javascript/Decompiler.java...
-		literals.put(new Integer(Token.GET), "get ");
-		literals.put(new Integer(Token.SET), "set ");
-		literals.put(new Integer(Token.TRUE), "true");
-		literals.put(new Integer(Token.FALSE), "false");
-		literals.put(new Integer(Token.NULL), "null");
-		literals.put(new Integer(Token.THIS), "this");
-		literals.put(new Integer(Token.FUNCTION), "function");
-		literals.put(new Integer(Token.COMMA), ",");
-		literals.put(new Integer(Token.LC), "{");
-		literals.put(new Integer(Token.RC), "}");
-		literals.put(new Integer(Token.LP), "(");
-		literals.put(new Integer(Token.RP), ")");
-		literals.put(new Integer(Token.LB), "[");
-		literals.put(new Integer(Token.RB), "]");
-		literals.put(new Integer(Token.DOT), ".");
-		literals.put(new Integer(Token.NEW), "new ");
-		literals.put(new Integer(Token.DELPROP), "delete ");
-		literals.put(new Integer(Token.IF), "if");
-		literals.put(new Integer(Token.ELSE), "else");
-		literals.put(new Integer(Token.FOR), "for");
-		literals.put(new Integer(Token.IN), " in ");
-		literals.put(new Integer(Token.WITH), "with");
-		literals.put(new Integer(Token.WHILE), "while");
-		literals.put(new Integer(Token.DO), "do");
-		literals.put(new Integer(Token.TRY), "try");
-		literals.put(new Integer(Token.CATCH), "catch");
-		literals.put(new Integer(Token.FINALLY), "finally");
-		literals.put(new Integer(Token.THROW), "throw");
-		literals.put(new Integer(Token.SWITCH), "switch");
-		literals.put(new Integer(Token.BREAK), "break");
-		literals.put(new Integer(Token.CONTINUE), "continue");
-		literals.put(new Integer(Token.CASE), "case");
-		literals.put(new Integer(Token.DEFAULT), "default");
-		literals.put(new Integer(Token.RETURN), "return");
-		literals.put(new Integer(Token.VAR), "var ");
-		literals.put(new Integer(Token.SEMI), ";");
-		literals.put(new Integer(Token.ASSIGN), "=");
-		literals.put(new Integer(Token.ASSIGN_ADD), "+=");
-		literals.put(new Integer(Token.ASSIGN_SUB), "-=");
-		literals.put(new Integer(Token.ASSIGN_MUL), "*=");
-		literals.put(new Integer(Token.ASSIGN_DIV), "/=");
-		literals.put(new Integer(Token.ASSIGN_MOD), "%=");
-		literals.put(new Integer(Token.ASSIGN_BITOR), "|=");
-		literals.put(new Integer(Token.ASSIGN_BITXOR), "^=");
-		literals.put(new Integer(Token.ASSIGN_BITAND), "&=");
-		literals.put(new Integer(Token.ASSIGN_LSH), "<<=");
-		literals.put(new Integer(Token.ASSIGN_RSH), ">>=");
-		literals.put(new Integer(Token.ASSIGN_URSH), ">>>=");
-		literals.put(new Integer(Token.HOOK), "?");
-		literals.put(new Integer(Token.OBJECTLIT), ":");
-		literals.put(new Integer(Token.COLON), ":");
-		literals.put(new Integer(Token.OR), "||");
-		literals.put(new Integer(Token.AND), "&&");
-		literals.put(new Integer(Token.BITOR), "|");
-		literals.put(new Integer(Token.BITXOR), "^");
-		literals.put(new Integer(Token.BITAND), "&");
-		literals.put(new Integer(Token.SHEQ), "===");
-		literals.put(new Integer(Token.SHNE), "!==");
-		literals.put(new Integer(Token.EQ), "==");
-		literals.put(new Integer(Token.NE), "!=");
-		literals.put(new Integer(Token.LE), "<=");
-		literals.put(new Integer(Token.LT), "<");
-		literals.put(new Integer(Token.GE), ">=");
-		literals.put(new Integer(Token.GT), ">");
-		literals.put(new Integer(Token.INSTANCEOF), " instanceof ");
-		literals.put(new Integer(Token.LSH), "<<");
-		literals.put(new Integer(Token.RSH), ">>");
-		literals.put(new Integer(Token.URSH), ">>>");
-		literals.put(new Integer(Token.TYPEOF), "typeof");
-		literals.put(new Integer(Token.VOID), "void ");
-		literals.put(new Integer(Token.CONST), "const ");
-		literals.put(new Integer(Token.NOT), "!");
-		literals.put(new Integer(Token.BITNOT), "~");
-		literals.put(new Integer(Token.POS), "+");
-		literals.put(new Integer(Token.NEG), "-");
-		literals.put(new Integer(Token.INC), "++");
-		literals.put(new Integer(Token.DEC), "--");
-		literals.put(new Integer(Token.ADD), "+");
-		literals.put(new Integer(Token.SUB), "-");
-		literals.put(new Integer(Token.MUL), "*");
-		literals.put(new Integer(Token.DIV), "/");
-		literals.put(new Integer(Token.MOD), "%");
-		literals.put(new Integer(Token.COLONCOLON), "::");
-		literals.put(new Integer(Token.DOTDOT), "..");
-		literals.put(new Integer(Token.DOTQUERY), ".(");
-		literals.put(new Integer(Token.XMLATTR), "@");
+		literals[Token.GET] = "get ";
+		literals[Token.SET] = "set ";
+		literals[Token.TRUE] = "true";
+		literals[Token.FALSE] = "false";
+		literals[Token.NULL] = "null";
+		literals[Token.THIS] = "this";
+		literals[Token.FUNCTION] = "function";
+		literals[Token.COMMA] = ",";
+		literals[Token.LC] = "{";
+		literals[Token.RC] = "}";
+		literals[Token.LP] = "(";
+		literals[Token.RP] = ")";
+		literals[Token.LB] = "[";
+		literals[Token.RB] = "]";
+		literals[Token.DOT] = ".";
+		literals[Token.NEW] = "new ";
+		literals[Token.DELPROP] = "delete ";
+		literals[Token.IF] = "if";
+		literals[Token.ELSE] = "else";
+		literals[Token.FOR] = "for";
+		literals[Token.IN] = " in ";
+		literals[Token.WITH] = "with";
+		literals[Token.WHILE] = "while";
+		literals[Token.DO] = "do";
+		literals[Token.TRY] = "try";
+		literals[Token.CATCH] = "catch";
+		literals[Token.FINALLY] = "finally";
+		literals[Token.THROW] = "throw";
+		literals[Token.SWITCH] = "switch";
+		literals[Token.BREAK] = "break";
+		literals[Token.CONTINUE] = "continue";
+		literals[Token.CASE] = "case";
+		literals[Token.DEFAULT] = "default";
+		literals[Token.RETURN] = "return";
+		literals[Token.VAR] = "var ";
+		literals[Token.SEMI] = ";";
+		literals[Token.ASSIGN] = "=";
+		literals[Token.ASSIGN_ADD] = "+=";
+		literals[Token.ASSIGN_SUB] = "-=";
+		literals[Token.ASSIGN_MUL] = "*=";
+		literals[Token.ASSIGN_DIV] = "/=";
+		literals[Token.ASSIGN_MOD] = "%=";
+		literals[Token.ASSIGN_BITOR] = "|=";
+		literals[Token.ASSIGN_BITXOR] = "^=";
+		literals[Token.ASSIGN_BITAND] = "&=";
+		literals[Token.ASSIGN_LSH] = "<<=";
+		literals[Token.ASSIGN_RSH] = ">>=";
+		literals[Token.ASSIGN_URSH] = ">>>=";
+		literals[Token.HOOK] = "?";
+		literals[Token.OBJECTLIT] = ":";
+		literals[Token.COLON] = ":";
+		literals[Token.OR] = "||";
+		literals[Token.AND] = "&&";
+		literals[Token.BITOR] = "|";
+		literals[Token.BITXOR] = "^";
+		literals[Token.BITAND] = "&";
+		literals[Token.SHEQ] = "===";
+		literals[Token.SHNE] = "!==";
+		literals[Token.EQ] = "==";
+		literals[Token.NE] = "!=";
+		literals[Token.LE] = "<=";
+		literals[Token.LT] = "<";
+		literals[Token.GE] = ">=";
+		literals[Token.GT] = ">";
+		literals[Token.INSTANCEOF] = " instanceof ";
+		literals[Token.LSH] = "<<";
+		literals[Token.RSH] = ">>";
+		literals[Token.URSH] = ">>>";
+		literals[Token.TYPEOF] = "typeof";
+		literals[Token.VOID] = "void ";
+		literals[Token.CONST] = "const ";
+		literals[Token.NOT] = "!";
+		literals[Token.BITNOT] = "~";
+		literals[Token.POS] = "+";
+		literals[Token.NEG] = "-";
+		literals[Token.INC] = "++";
+		literals[Token.DEC] = "--";
+		literals[Token.ADD] = "+";
+		literals[Token.SUB] = "-";
+		literals[Token.MUL] = "*";
+		literals[Token.DIV] = "/";
+		literals[Token.MOD] = "%";
+		literals[Token.COLONCOLON] = "::";
+		literals[Token.DOTDOT] = "..";
+		literals[Token.DOTQUERY] = ".(";
+		literals[Token.XMLATTR] = "@";
 
 		// See http://developer.mozilla.org/en/docs/Core_JavaScript_1.5_Reference:Reserved_Words
 
@@ -266,302 +269,347 @@ public class JavaScriptCompressor {
 		reserved.add("undefined");
 	}
 
-	private static int countChar(String haystack, char needle) {
-		int idx = 0;
-		int count = 0;
-		int length = haystack.length();
-		while (idx < length) {
-			char c = haystack.charAt(idx++);
-			if (c == needle) {
-				count++;
-			}
-		}
-		return count;
-	}
+	/*
+	 * 2^53, the integers below being exactly represented by a double.
+	 */
+	private static final double MAX_EXACT_INTEGER = 9007199254740992.0;
 
-	private static int printSourceString(String source, int offset, StringBuffer sb) {
-		int length = source.charAt(offset);
-		++offset;
-		if ((0x8000 & length) != 0) {
-			length = (0x7FFF & length) << 16 | source.charAt(offset);
-			++offset;
-		}
-		if (sb != null) {
-			String str = source.substring(offset, offset + length);
-			sb.append(str);
-		}
-		return offset + length;
+	static JavaScriptTokens parse(Reader in, ErrorReporter reporter) throws IOException, EvaluatorException {
+
+		JavaScriptTokens tokens = new JavaScriptTokens(0);
+		new TokenParser(new CompilerEnvirons(), reporter).parse(in, tokens);
+		return tokens;
 	}
 
-	private static int printSourceNumber(String source, int offset, StringBuffer sb) {
-		double number = 0.0;
-		char type = source.charAt(offset);
-		++offset;
-		if (type == 'S') {
-			if (sb != null) {
-				number = source.charAt(offset);
-			}
-			++offset;
-		} else if (type == 'J' || type == 'D') {
-			if (sb != null) {
-				long lbits;
-				lbits = (long) source.charAt(offset) << 48;
-				lbits |= (long) source.charAt(offset + 1) << 32;
-				lbits |= (long) source.charAt(offset + 2) << 16;
-				lbits |= source.charAt(offset + 3);
-				if (type == 'J') {
-					number = lbits;
-				} else {
-					number = Double.longBitsToDouble(lbits);
+	/*
+	 * Parser appending the tokens to the given (empty) tokens as it parses the source, instead of encoding them into a source string which is
+	 * then decoded: neither the encoded source nor the strings extracted from it are created (see TokenDecompiler). Rhino still builds its tree,
+	 * which is not used.
+	 */
+	private static final class TokenParser extends Parser {
+
+		private final TokenDecompiler collector = new TokenDecompiler() {
+
+			protected void token(int type) {
+				String literal = getLiteral(type);
+				if (literal != null) {
+					tokens.add(type, literal);
 				}
 			}
-			offset += 4;
-		} else {
-			// Bad source
-			throw new RuntimeException();
-		}
-		if (sb != null) {
-			sb.append(ScriptRuntime.numberToString(number, 10));
-		}
-		return offset;
-	}
 
-	private static ArrayList parse(Reader in, ErrorReporter reporter) throws IOException, EvaluatorException {
+			protected void token(int type, String value) {
+				tokens.add(type, value);
+			}
 
-		CompilerEnvirons env = new CompilerEnvirons();
-		Parser parser = new Parser(env, reporter);
-		parser.parse(in, null, 1);
-		String source = parser.getEncodedSource();
+			protected void number(double number) {
+				if (number >= 0 && number < MAX_EXACT_INTEGER && number == (long) number) {
+					// printed as is by numberToString, without creating a string for each occurrence
+					digits.setLength(0);
+					digits.append((long) number);
+					tokens.add(Token.NUMBER, digits, 0, digits.length());
+				} else {
+					tokens.add(Token.NUMBER, ScriptRuntime.numberToString(number, 10));
+				}
+			}
+		};
 
-		int offset = 0;
-		int length = source.length();
-		ArrayList tokens = new ArrayList();
-		StringBuffer sb = new StringBuffer();
+		private final StringBuilder digits = new StringBuilder();
 
-		while (offset < length) {
-			int tt = source.charAt(offset++);
-			switch (tt) {
+		private JavaScriptTokens tokens;
 
-			case Token.CONDCOMMENT:
-			case Token.KEEPCOMMENT:
-			case Token.NAME:
-			case Token.REGEXP:
-			case Token.STRING:
-				sb.setLength(0);
-				offset = printSourceString(source, offset, sb);
-				tokens.add(new JavaScriptToken(tt, sb.toString()));
-				break;
+		TokenParser(CompilerEnvirons env, ErrorReporter reporter) {
+			super(env, reporter);
+		}
 
-			case Token.NUMBER:
-				sb.setLength(0);
-				offset = printSourceNumber(source, offset, sb);
-				tokens.add(new JavaScriptToken(tt, sb.toString()));
-				break;
+		protected Decompiler createDecompiler(CompilerEnvirons env) {
+			return collector;
+		}
 
-			default:
-				String literal = (String) literals.get(new Integer(tt));
-				if (literal != null) {
-					tokens.add(new JavaScriptToken(tt, literal));
-				}
-				break;
+		void parse(Reader in, JavaScriptTokens tokens) throws IOException {
+			this.tokens = tokens;
+			try {
+				parse(in, null, 1);
+			} finally {
+				this.tokens = null;
 			}
 		}
-
-		return tokens;
 	}
 
-	private static void processStringLiterals(ArrayList tokens, boolean merge) {
-
-		String tv;
-		int i, length = tokens.size();
-		JavaScriptToken token, prevToken, nextToken;
-
-		if (merge) {
-
-			// Concatenate string literals that are being appended wherever
-			// it is safe to do so. Note that we take care of the case:
-			// "a" + "b".toUpperCase()
-
-			for (i = 0; i < length; i++) {
-				token = (JavaScriptToken) tokens.get(i);
-				switch (token.getType()) {
-
-				case Token.ADD:
-					if (i > 0 && i < length) {
-						prevToken = (JavaScriptToken) tokens.get(i - 1);
-						nextToken = (JavaScriptToken) tokens.get(i + 1);
-						if (prevToken.getType() == Token.STRING && nextToken.getType() == Token.STRING
-								&& (i == length - 1 || ((JavaScriptToken) tokens.get(i + 2)).getType() != Token.DOT)) {
-							tokens.set(i - 1, new JavaScriptToken(Token.STRING, prevToken.getValue() + nextToken.getValue()));
-							tokens.remove(i + 1);
-							tokens.remove(i);
-							i = i - 1;
-							length = length - 2;
-							break;
-						}
-					}
-				}
-			}
-
-		}
+	/*
+	 * Rewrites the tokens in a single compacting pass, each token being read once and written at most once:
+	 * - the string literals being appended are concatenated (if optimizing),
+	 * - the string literals are quoted and escaped,
+	 * - obj["foo"] is transformed into obj.foo (if optimizing),
+	 * - 'foo': ... is transformed into foo: ... (if optimizing).
+	 */
+	static void processTokens(JavaScriptTokens tokens, boolean optimize) {
 
-		// Second pass...
+		StringBuilder raw = new StringBuilder();
+		StringBuilder quoted = new StringBuilder();
+		String identifier;
+		int i, type, length = tokens.size();
+		int count = 0;
+		// The index of the token written after the last obj.foo transformation,
+		// which cannot start another one (as in the former separate pass).
+		int skipped = -1;
 
 		for (i = 0; i < length; i++) {
-			token = (JavaScriptToken) tokens.get(i);
-			if (token.getType() == Token.STRING) {
-				tv = token.getValue();
-
-				// Finally, add the quoting characters and escape the string. We use
-				// the quoting character that minimizes the amount of escaping to save
-				// a few additional bytes.
-
-				char quotechar;
-				int singleQuoteCount = countChar(tv, '\'');
-				int doubleQuoteCount = countChar(tv, '"');
-				if (doubleQuoteCount <= singleQuoteCount) {
-					quotechar = '"';
-				} else {
-					quotechar = '\'';
+			type = tokens.getType(i);
+
+			if (type == Token.STRING) {
+				raw.setLength(0);
+				raw.append(tokens.getValue(i));
+
+				if (optimize) {
+					// Concatenate string literals that are being appended wherever
+					// it is safe to do so. Note that we take care of the case:
+					// "a" + "b".toUpperCase()
+					while (i + 2 < length && tokens.getType(i + 1) == Token.ADD && tokens.getType(i + 2) == Token.STRING
+							&& (i + 3 == length || tokens.getType(i + 3) != Token.DOT)) {
+						raw.append(tokens.getValue(i + 2));
+						i += 2;
+					}
 				}
 
-				tv = quotechar + escapeString(tv, quotechar) + quotechar;
-
-				// String concatenation transforms the old script scheme:
-				// '<scr'+'ipt ...><'+'/script>'
-				// into the following:
-				// '<script ...></script>'
-				// which breaks if this code is embedded inside an HTML document.
-				// Since this is not the right way to do this, let's fix the code by
-				// transforming all "</script" into "<\/script"
+				quoteString(raw, quoted);
+				tokens.set(count++, Token.STRING, quoted);
+				continue;
+			}
 
-				if (tv.indexOf("</script") >= 0) {
-					tv = tv.replaceAll("<\\/script", "<\\\\/script");
+			if (optimize && type == Token.RB && count >= 3 && count - 2 != skipped && tokens.getType(count - 1) == Token.STRING
+					&& tokens.getType(count - 2) == Token.LB && tokens.getType(count - 3) == Token.NAME) {
+				// Transform obj["foo"] into obj.foo whenever possible, saving 3 bytes.
+				identifier = getIdentifier(tokens.getValue(count - 1));
+				if (identifier != null) {
+					tokens.set(count - 2, Token.DOT, ".");
+					tokens.set(count - 1, Token.NAME, identifier);
+					skipped = count;
+					continue;
 				}
+			}
 
-				tokens.set(i, new JavaScriptToken(Token.STRING, tv));
+			if (optimize && type == Token.OBJECTLIT && count > 0 && tokens.getType(count - 1) == Token.STRING) {
+				// Transform 'foo': ... into foo: ... whenever possible, saving 2 bytes.
+				identifier = getIdentifier(tokens.getValue(count - 1));
+				if (identifier != null) {
+					tokens.set(count - 1, Token.NAME, identifier);
+				}
 			}
-		}
-	}
 
-	// Add necessary escaping that was removed in Rhino's tokenizer.
-	private static String escapeString(String s, char quotechar) {
+			tokens.copy(i, count++);
+		}
 
-		assert quotechar == '"' || quotechar == '\'';
+		tokens.truncate(count);
+	}
 
-		if (s == null) {
-			return null;
+	/*
+	 * Adds the quoting characters and the necessary escaping that was removed in Rhino's tokenizer. We use the quoting character that minimizes the
+	 * amount of escaping to save a few additional bytes.
+	 */
+	private static void quoteString(CharSequence s, StringBuilder sb) {
+
+		int i, L = s.length();
+		int singleQuoteCount = 0;
+		int doubleQuoteCount = 0;
+		for (i = 0; i < L; i++) {
+			char c = s.charAt(i);
+			if (c == '\'') {
+				singleQuoteCount++;
+			} else if (c == '"') {
+				doubleQuoteCount++;
+			}
 		}
+		char quotechar = doubleQuoteCount <= singleQuoteCount ? '"' : '\'';
 
-		StringBuffer sb = new StringBuffer();
-		for (int i = 0, L = s.length(); i < L; i++) {
-			int c = s.charAt(i);
+		sb.setLength(0);
+		sb.append(quotechar);
+		for (i = 0; i < L; i++) {
+			char c = s.charAt(i);
 			if (c == quotechar) {
-				sb.append("\\");
+				sb.append('\\');
+			}
+			sb.append(c);
+
+			// String concatenation transforms the old script scheme:
+			// '<scr'+'ipt ...><'+'/script>'
+			// into the following:
+			// '<script ...></script>'
+			// which breaks if this code is embedded inside an HTML document.
+			// Since this is not the right way to do this, let's fix the code by
+			// transforming all "</script" into "<\/script"
+			if (c == '<' && regionMatches(s, i + 1, "/script")) {
+				sb.append('\\');
 			}
-			sb.append((char) c);
 		}
-
-		return sb.toString();
+		sb.append(quotechar);
 	}
 
-	/*
-	 * Simple check to see whether a string is a valid identifier name. If a string matches this pattern, it means it IS a valid identifier name. If a
-	 * string doesn't match it, it does not necessarily mean it is not a valid identifier name.
-	 */
-	private static final Pattern SIMPLE_IDENTIFIER_NAME_PATTERN = Pattern.compile("^[a-zA-Z_][a-zA-Z0-9_]*$");
-
-	private static boolean isValidIdentifier(String s) {
-		Matcher m = SIMPLE_IDENTIFIER_NAME_PATTERN.matcher(s);
-		return m.matches() && !reserved.contains(s);
+	private static boolean regionMatches(CharSequence s, int offset, String region) {
+		if (offset + region.length() > s.length()) {
+			return false;
+		}
+		for (int i = 0; i < region.length(); i++) {
+			if (s.charAt(offset + i) != region.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
 	}
 
 	/*
-	 * "use strict" must not be interpreted as a hint.
+	 * Returns the literal of a token type, null if the type has none.
 	 */
-	private static final String USE_STRICT = "\"use strict\"";
-
-	private boolean isHint(JavaScriptToken token) {
-		return token.getType() == Token.STRING && getToken(1).getType() == Token.SEMI && !USE_STRICT.equals(token.getValue());
+	private static String getLiteral(int type) {
+		return type >= 0 && type < literals.length ? literals[type] : null;
 	}
 
 	/*
-	 * Transforms obj["foo"] into obj.foo whenever possible, saving 3 bytes.
+	 * Returns the content of a quoted string if it is a valid identifier name, null otherwise. This is a simple check: if the content matches
+	 * [a-zA-Z_][a-zA-Z0-9_]* and is not reserved, it IS a valid identifier name. If it doesn't, it does not necessarily mean it is not a valid
+	 * identifier name.
 	 */
-	private static void optimizeObjectMemberAccess(ArrayList tokens) {
-
-		String tv;
-		int i, length;
-		JavaScriptToken token;
-
-		for (i = 0, length = tokens.size(); i < length; i++) {
-
-			if (((JavaScriptToken) tokens.get(i)).getType() == Token.LB && i > 0 && i < length - 2
-					&& ((JavaScriptToken) tokens.get(i - 1)).getType() == Token.NAME && ((JavaScriptToken) tokens.get(i + 1)).getType() == Token.STRING
-					&& ((JavaScriptToken) tokens.get(i + 2)).getType() == Token.RB) {
-				token = (JavaScriptToken) tokens.get(i + 1);
-				tv = token.getValue();
-				tv = tv.substring(1, tv.length() - 1);
-				if (isValidIdentifier(tv)) {
-					tokens.set(i, new JavaScriptToken(Token.DOT, "."));
-					tokens.set(i + 1, new JavaScriptToken(Token.NAME, tv));
-					tokens.remove(i + 2);
-					i = i + 2;
-					length = length - 1;
-				}
+	private static String getIdentifier(String quoted) {
+		int end = quoted.length() - 1;
+		if (end <= 1) {
+			return null;
+		}
+		for (int i = 1; i < end; i++) {
+			char c = quoted.charAt(i);
+			if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c == '_' || i > 1 && c >= '0' && c <= '9')) {
+				return null;
 			}
 		}
+		String identifier = quoted.substring(1, end);
+		return reserved.contains(identifier) ? null : identifier;
 	}
 
 	/*
-	 * Transforms 'foo': ... into foo: ... whenever possible, saving 2 bytes.
+	 * "use strict" must not be interpreted as a hint.
 	 */
-	private static void optimizeObjLitMemberDecl(ArrayList tokens) {
-
-		String tv;
-		int i, length;
-		JavaScriptToken token;
-
-		for (i = 0, length = tokens.size(); i < length; i++) {
-			if (((JavaScriptToken) tokens.get(i)).getType() == Token.OBJECTLIT && i > 0 && ((JavaScriptToken) tokens.get(i - 1)).getType() == Token.STRING) {
-				token = (JavaScriptToken) tokens.get(i - 1);
-				tv = token.getValue();
-				tv = tv.substring(1, tv.length() - 1);
-				if (isValidIdentifier(tv)) {
-					tokens.set(i - 1, new JavaScriptToken(Token.NAME, tv));
-				}
-			}
-		}
+	private static final String USE_STRICT = "\"use strict\"";
+
+	private boolean isHint() {
+		return getType(0) == Token.STRING && getType(1) == Token.SEMI && !USE_STRICT.equals(getValue(0));
 	}
 
 	private final ErrorReporter logger;
 
-	private boolean munge;
-
-	private boolean verbose;
+	/*
+	 * The parsing structures, reused from one source to the next one: the parser is only kept once it parsed a source successfully, its state being
+	 * left as is otherwise.
+	 */
+	private final CompilerEnvirons env = new CompilerEnvirons();
 
-	private static final int BUILDING_SYMBOL_TREE = 1;
+	private TokenParser parser;
 
-	private static final int CHECKING_SYMBOL_TREE = 2;
+	boolean munge;
 
-	private int mode;
+	private boolean verbose;
 
 	private int offset;
 
 	private int braceNesting;
 
-	private final ArrayList tokens;
+	JavaScriptTokens tokens;
 
 	private final Stack scopes = new Stack();
 
-	private final ScriptOrFnScope globalScope = new ScriptOrFnScope(-1, null);
+	private ScriptOrFnScope globalScope = new ScriptOrFnScope(-1, null);
 
-	private final Hashtable indexedScopes = new Hashtable();
+	/*
+	 * Scopes of the functions, indexed by the offset of the token following their opening parenthesis (the global scope being at offset 0): the
+	 * array is parallel to the tokens, which are not modified once the symbol tree is built.
+	 */
+	private ScriptOrFnScope[] indexedScopes;
+
+	/*
+	 * References to the symbols, recorded while building the symbol tree and resolved once it is complete (see mungeSymboltree()): the offsets of
+	 * their NAME tokens, and the scopes they appear in.
+	 */
+	private int[] referenceOffsets;
+
+	private ScriptOrFnScope[] referenceScopes;
+
+	private int referenceCount;
+
+	/*
+	 * Hints recorded while building the symbol tree, applied once it is complete.
+	 */
+	private final ArrayList recordedHints = new ArrayList();
+
+	private static class Hint {
+
+		final int offset;
+
+		final ScriptOrFnScope scope;
+
+		final String hint;
+
+		final String variableName;
+
+		final String variableType;
+
+		Hint(int offset, ScriptOrFnScope scope, String hint, String variableName, String variableType) {
+			this.offset = offset;
+			this.scope = scope;
+			this.hint = hint;
+			this.variableName = variableName;
+			this.variableType = variableType;
+		}
+	}
+
+	private long parseNanos;
+
+	private long buildNanos;
+
+	private long mungeNanos;
+
+	private long printNanos;
 
 	public JavaScriptCompressor(Reader in, ErrorReporter reporter) throws IOException, EvaluatorException {
 
+		this(reporter);
+		reset(in);
+	}
+
+	/*
+	 * Creates a reusable compressor, each source being parsed by reset(Reader) then compressed by compress(...). The parser, the tokens arrays and
+	 * the symbol tree arrays are recycled from one source to the next one, so that compressing many small files does not allocate them again and
+	 * again. A compressor is not thread-safe: it should be reused by one thread at a time (e.g. taken from a pool, or held per thread).
+	 */
+	public JavaScriptCompressor(ErrorReporter reporter) {
+
 		logger = reporter;
-		tokens = parse(in, reporter);
+	}
+
+	/*
+	 * Parses the next source to compress, discarding the state left by the previous one.
+	 */
+	public void reset(Reader in) throws IOException, EvaluatorException {
+
+		long start = System.nanoTime();
+		offset = 0;
+		braceNesting = 0;
+		scopes.clear();
+		globalScope = new ScriptOrFnScope(-1, null);
+		recordedHints.clear();
+		buildNanos = 0;
+		mungeNanos = 0;
+		printNanos = 0;
+
+		if (tokens == null) {
+			tokens = new JavaScriptTokens(0);
+		} else {
+			tokens.clear(0);
+		}
+		TokenParser parser = this.parser;
+		this.parser = null;
+		if (parser == null) {
+			parser = new TokenParser(env, logger);
+		}
+		parser.parse(in, tokens);
+		this.parser = parser;
+		parseNanos = System.nanoTime() - start;
 	}
 
 	public void compress(Writer out, int linebreak, boolean munge, boolean verbose, boolean preserveAllSemiColons, boolean disableOptimizations)
@@ -570,19 +618,84 @@ public class JavaScriptCompressor {
 		this.munge = munge;
 		this.verbose = verbose;
 
-		processStringLiterals(tokens, !disableOptimizations);
-
-		if (!disableOptimizations) {
-			optimizeObjectMemberAccess(tokens);
-			optimizeObjLitMemberDecl(tokens);
-		}
+		long start = System.nanoTime();
+		processTokens(tokens, !disableOptimizations);
+		long end = System.nanoTime();
+		parseNanos += end - start;
 
+		start = end;
 		buildSymbolTree();
+		end = System.nanoTime();
+		buildNanos = end - start;
+
+		start = end;
 		// DO NOT TOUCH this.tokens BETWEEN THESE TWO PHASES (BECAUSE OF this.indexedScopes)
 		mungeSymboltree();
-		StringBuffer sb = printSymbolTree(linebreak, preserveAllSemiColons);
+		end = System.nanoTime();
+		mungeNanos = end - start;
+
+		start = end;
+		printSymbolTree(out, linebreak, preserveAllSemiColons);
+		printNanos = System.nanoTime() - start;
+	}
+
+	/*
+	 * Releases the structures of the last source once compressed, so that an idle compressor does not hold them: its symbol tree is dropped, as are
+	 * the tokens and symbol tree arrays whose capacity exceeds maxCapacity (i.e. the ones grown by a large source), the smaller ones being kept for
+	 * the next source. The next source must be parsed by reset(Reader) before being compressed.
+	 */
+	public void trim(int maxCapacity) {
+
+		scopes.clear();
+		globalScope = new ScriptOrFnScope(-1, null);
+		recordedHints.clear();
+		if (tokens != null && tokens.getCapacity() > maxCapacity) {
+			tokens = null;
+		}
+		if (indexedScopes != null) {
+			if (indexedScopes.length > maxCapacity) {
+				indexedScopes = null;
+			} else {
+				Arrays.fill(indexedScopes, null);
+			}
+		}
+		if (referenceOffsets != null) {
+			if (referenceOffsets.length > maxCapacity) {
+				referenceOffsets = null;
+				referenceScopes = null;
+			} else {
+				Arrays.fill(referenceScopes, 0, referenceCount, null);
+			}
+			referenceCount = 0;
+		}
+	}
+
+	/*
+	 * Returns the time spent parsing the source into tokens, then processing the string literals and optimizing the tokens, in nanoseconds.
+	 */
+	public long getParseNanos() {
+		return parseNanos;
+	}
+
+	/*
+	 * Returns the time spent building the symbol tree, in nanoseconds.
+	 */
+	public long getBuildNanos() {
+		return buildNanos;
+	}
+
+	/*
+	 * Returns the time spent munging the symbol tree, in nanoseconds.
+	 */
+	public long getMungeNanos() {
+		return mungeNanos;
+	}
 
-		out.write(sb.toString());
+	/*
+	 * Returns the time spent printing the symbol tree and writing it, in nanoseconds.
+	 */
+	public long getPrintNanos() {
+		return printNanos;
 	}
 
 	private ScriptOrFnScope getCurrentScope() {
@@ -597,12 +710,19 @@ public class JavaScriptCompressor {
 		scopes.pop();
 	}
 
-	private JavaScriptToken consumeToken() {
-		return (JavaScriptToken) tokens.get(offset++);
+	/*
+	 * Consumes the current token, returning its type. Its value is then available through getValue(-1).
+	 */
+	private int consumeToken() {
+		return tokens.getType(offset++);
+	}
+
+	private int getType(int delta) {
+		return tokens.getType(offset + delta);
 	}
 
-	private JavaScriptToken getToken(int delta) {
-		return (JavaScriptToken) tokens.get(offset + delta);
+	private String getValue(int delta) {
+		return tokens.getValue(offset + delta);
 	}
 
 	/*
@@ -649,11 +769,10 @@ public class JavaScriptCompressor {
 		int start = Math.max(offset - max, 0);
 		int end = Math.min(offset + max, tokens.size());
 		for (int i = start; i < end; i++) {
-			JavaScriptToken token = (JavaScriptToken) tokens.get(i);
 			if (i == offset - 1) {
 				result.append(" ---> ");
 			}
-			result.append(token.getValue());
+			result.append(tokens.getValue(i));
 			if (i == offset - 1) {
 				result.append(" <--- ");
 			}
@@ -670,42 +789,59 @@ public class JavaScriptCompressor {
 		}
 	}
 
+	/*
+	 * Records a reference to the symbol of the NAME token preceding the current offset, to be resolved once the symbol tree is complete: symbols
+	 * can be referenced before being declared.
+	 */
+	private void addReference(ScriptOrFnScope scope) {
+		if (!munge) {
+			// References are only resolved to munge the symbol tree.
+			return;
+		}
+		if (referenceCount == referenceOffsets.length) {
+			int capacity = referenceCount + (referenceCount >> 1) + 16;
+			int[] newOffsets = new int[capacity];
+			System.arraycopy(referenceOffsets, 0, newOffsets, 0, referenceCount);
+			referenceOffsets = newOffsets;
+			ScriptOrFnScope[] newScopes = new ScriptOrFnScope[capacity];
+			System.arraycopy(referenceScopes, 0, newScopes, 0, referenceCount);
+			referenceScopes = newScopes;
+		}
+		referenceOffsets[referenceCount] = offset - 1;
+		referenceScopes[referenceCount] = scope;
+		referenceCount++;
+	}
+
 	private void parseFunctionDeclaration() {
 
 		String symbol;
-		JavaScriptToken token;
+		int type;
 		ScriptOrFnScope currentScope, fnScope;
 		JavaScriptIdentifier identifier;
 
 		currentScope = getCurrentScope();
 
-		token = consumeToken();
-		if (token.getType() == Token.NAME) {
-			if (mode == BUILDING_SYMBOL_TREE) {
-				// Get the name of the function and declare it in the current scope.
-				symbol = token.getValue();
-				if (currentScope.getIdentifier(symbol) != null) {
-					warn("The function " + symbol + " has already been declared in the same scope...", true);
-				}
-				currentScope.declareIdentifier(symbol);
+		type = consumeToken();
+		if (type == Token.NAME) {
+			// Get the name of the function and declare it in the current scope.
+			symbol = getValue(-1);
+			if (currentScope.getIdentifier(symbol) != null) {
+				warn("The function " + symbol + " has already been declared in the same scope...", true);
 			}
-			token = consumeToken();
+			currentScope.declareIdentifier(symbol);
+			type = consumeToken();
 		}
 
-		assert token.getType() == Token.LP;
-		if (mode == BUILDING_SYMBOL_TREE) {
-			fnScope = new ScriptOrFnScope(braceNesting, currentScope);
-			indexedScopes.put(new Integer(offset), fnScope);
-		} else {
-			fnScope = (ScriptOrFnScope) indexedScopes.get(new Integer(offset));
-		}
+		assert type == Token.LP;
+		fnScope = new ScriptOrFnScope(braceNesting, currentScope);
+		indexedScopes[offset] = fnScope;
 
 		// Parse function arguments.
 		int argpos = 0;
-		while ((token = consumeToken()).getType() != Token.RP) {
-			assert token.getType() == Token.NAME || token.getType() == Token.COMMA;
-			if (token.getType() == Token.NAME && mode == BUILDING_SYMBOL_TREE) {
-				symbol = token.getValue();
+		while ((type = consumeToken()) != Token.RP) {
+			assert type == Token.NAME || type == Token.COMMA;
+			if (type == Token.NAME) {
+				symbol = getValue(-1);
 				identifier = fnScope.declareIdentifier(symbol);
 				if (symbol.equals("$super") && argpos == 0) {
 					// Exception for Prototype 1.6...
@@ -715,12 +851,11 @@ public class JavaScriptCompressor {
 			}
 		}
 
-		token = consumeToken();
-		assert token.getType() == Token.LC;
+		type = consumeToken();
+		assert type == Token.LC;
 		braceNesting++;
 
-		token = getToken(0);
-		if (isHint(token)) {
+		if (isHint()) {
 			// This is a hint. Hints are empty statements that look like
 			// "localvar1:nomunge, localvar2:nomunge"; They allow developers
 			// to prevent specific symbols from getting obfuscated (some heretic
@@ -729,8 +864,8 @@ public class JavaScriptCompressor {
 			// Note: right now, only "nomunge" is supported in the right hand side
 			// of a hint. However, in the future, the right hand side may contain
 			// other values.
+			String hints = getValue(0);
 			consumeToken();
-			String hints = token.getValue();
 			// Remove the leading and trailing quotes...
 			hints = hints.substring(1, hints.length() - 1).trim();
 			StringTokenizer st1 = new StringTokenizer(hints, ",");
@@ -738,28 +873,14 @@ public class JavaScriptCompressor {
 				String hint = st1.nextToken();
 				int idx = hint.indexOf(':');
 				if (idx <= 0 || idx >= hint.length() - 1) {
-					if (mode == BUILDING_SYMBOL_TREE) {
-						// No need to report the error twice, hence the test...
-						warn("Invalid hint syntax: " + hint, true);
-					}
+					warn("Invalid hint syntax: " + hint, true);
 					break;
 				}
 				String variableName = hint.substring(0, idx).trim();
 				String variableType = hint.substring(idx + 1).trim();
-				if (mode == BUILDING_SYMBOL_TREE) {
-					fnScope.addHint(variableName, variableType);
-				} else if (mode == CHECKING_SYMBOL_TREE) {
-					identifier = fnScope.getIdentifier(variableName);
-					if (identifier != null) {
-						if (variableType.equals("nomunge")) {
-							identifier.preventMunging();
-						} else {
-							warn("Unsupported hint value: " + hint, true);
-						}
-					} else {
-						warn("Hint refers to an unknown identifier: " + hint, true);
-					}
-				}
+				fnScope.addHint(variableName, variableType);
+				// The hinted variables may be declared later in the function.
+				recordedHints.add(new Hint(offset, fnScope, hint, variableName, variableType));
 			}
 		}
 
@@ -769,32 +890,28 @@ public class JavaScriptCompressor {
 	private void parseCatch() {
 
 		String symbol;
-		JavaScriptToken token;
+		int type;
 		ScriptOrFnScope currentScope;
 		JavaScriptIdentifier identifier;
 
-		token = getToken(-1);
-		assert token.getType() == Token.CATCH;
-		token = consumeToken();
-		assert token.getType() == Token.LP;
-		token = consumeToken();
-		assert token.getType() == Token.NAME;
+		type = getType(-1);
+		assert type == Token.CATCH;
+		type = consumeToken();
+		assert type == Token.LP;
+		type = consumeToken();
+		assert type == Token.NAME;
 
-		symbol = token.getValue();
+		symbol = getValue(-1);
 		currentScope = getCurrentScope();
 
-		if (mode == BUILDING_SYMBOL_TREE) {
-			// We must declare the exception identifier in the containing function
-			// scope to avoid errors related to the obfuscation process. No need to
-			// display a warning if the symbol was already declared here...
-			currentScope.declareIdentifier(symbol);
-		} else {
-			identifier = getIdentifier(symbol, currentScope);
-			identifier.incrementRefcount();
-		}
+		// We must declare the exception identifier in the containing function
+		// scope to avoid errors related to the obfuscation process. No need to
+		// display a warning if the symbol was already declared here...
+		currentScope.declareIdentifier(symbol);
+		addReference(currentScope);
 
-		token = consumeToken();
-		assert token.getType() == Token.RP;
+		type = consumeToken();
+		assert type == Token.RP;
 	}
 
 	private void parseExpression() {
@@ -804,7 +921,7 @@ public class JavaScriptCompressor {
 		// Parse functions if any...
 
 		String symbol;
-		JavaScriptToken token;
+		int type;
 		ScriptOrFnScope currentScope;
 		JavaScriptIdentifier identifier;
 
@@ -816,10 +933,10 @@ public class JavaScriptCompressor {
 
 		while (offset < length) {
 
-			token = consumeToken();
+			type = consumeToken();
 			currentScope = getCurrentScope();
 
-			switch (token.getType()) {
+			switch (type) {
 
 			case Token.SEMI:
 			case Token.COMMA:
@@ -858,56 +975,24 @@ public class JavaScriptCompressor {
 				break;
 
 			case Token.CONDCOMMENT:
-				if (mode == BUILDING_SYMBOL_TREE) {
-					protectScopeFromObfuscation(currentScope);
-					warn("Using JScript conditional comments is not recommended."
-							+ (munge ? " Moreover, using JScript conditional comments reduces the level of compression!" : ""), true);
-				}
+				protectScopeFromObfuscation(currentScope);
+				warn("Using JScript conditional comments is not recommended."
+						+ (munge ? " Moreover, using JScript conditional comments reduces the level of compression!" : ""), true);
 				break;
 
 			case Token.NAME:
-				symbol = token.getValue();
-
-				if (mode == BUILDING_SYMBOL_TREE) {
-
-					if (symbol.equals("eval")) {
-
-						protectScopeFromObfuscation(currentScope);
-						warn("Using 'eval' is not recommended." + (munge ? " Moreover, using 'eval' reduces the level of compression!" : ""), true);
-
-					}
-
-				} else if (mode == CHECKING_SYMBOL_TREE) {
-
-					if ((offset < 2 || getToken(-2).getType() != Token.DOT && getToken(-2).getType() != Token.GET && getToken(-2).getType() != Token.SET)
-							&& getToken(0).getType() != Token.OBJECTLIT) {
+				symbol = getValue(-1);
 
-						identifier = getIdentifier(symbol, currentScope);
+				if (symbol.equals("eval")) {
 
-						if (identifier == null) {
-
-							if (symbol.length() <= 3 && !builtin.contains(symbol)) {
-								// Here, we found an undeclared and un-namespaced symbol that is
-								// 3 characters or less in length. Declare it in the global scope.
-								// We don't need to declare longer symbols since they won't cause
-								// any conflict with other munged symbols.
-								globalScope.declareIdentifier(symbol);
-
-								// I removed the warning since was only being done when
-								// for identifiers 3 chars or less, and was just causing
-								// noise for people who happen to rely on an externally
-								// declared variable that happen to be that short. We either
-								// should always warn or never warn -- the fact that we
-								// declare the short symbols in the global space doesn't
-								// change anything.
-								// warn("Found an undeclared symbol: " + symbol, true);
-							}
+					protectScopeFromObfuscation(currentScope);
+					warn("Using 'eval' is not recommended." + (munge ? " Moreover, using 'eval' reduces the level of compression!" : ""), true);
 
-						} else {
+				}
 
-							identifier.incrementRefcount();
-						}
-					}
+				if ((offset < 2 || getType(-2) != Token.DOT && getType(-2) != Token.GET && getType(-2) != Token.SET)
+						&& getType(0) != Token.OBJECTLIT) {
+					addReference(currentScope);
 				}
 				break;
 			}
@@ -917,7 +1002,7 @@ public class JavaScriptCompressor {
 	private void parseScope(ScriptOrFnScope scope) {
 
 		String symbol;
-		JavaScriptToken token;
+		int type;
 		JavaScriptIdentifier identifier;
 
 		int length = tokens.size();
@@ -926,13 +1011,13 @@ public class JavaScriptCompressor {
 
 		while (offset < length) {
 
-			token = consumeToken();
+			type = consumeToken();
 
-			switch (token.getType()) {
+			switch (type) {
 
 			case Token.VAR:
 
-				if (mode == BUILDING_SYMBOL_TREE && scope.incrementVarCount() > 1) {
+				if (scope.incrementVarCount() > 1) {
 					warn("Try to use a single 'var' statement per scope.", true);
 				}
 
@@ -943,29 +1028,27 @@ public class JavaScriptCompressor {
 				// The var keyword is followed by at least one symbol name.
 				// If several symbols follow, they are comma separated.
 				for (;;) {
-					token = consumeToken();
+					type = consumeToken();
 
-					assert token.getType() == Token.NAME;
+					assert type == Token.NAME;
 
-					if (mode == BUILDING_SYMBOL_TREE) {
-						symbol = token.getValue();
-						if (scope.getIdentifier(symbol) == null) {
-							scope.declareIdentifier(symbol);
-						} else {
-							warn("The variable " + symbol + " has already been declared in the same scope...", true);
-						}
+					symbol = getValue(-1);
+					if (scope.getIdentifier(symbol) == null) {
+						scope.declareIdentifier(symbol);
+					} else {
+						warn("The variable " + symbol + " has already been declared in the same scope...", true);
 					}
 
-					token = getToken(0);
+					type = getType(0);
 
-					assert token.getType() == Token.SEMI || token.getType() == Token.ASSIGN || token.getType() == Token.COMMA || token.getType() == Token.IN;
+					assert type == Token.SEMI || type == Token.ASSIGN || type == Token.COMMA || type == Token.IN;
 
-					if (token.getType() == Token.IN) {
+					if (type == Token.IN) {
 						break;
 					} else {
 						parseExpression();
-						token = getToken(-1);
-						if (token.getType() == Token.SEMI) {
+						type = getType(-1);
+						if (type == Token.SEMI) {
 							break;
 						}
 					}
@@ -990,15 +1073,13 @@ public class JavaScriptCompressor {
 				break;
 
 			case Token.WITH:
-				if (mode == BUILDING_SYMBOL_TREE) {
-					// Inside a 'with' block, it is impossible to figure out
-					// statically whether a symbol is a local variable or an
-					// object member. As a consequence, the only thing we can
-					// do is turn the obfuscation off for the highest scope
-					// containing the 'with' block.
-					protectScopeFromObfuscation(scope);
-					warn("Using 'with' is not recommended." + (munge ? " Moreover, using 'with' reduces the level of compression!" : ""), true);
-				}
+				// Inside a 'with' block, it is impossible to figure out
+				// statically whether a symbol is a local variable or an
+				// object member. As a consequence, the only thing we can
+				// do is turn the obfuscation off for the highest scope
+				// containing the 'with' block.
+				protectScopeFromObfuscation(scope);
+				warn("Using 'with' is not recommended." + (munge ? " Moreover, using 'with' reduces the level of compression!" : ""), true);
 				break;
 
 			case Token.CATCH:
@@ -1006,64 +1087,52 @@ public class JavaScriptCompressor {
 				break;
 
 			case Token.CONDCOMMENT:
-				if (mode == BUILDING_SYMBOL_TREE) {
-					protectScopeFromObfuscation(scope);
-					warn("Using JScript conditional comments is not recommended."
-							+ (munge ? " Moreover, using JScript conditional comments reduces the level of compression." : ""), true);
-				}
+				protectScopeFromObfuscation(scope);
+				warn("Using JScript conditional comments is not recommended."
+						+ (munge ? " Moreover, using JScript conditional comments reduces the level of compression." : ""), true);
 				break;
 
 			case Token.NAME:
-				symbol = token.getValue();
-
-				if (mode == BUILDING_SYMBOL_TREE) {
-
-					if (symbol.equals("eval")) {
-
-						protectScopeFromObfuscation(scope);
-						warn("Using 'eval' is not recommended." + (munge ? " Moreover, using 'eval' reduces the level of compression!" : ""), true);
+				symbol = getValue(-1);
 
-					}
-
-				} else if (mode == CHECKING_SYMBOL_TREE) {
-
-					if ((offset < 2 || getToken(-2).getType() != Token.DOT) && getToken(0).getType() != Token.OBJECTLIT) {
-
-						identifier = getIdentifier(symbol, scope);
+				if (symbol.equals("eval")) {
 
-						if (identifier == null) {
-
-							if (symbol.length() <= 3 && !builtin.contains(symbol)) {
-								// Here, we found an undeclared and un-namespaced symbol that is
-								// 3 characters or less in length. Declare it in the global scope.
-								// We don't need to declare longer symbols since they won't cause
-								// any conflict with other munged symbols.
-								globalScope.declareIdentifier(symbol);
-								// warn("Found an undeclared symbol: " + symbol, true);
-							}
+					protectScopeFromObfuscation(scope);
+					warn("Using 'eval' is not recommended." + (munge ? " Moreover, using 'eval' reduces the level of compression!" : ""), true);
 
-						} else {
+				}
 
-							identifier.incrementRefcount();
-						}
-					}
+				if ((offset < 2 || getType(-2) != Token.DOT) && getType(0) != Token.OBJECTLIT) {
+					addReference(scope);
 				}
 				break;
 			}
 		}
 	}
 
-	private void buildSymbolTree() {
+	void buildSymbolTree() {
 		offset = 0;
 		braceNesting = 0;
 		scopes.clear();
-		indexedScopes.clear();
-		indexedScopes.put(new Integer(0), globalScope);
-		mode = BUILDING_SYMBOL_TREE;
+		// the arrays of the previous source are reused if large enough, once cleared of its scopes
+		if (indexedScopes == null || indexedScopes.length < tokens.size() + 1) {
+			indexedScopes = new ScriptOrFnScope[tokens.size() + 1];
+		} else {
+			Arrays.fill(indexedScopes, null);
+		}
+		indexedScopes[0] = globalScope;
+		if (referenceOffsets == null) {
+			referenceOffsets = new int[0];
+			referenceScopes = new ScriptOrFnScope[0];
+		} else {
+			Arrays.fill(referenceScopes, 0, referenceCount, null);
+		}
+		referenceCount = 0;
+		recordedHints.clear();
 		parseScope(globalScope);
 	}
 
-	private void mungeSymboltree() {
+	void mungeSymboltree() {
 
 		if (!munge) {
 			return;
@@ -1087,46 +1156,95 @@ public class JavaScriptCompressor {
 		// parsed, and BEFORE munging the symbol tree. Note that declaring
 		// extra symbols in the global scope won't hurt.
 		//
-		// Note: Since we go through all the tokens to do this, we also use
+		// Note: Since we go through all the references to do this, we also use
 		// the opportunity to count how many times each identifier is used.
+		// The references have been recorded while building the symbol tree,
+		// in the order of the tokens, and are resolved now that all the
+		// symbols have been declared.
+
+		String symbol;
+		JavaScriptIdentifier identifier;
+
+		for (int i = 0; i < referenceCount; i++) {
+			symbol = tokens.getValue(referenceOffsets[i]);
+			identifier = getIdentifier(symbol, referenceScopes[i]);
+
+			if (identifier == null) {
+
+				if (symbol.length() <= 3 && !builtin.contains(symbol)) {
+					// Here, we found an undeclared and un-namespaced symbol that is
+					// 3 characters or less in length. Declare it in the global scope.
+					// We don't need to declare longer symbols since they won't cause
+					// any conflict with other munged symbols.
+					globalScope.declareIdentifier(symbol);
+
+					// I removed the warning since was only being done when
+					// for identifiers 3 chars or less, and was just causing
+					// noise for people who happen to rely on an externally
+					// declared variable that happen to be that short. We either
+					// should always warn or never warn -- the fact that we
+					// declare the short symbols in the global space doesn't
+					// change anything.
+					// warn("Found an undeclared symbol: " + symbol, true);
+				}
+
+			} else {
+
+				identifier.incrementRefcount();
+			}
+		}
+
+		for (int i = 0; i < recordedHints.size(); i++) {
+			Hint hint = (Hint) recordedHints.get(i);
+			// The warnings show the tokens around the hint.
+			offset = hint.offset;
+			identifier = hint.scope.getIdentifier(hint.variableName);
+			if (identifier != null) {
+				if (hint.variableType.equals("nomunge")) {
+					identifier.preventMunging();
+				} else {
+					warn("Unsupported hint value: " + hint.hint, true);
+				}
+			} else {
+				warn("Hint refers to an unknown identifier: " + hint.hint, true);
+			}
+		}
 
-		offset = 0;
-		braceNesting = 0;
-		scopes.clear();
-		mode = CHECKING_SYMBOL_TREE;
-		parseScope(globalScope);
 		globalScope.munge();
 	}
 
-	private StringBuffer printSymbolTree(int linebreakpos, boolean preserveAllSemiColons) throws IOException {
+	/*
+	 * Prints the symbol tree to a writer, through a small buffer: the compressed JS is never held in memory as a whole.
+	 */
+	void printSymbolTree(Writer out, int linebreakpos, boolean preserveAllSemiColons) throws IOException {
 
 		offset = 0;
 		braceNesting = 0;
 		scopes.clear();
 
 		String symbol;
-		JavaScriptToken token;
+		int type;
 		ScriptOrFnScope currentScope;
 		JavaScriptIdentifier identifier;
 
 		int length = tokens.size();
-		StringBuffer result = new StringBuffer();
+		JavaScriptWriter result = new JavaScriptWriter(out);
 
-		int linestartpos = 0;
+		long linestartpos = 0;
 
 		enterScope(globalScope);
 
 		while (offset < length) {
 
-			token = consumeToken();
-			symbol = token.getValue();
+			type = consumeToken();
+			symbol = getValue(-1);
 			currentScope = getCurrentScope();
 
-			switch (token.getType()) {
+			switch (type) {
 
 			case Token.NAME:
 
-				if (offset >= 2 && getToken(-2).getType() == Token.DOT || getToken(0).getType() == Token.OBJECTLIT) {
+				if (offset >= 2 && getType(-2) == Token.DOT || getType(0) == Token.OBJECTLIT) {
 
 					result.append(symbol);
 
@@ -1157,17 +1275,16 @@ public class JavaScriptCompressor {
 
 			case Token.ADD:
 			case Token.SUB:
-				result.append((String) literals.get(new Integer(token.getType())));
+				result.append(getLiteral(type));
 				if (offset < length) {
-					token = getToken(0);
-					if (token.getType() == Token.INC || token.getType() == Token.DEC || token.getType() == Token.ADD || token.getType() == Token.DEC) {
+					type = getType(0);
+					if (type == Token.INC || type == Token.DEC || type == Token.ADD || type == Token.DEC) {
 						// Handle the case x +/- ++/-- y
 						// We must keep a white space here. Otherwise, x +++ y would be
 						// interpreted as x ++ + y by the compiler, which is a bug (due
 						// to the implicit assignment being done on the wrong variable)
 						result.append(' ');
-					} else if (token.getType() == Token.POS && getToken(-1).getType() == Token.ADD || token.getType() == Token.NEG
-							&& getToken(-1).getType() == Token.SUB) {
+					} else if (type == Token.POS && getType(-1) == Token.ADD || type == Token.NEG && getType(-1) == Token.SUB) {
 						// Handle the case x + + y and x - - y
 						result.append(' ');
 					}
@@ -1176,10 +1293,10 @@ public class JavaScriptCompressor {
 
 			case Token.FUNCTION:
 				result.append("function");
-				token = consumeToken();
-				if (token.getType() == Token.NAME) {
+				type = consumeToken();
+				if (type == Token.NAME) {
 					result.append(' ');
-					symbol = token.getValue();
+					symbol = getValue(-1);
 					identifier = getIdentifier(symbol, currentScope);
 					assert identifier != null;
 					if (identifier.getMungedValue() != null) {
@@ -1191,16 +1308,16 @@ public class JavaScriptCompressor {
 						warn("The symbol " + symbol + " is declared but is apparently never used.\nThis code can probably be written in a more compact way.",
 								true);
 					}
-					token = consumeToken();
+					type = consumeToken();
 				}
-				assert token.getType() == Token.LP;
+				assert type == Token.LP;
 				result.append('(');
-				currentScope = (ScriptOrFnScope) indexedScopes.get(new Integer(offset));
+				currentScope = indexedScopes[offset];
 				enterScope(currentScope);
-				while ((token = consumeToken()).getType() != Token.RP) {
-					assert token.getType() == Token.NAME || token.getType() == Token.COMMA;
-					if (token.getType() == Token.NAME) {
-						symbol = token.getValue();
+				while ((type = consumeToken()) != Token.RP) {
+					assert type == Token.NAME || type == Token.COMMA;
+					if (type == Token.NAME) {
+						symbol = getValue(-1);
 						identifier = getIdentifier(symbol, currentScope);
 						assert identifier != null;
 						if (identifier.getMungedValue() != null) {
@@ -1208,17 +1325,16 @@ public class JavaScriptCompressor {
 						} else {
 							result.append(symbol);
 						}
-					} else if (token.getType() == Token.COMMA) {
+					} else if (type == Token.COMMA) {
 						result.append(',');
 					}
 				}
 				result.append(')');
-				token = consumeToken();
-				assert token.getType() == Token.LC;
+				type = consumeToken();
+				assert type == Token.LC;
 				result.append('{');
 				braceNesting++;
-				token = getToken(0);
-				if (isHint(token)) {
+				if (isHint()) {
 					// This is a hint. Skip it!
 					consumeToken();
 					consumeToken();
@@ -1227,13 +1343,13 @@ public class JavaScriptCompressor {
 
 			case Token.RETURN:
 			case Token.TYPEOF:
-				result.append(literals.get(new Integer(token.getType())));
+				result.append(getLiteral(type));
 				// No space needed after 'return' and 'typeof' when followed
 				// by '(', '[', '{', a string or a regexp.
 				if (offset < length) {
-					token = getToken(0);
-					if (token.getType() != Token.LP && token.getType() != Token.LB && token.getType() != Token.LC && token.getType() != Token.STRING
-							&& token.getType() != Token.REGEXP && token.getType() != Token.SEMI) {
+					type = getType(0);
+					if (type != Token.LP && type != Token.LB && type != Token.LC && type != Token.STRING
+							&& type != Token.REGEXP && type != Token.SEMI) {
 						result.append(' ');
 					}
 				}
@@ -1241,17 +1357,17 @@ public class JavaScriptCompressor {
 
 			case Token.CASE:
 			case Token.THROW:
-				result.append(literals.get(new Integer(token.getType())));
+				result.append(getLiteral(type));
 				// White-space needed after 'case' and 'throw' when not followed by a string.
-				if (offset < length && getToken(0).getType() != Token.STRING) {
+				if (offset < length && getType(0) != Token.STRING) {
 					result.append(' ');
 				}
 				break;
 
 			case Token.BREAK:
 			case Token.CONTINUE:
-				result.append(literals.get(new Integer(token.getType())));
-				if (offset < length && getToken(0).getType() != Token.SEMI) {
+				result.append(getLiteral(type));
+				if (offset < length && getType(0) != Token.SEMI) {
 					// If 'break' or 'continue' is not followed by a semi-colon, it must
 					// be followed by a label, hence the need for a white space.
 					result.append(' ');
@@ -1274,7 +1390,7 @@ public class JavaScriptCompressor {
 
 			case Token.SEMI:
 				// No need to output a semi-colon if the next character is a right-curly...
-				if (preserveAllSemiColons || offset < length && getToken(0).getType() != Token.RC) {
+				if (preserveAllSemiColons || offset < length && getType(0) != Token.RC) {
 					result.append(';');
 				}
 
@@ -1289,7 +1405,7 @@ public class JavaScriptCompressor {
 
 			case Token.CONDCOMMENT:
 			case Token.KEEPCOMMENT:
-				if (result.length() > 0 && result.charAt(result.length() - 1) != '\n') {
+				if (result.length() > 0 && result.getLastChar() != '\n') {
 					result.append("\n");
 				}
 				result.append("/*");
@@ -1298,7 +1414,7 @@ public class JavaScriptCompressor {
 				break;
 
 			default:
-				String literal = (String) literals.get(new Integer(token.getType()));
+				String literal = getLiteral(type);
 				if (literal != null) {
 					result.append(literal);
 				} else {
@@ -1312,14 +1428,14 @@ public class JavaScriptCompressor {
 		// supposed to be removed. This is especially useful when concatenating
 		// several minified files (the absence of an ending semi-colon at the
 		// end of one file may very likely cause a syntax error)
-		if (!preserveAllSemiColons && result.length() > 0 && getToken(-1).getType() != Token.CONDCOMMENT && getToken(-1).getType() != Token.KEEPCOMMENT) {
-			if (result.charAt(result.length() - 1) == '\n') {
-				result.setCharAt(result.length() - 1, ';');
+		if (!preserveAllSemiColons && result.length() > 0 && getType(-1) != Token.CONDCOMMENT && getType(-1) != Token.KEEPCOMMENT) {
+			if (result.getLastChar() == '\n') {
+				result.setLastChar(';');
 			} else {
 				result.append(';');
 			}
 		}
 
-		return result;
+		result.flush();
 	}
 }
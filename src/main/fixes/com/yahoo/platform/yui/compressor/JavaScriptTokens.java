@@ -0,0 +1,313 @@
+/*
+ * Copyright (c) boogiedev.com, all rights reserved.
+ * This code is licensed under the LGPL 3.0 license,
+ * available at the root application directory.
+ */
+
+package com.yahoo.platform.yui.compressor;
+
+import java.util.Arrays;
+
+/**
+ * Compact list of JS tokens, replacing a list of {@link JavaScriptToken} objects:
+ * <ul>
+ * <li>The token types are stored in an int array.</li>
+ * <li>The token values are stored as indices into a pool of distinct strings, so that repeated identifiers, literals and keywords share one
+ * instance.</li>
+ * <li>Values are interned from the char sequences they are read from, a string being created only the first time a value is met.</li>
+ * </ul>
+ */
+final class JavaScriptTokens {
+
+	/** Minimum capacity. */
+	private static final int MIN_CAPACITY = 16;
+
+	/** The token types. */
+	private int[] types;
+
+	/** The token values, as indices into {@link #strings}. */
+	private int[] values;
+
+	/** The number of tokens. */
+	private int size;
+
+	/** The pool of distinct strings. */
+	private String[] strings;
+
+	/** The number of distinct strings. */
+	private int stringCount;
+
+	/** Open addressing hash table of the distinct strings, holding their indices plus one (0 denoting an empty slot), its length being a power of 2. */
+	private int[] table;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param capacity
+	 *          The expected number of tokens.
+	 */
+	public JavaScriptTokens(int capacity) {
+		capacity = Math.max(capacity, MIN_CAPACITY);
+		types = new int[capacity];
+		values = new int[capacity];
+		strings = new String[MIN_CAPACITY];
+		table = new int[MIN_CAPACITY * 2];
+	}
+
+	/**
+	 * Copy constructor.
+	 *
+	 * @param tokens
+	 *          The tokens to copy.
+	 */
+	public JavaScriptTokens(JavaScriptTokens tokens) {
+		types = tokens.types.clone();
+		values = tokens.values.clone();
+		size = tokens.size;
+		strings = tokens.strings.clone();
+		stringCount = tokens.stringCount;
+		table = tokens.table.clone();
+	}
+
+	/**
+	 * Returns the number of tokens.
+	 *
+	 * @return The number of tokens.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the type of a token.
+	 *
+	 * @param index
+	 *          The index of the token.
+	 * @return The type of the token, see {@link org.mozilla.javascript.Token}.
+	 */
+	public int getType(int index) {
+		checkIndex(index);
+		return types[index];
+	}
+
+	/**
+	 * Returns the value of a token.
+	 *
+	 * @param index
+	 *          The index of the token.
+	 * @return The value of the token, shared with the other tokens having the same value.
+	 */
+	public String getValue(int index) {
+		checkIndex(index);
+		return strings[values[index]];
+	}
+
+	/**
+	 * Appends a token.
+	 *
+	 * @param type
+	 *          The type of the token.
+	 * @param value
+	 *          The value of the token.
+	 */
+	public void add(int type, String value) {
+		add(type, value, 0, value.length());
+	}
+
+	/**
+	 * Appends a token whose value is a region of a char sequence.
+	 *
+	 * @param type
+	 *          The type of the token.
+	 * @param source
+	 *          The char sequence.
+	 * @param start
+	 *          The start of the value in the char sequence, inclusive.
+	 * @param end
+	 *          The end of the value in the char sequence, exclusive.
+	 */
+	public void add(int type, CharSequence source, int start, int end) {
+		if (size == types.length) {
+			int capacity = size + (size >> 1);
+			int[] newTypes = new int[capacity];
+			System.arraycopy(types, 0, newTypes, 0, size);
+			types = newTypes;
+			int[] newValues = new int[capacity];
+			System.arraycopy(values, 0, newValues, 0, size);
+			values = newValues;
+		}
+		types[size] = type;
+		values[size] = intern(source, start, end);
+		size++;
+	}
+
+	/**
+	 * Replaces a token.
+	 *
+	 * @param index
+	 *          The index of the token.
+	 * @param type
+	 *          The new type of the token.
+	 * @param value
+	 *          The new value of the token, copied if not already in the pool.
+	 */
+	public void set(int index, int type, CharSequence value) {
+		checkIndex(index);
+		types[index] = type;
+		values[index] = intern(value, 0, value.length());
+	}
+
+	/**
+	 * Copies a token over another one, the value being shared.
+	 *
+	 * @param from
+	 *          The index of the token to copy.
+	 * @param to
+	 *          The index of the token to replace.
+	 */
+	public void copy(int from, int to) {
+		checkIndex(from);
+		checkIndex(to);
+		types[to] = types[from];
+		values[to] = values[from];
+	}
+
+	/**
+	 * Removes the last tokens.
+	 *
+	 * @param size
+	 *          The new number of tokens.
+	 */
+	public void truncate(int size) {
+		if (size < 0 || size > this.size) {
+			throw new IndexOutOfBoundsException("Size: " + size + ", Previous size: " + this.size);
+		}
+		this.size = size;
+	}
+
+	/**
+	 * Removes all the tokens and values, keeping the arrays for the next tokens if large enough.
+	 *
+	 * @param capacity
+	 *          The expected number of next tokens.
+	 */
+	public void clear(int capacity) {
+		if (types.length < capacity) {
+			types = new int[capacity];
+			values = new int[capacity];
+		}
+		size = 0;
+		Arrays.fill(strings, 0, stringCount, null);
+		stringCount = 0;
+		Arrays.fill(table, 0);
+	}
+
+	/**
+	 * Returns the capacity of the arrays, i.e. the number of tokens or distinct values they can hold without growing.
+	 *
+	 * @return The capacity of the arrays.
+	 */
+	public int getCapacity() {
+		return Math.max(types.length, strings.length);
+	}
+
+	/**
+	 * Returns the number of distinct values.
+	 *
+	 * @return The number of distinct values.
+	 */
+	public int getValueCount() {
+		return stringCount;
+	}
+
+	/**
+	 * Checks that a token exists.
+	 *
+	 * @param index
+	 *          The index of the token.
+	 */
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+	}
+
+	/**
+	 * Returns the index of a value in the pool, adding it if needed.
+	 *
+	 * @param source
+	 *          The char sequence containing the value.
+	 * @param start
+	 *          The start of the value in the char sequence, inclusive.
+	 * @param end
+	 *          The end of the value in the char sequence, exclusive.
+	 * @return The index of the value in the pool.
+	 */
+	private int intern(CharSequence source, int start, int end) {
+		int hash = 0;
+		for (int i = start; i < end; i++) {
+			hash = 31 * hash + source.charAt(i);
+		}
+		int mask = table.length - 1;
+		int slot = (hash ^ hash >>> 16) & mask;
+		for (int entry; (entry = table[slot]) != 0; slot = (slot + 1) & mask) {
+			if (matches(strings[entry - 1], source, start, end)) {
+				return entry - 1;
+			}
+		}
+		if (stringCount == strings.length) {
+			String[] newStrings = new String[stringCount * 2];
+			System.arraycopy(strings, 0, newStrings, 0, stringCount);
+			strings = newStrings;
+		}
+		String value = source instanceof String && start == 0 && end == source.length() ? (String) source : source.subSequence(start, end).toString();
+		strings[stringCount] = value;
+		table[slot] = ++stringCount;
+		if (stringCount * 2 > table.length) {
+			rehash();
+		}
+		return stringCount - 1;
+	}
+
+	/**
+	 * Checks whether a string matches a region of a char sequence.
+	 *
+	 * @param string
+	 *          The string.
+	 * @param source
+	 *          The char sequence.
+	 * @param start
+	 *          The start of the region, inclusive.
+	 * @param end
+	 *          The end of the region, exclusive.
+	 * @return true if the string matches the region.
+	 */
+	private static boolean matches(String string, CharSequence source, int start, int end) {
+		if (string.length() != end - start) {
+			return false;
+		}
+		for (int i = start, j = 0; i < end; i++, j++) {
+			if (string.charAt(j) != source.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Doubles the hash table.
+	 */
+	private void rehash() {
+		table = new int[table.length * 2];
+		int mask = table.length - 1;
+		for (int i = 0; i < stringCount; i++) {
+			int hash = strings[i].hashCode();
+			int slot = (hash ^ hash >>> 16) & mask;
+			while (table[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			table[slot] = i + 1;
+		}
+	}
+
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) boogiedev.com, all rights reserved.
+ * This code is licensed under the LGPL 3.0 license,
+ * available at the root application directory.
+ */
+
+package com.yahoo.platform.yui.compressor;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Unsynchronized buffered writer of the compressed JS, replacing the {@link StringBuffer} holding the whole output:
+ * <ul>
+ * <li>The chars are written to the target writer each time the buffer is full, so that the output is never held in memory.</li>
+ * <li>The number of written chars is counted, for the line breaks to be inserted after a specific column.</li>
+ * <li>The last written char is always kept in the buffer, so that it can be read and replaced (see {@link #getLastChar()} and
+ * {@link #setLastChar(char)}).</li>
+ * </ul>
+ */
+final class JavaScriptWriter {
+
+	/** The buffer size. */
+	private static final int BUFFER_SIZE = 8192;
+
+	/** The target writer. */
+	private final Writer out;
+
+	/** The buffer. */
+	private final char[] buffer = new char[BUFFER_SIZE];
+
+	/** The number of buffered chars. */
+	private int count;
+
+	/** The number of written chars, including the buffered ones. */
+	private long length;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param out
+	 *          The target writer.
+	 */
+	public JavaScriptWriter(Writer out) {
+		this.out = out;
+	}
+
+	/**
+	 * Writes a char.
+	 *
+	 * @param c
+	 *          The char.
+	 * @throws IOException
+	 *           If an error occurred while writing to the target writer.
+	 */
+	public void append(char c) throws IOException {
+		if (count == BUFFER_SIZE) {
+			drain();
+		}
+		buffer[count++] = c;
+		length++;
+	}
+
+	/**
+	 * Writes a string.
+	 *
+	 * @param s
+	 *          The string, "null" being written if null (as done by {@link StringBuffer#append(String)}).
+	 * @throws IOException
+	 *           If an error occurred while writing to the target writer.
+	 */
+	public void append(String s) throws IOException {
+		if (s == null) {
+			s = "null";
+		}
+		int start = 0;
+		int end = s.length();
+		while (start < end) {
+			if (count == BUFFER_SIZE) {
+				drain();
+			}
+			int chunk = Math.min(end - start, BUFFER_SIZE - count);
+			s.getChars(start, start + chunk, buffer, count);
+			count += chunk;
+			start += chunk;
+		}
+		length += end;
+	}
+
+	/**
+	 * Returns the number of written chars.
+	 *
+	 * @return The number of written chars, including the buffered ones.
+	 */
+	public long length() {
+		return length;
+	}
+
+	/**
+	 * Returns the last written char.
+	 *
+	 * @return The last written char.
+	 * @throws IllegalStateException
+	 *           If no char has been written.
+	 */
+	public char getLastChar() {
+		checkNotEmpty();
+		return buffer[count - 1];
+	}
+
+	/**
+	 * Replaces the last written char.
+	 *
+	 * @param c
+	 *          The new char.
+	 * @throws IllegalStateException
+	 *           If no char has been written.
+	 */
+	public void setLastChar(char c) {
+		checkNotEmpty();
+		buffer[count - 1] = c;
+	}
+
+	/**
+	 * Writes the buffered chars to the target writer, without flushing it.
+	 *
+	 * @throws IOException
+	 *           If an error occurred while writing to the target writer.
+	 */
+	public void flush() throws IOException {
+		out.write(buffer, 0, count);
+		count = 0;
+	}
+
+	/**
+	 * Writes the buffered chars but the last one to the target writer, the last one being moved to the beginning of the buffer.
+	 *
+	 * @throws IOException
+	 *           If an error occurred while writing to the target writer.
+	 */
+	private void drain() throws IOException {
+		out.write(buffer, 0, count - 1);
+		buffer[0] = buffer[count - 1];
+		count = 1;
+	}
+
+	/**
+	 * Checks that a char has been written.
+	 */
+	private void checkNotEmpty() {
+		if (count == 0) {
+			throw new IllegalStateException("No char has been written");
+		}
+	}
+
+}
@@ -0,0 +1,1439 @@
+/*
+ * Copyright (c) boogiedev.com, all rights reserved.
+ * This code is licensed under the LGPL 3.0 license,
+ * available at the root application directory.
+ */
+
+package com.yahoo.platform.yui.compressor;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * CSS compressor producing the output of {@link CssCompressor} without its regular expressions, each of which copies the whole stylesheet:
+ * <ul>
+ * <li>The stylesheet is read once by a character-level state machine, which extracts the data URLs, the strings and the comments the way
+ * {@link CssCompressor} preserves them, and collapses the whitespace.</li>
+ * <li>The text between two braces (selectors or declarations) is rewritten in a small buffer by hand-written rules, applied in the order of the
+ * upstream regular expressions, then appended to the output, the empty rules being dropped as they are closed.</li>
+ * <li>The line breaks are inserted while the output is written, their columns being computed as if the preserved tokens were still replaced by
+ * their upstream placeholders.</li>
+ * </ul>
+ * The few stylesheets whose upstream output depends on how the placeholders interleave (a comment opened inside a string, a data URL inside a
+ * comment or a string, an unterminated string or comment, a misplaced "@charset" rule...) are compressed by {@link CssCompressor} instead.
+ */
+public final class SinglePassCssCompressor {
+
+	/** Stands for a preserved token in the minified text. */
+	private static final char TOKEN = '\uffff';
+
+	/** Stands for the slash of a media query fraction, which does not end the selector of an empty rule. */
+	private static final char FRACTION = '\ufffe';
+
+	/** Kind of the data URL tokens, numbered first by the upstream compressor. */
+	private static final int DATA_URL = 0;
+
+	/** Kind of the string tokens, numbered after the data URLs. */
+	private static final int STRING = 1;
+
+	/** Kind of the comment tokens, numbered after the strings. */
+	private static final int COMMENT = 2;
+
+	/** The length of the upstream token placeholders, their index excluded. */
+	private static final int PLACEHOLDER_LENGTH = "___YUICSSMIN_PRESERVED_TOKEN_".length() + "___".length();
+
+	/** Colons state: the colons are not protected (inside a block, or after a brace directly followed by a colon). */
+	private static final int COLONS_UNPROTECTED = 0;
+
+	/** Colons state: at the start of the stylesheet or after a closing brace, the next char deciding. */
+	private static final int COLONS_START = 1;
+
+	/** Colons state: the colons are protected up to the next opening brace, the whitespace before them being kept. */
+	private static final int COLONS_PROTECTED = 2;
+
+	/** The vendor prefixes of the upstream at-rules and functions. */
+	private static final String[] VENDORS = { "atsc", "khtml", "moz", "ms", "o", "wap", "webkit" };
+
+	/** The at-rules lowercased after a "@". */
+	private static final String[] AT_RULES = concat(new String[] { "font-face", "import" }, prefix(new String[] { "keyframe" }, VENDORS),
+			new String[] { "keyframe", "media", "page", "namespace" });
+
+	/** The pseudo-classes lowercased after a colon. */
+	private static final String[] PSEUDO_CLASSES = { "active", "after", "before", "checked", "disabled", "empty", "enabled", "first-child",
+			"first-of-type", "focus", "hover", "last-child", "last-of-type", "link", "only-child", "only-of-type", "root", ":selection", "target",
+			"visited" };
+
+	/** The functional pseudo-classes lowercased after a colon. */
+	private static final String[] PSEUDO_FUNCTIONS = { "lang(", "not(", "nth-child(", "nth-last-child(", "nth-last-of-type(", "nth-of-type(",
+			"-moz-any(", "-webkit-any(", "any(" };
+
+	/** The functions lowercased after a colon, a comma, a parenthesis or a space. */
+	private static final String[] FUNCTIONS;
+
+	/** The units removed after a zero. */
+	private static final String[] UNITS = { "px", "em", "%", "in", "cm", "mm", "pc", "pt", "ex", "deg", "grad", "rad", "ms", "s", "khz", "hz" };
+
+	/** The properties whose single zero value is doubled. */
+	private static final String[] ORIGINS = { "background-position", "webkit-mask-position", "transform-origin", "webkit-transform-origin",
+			"moz-transform-origin", "o-transform-origin", "ms-transform-origin" };
+
+	/** The colors replaced by their names. */
+	private static final String[] COLORS = { "#f00", "#000080", "#808080", "#808000", "#800080", "#c0c0c0", "#008080", "#ffa500", "#800000" };
+
+	/** The names of the replaced colors. */
+	private static final String[] COLOR_NAMES = { "red", "navy", "gray", "olive", "purple", "silver", "teal", "orange", "maroon" };
+
+	/** The properties whose "none" value is replaced by a zero. */
+	private static final String[] BORDERS = { "border", "border-top", "border-right", "border-bottom", "border-left", "outline", "background" };
+
+	static {
+		String[] bodies = { "calc", "max", "min", "repeating-linear-gradient", "repeating-radial-gradient", "linear-gradient", "radial-gradient" };
+		FUNCTIONS = concat(new String[] { "attr", "color-stop", "from", "rgba", "to", "url" }, prefix(bodies, VENDORS), bodies,
+				new String[] { "-webkit-gradient" });
+	}
+
+	/** The stylesheet. */
+	private final String css;
+
+	/** The preserved tokens, in order of appearance. */
+	private final List<String> tokens = new ArrayList<>();
+
+	/** The kinds of the preserved tokens. */
+	private int[] tokenKinds = new int[16];
+
+	/** The number of preserved tokens of each kind. */
+	private final int[] tokenCounts = new int[3];
+
+	/** The minified text, each preserved token being denoted by {@link #TOKEN}. */
+	private final StringBuilder minified = new StringBuilder();
+
+	/** The indices of the preserved tokens denoted in the minified text, in order. */
+	private int[] minifiedTokens = new int[16];
+
+	/** The number of preserved tokens denoted in the minified text. */
+	private int minifiedTokenCount;
+
+	/** The index of the last brace, slash or semicolon of the minified text, -1 if none. */
+	private int lastSelectorEnd = -1;
+
+	/** The index of the selector of the last opened block in the minified text. */
+	private int selectorStart;
+
+	/** The text read since the last brace. */
+	private StringBuilder segment = new StringBuilder();
+
+	/** The buffer the text read since the last brace is rewritten into. */
+	private StringBuilder rewritten = new StringBuilder();
+
+	/** The index of the first preserved token of the text read since the last brace. */
+	private int segmentFirstToken;
+
+	/** The brace before the text read since the last brace, 0 at the start of the stylesheet. */
+	private char segmentStart;
+
+	/** The brace after the text read since the last brace, 0 at the end of the stylesheet. */
+	private char segmentEnd;
+
+	/** The index of the "@charset" rule starting the stylesheet, -1 if none. */
+	private int charsetIndex = -1;
+
+	/** Whether whitespace has been read since the last written char. */
+	private boolean pendingSpace;
+
+	/** The last char read, the removed comments excluded. */
+	private char lastChar;
+
+	/** Whether the previous comment ended with a backslash (the Mac IE "\*&#47;" hack), the next one being kept empty. */
+	private boolean afterBackslashComment;
+
+	/** The state of the colons, protected in the selectors as done by the upstream "___YUICSSMIN_PSEUDOCLASSCOLON___" placeholder. */
+	private int colonsState = COLONS_START;
+
+	/** Whether whitespace has been kept before a protected colon since the last opening brace. */
+	private boolean colonSpace;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param in
+	 *          The reader of the stylesheet, read entirely.
+	 * @throws IOException
+	 *           If an error occurred while reading.
+	 */
+	public SinglePassCssCompressor(Reader in) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		char[] buffer = new char[8192];
+		int count;
+		while ((count = in.read(buffer)) != -1) {
+			sb.append(buffer, 0, count);
+		}
+		css = sb.toString();
+	}
+
+	/**
+	 * Compresses the stylesheet.
+	 *
+	 * @param out
+	 *          The writer of the compressed stylesheet.
+	 * @param linebreakpos
+	 *          The column after which a line break is inserted after the next closing brace, negative for no line breaks.
+	 * @throws IOException
+	 *           If an error occurred while writing.
+	 */
+	public void compress(Writer out, int linebreakpos) throws IOException {
+		try {
+			read();
+		} catch (UnsupportedStylesheetException e) {
+			new CssCompressor(new StringReader(css)).compress(out, linebreakpos);
+			return;
+		}
+		write(out, linebreakpos);
+	}
+
+	/**
+	 * Reads the stylesheet, char by char.
+	 */
+	private void read() {
+		int length = css.length();
+		int i = 0;
+		while (i < length) {
+			char c = css.charAt(i);
+			int dataEnd;
+			if (isWhitespace(c)) {
+				pendingSpace = true;
+				lastChar = c;
+				i++;
+			} else if ((c == 'u' || c == 'U') && (dataEnd = dataUrlStart(i)) >= 0) {
+				i = readDataUrl(i, dataEnd);
+			} else if (c == '/' && i + 1 < length && css.charAt(i + 1) == '*') {
+				i = readComment(i);
+			} else if (c == '"' || c == '\'') {
+				i = readString(i);
+			} else {
+				if (c == TOKEN || c == FRACTION) {
+					throw new UnsupportedStylesheetException();
+				}
+				write(c);
+				lastChar = c;
+				i++;
+			}
+		}
+		if (colonsState == COLONS_PROTECTED && colonSpace) {
+			// no opening brace follows, the upstream compressor protects none of the last colons
+			throw new UnsupportedStylesheetException();
+		}
+		endSegment((char) 0);
+	}
+
+	/**
+	 * Matches the start of a data URL, "url(" followed by optional whitespace, an optional quote and "data:", ignoring case.
+	 *
+	 * @param i
+	 *          The index of the "url(" candidate in the stylesheet.
+	 * @return The index after "data:", -1 if no data URL starts at the index.
+	 */
+	private int dataUrlStart(int i) {
+		if (!matchesIgnoreCase(css, i, "url(")) {
+			return -1;
+		}
+		int j = i + 4;
+		while (j < css.length() && isWhitespace(css.charAt(j))) {
+			j++;
+		}
+		if (j < css.length() && (css.charAt(j) == '"' || css.charAt(j) == '\'')) {
+			j++;
+		}
+		return matchesIgnoreCase(css, j, "data:") ? j + 5 : -1;
+	}
+
+	/**
+	 * Checks that no data URL starts in a region of the stylesheet.
+	 *
+	 * @param start
+	 *          The start of the region, inclusive.
+	 * @param end
+	 *          The end of the region, exclusive.
+	 */
+	private void checkNoDataUrl(int start, int end) {
+		for (int i = start; i < end; i++) {
+			char c = css.charAt(i);
+			if ((c == 'u' || c == 'U') && dataUrlStart(i) >= 0) {
+				// extracted by the upstream compressor before the comments and the strings
+				throw new UnsupportedStylesheetException();
+			}
+		}
+	}
+
+	/**
+	 * Reads a data URL, preserved without its whitespace up to its closing parenthesis.
+	 *
+	 * @param i
+	 *          The index of "url(".
+	 * @param dataEnd
+	 *          The index after "data:".
+	 * @return The index after the data URL.
+	 */
+	private int readDataUrl(int i, int dataEnd) {
+		char quote = css.charAt(dataEnd - 6);
+		char terminator = quote == '"' || quote == '\'' ? quote : ')';
+		int end = dataEnd - 1;
+		do {
+			end = css.indexOf(terminator, end + 1);
+			if (end < 0) {
+				throw new UnsupportedStylesheetException();
+			}
+		} while (css.charAt(end - 1) == '\\');
+		if (terminator != ')' && (end = css.indexOf(')', end)) < 0) {
+			throw new UnsupportedStylesheetException();
+		}
+		// the upstream compressor looks for the next data URL after "data:", and fails on a nested one
+		checkNoDataUrl(dataEnd, end + 1);
+		StringBuilder token = new StringBuilder(end - i - 4);
+		for (int j = i + 4; j < end; j++) {
+			char c = css.charAt(j);
+			if (!isWhitespace(c)) {
+				token.append(c);
+			}
+		}
+		write('u');
+		write('r');
+		write('l');
+		write('(');
+		writeToken(DATA_URL, token.toString());
+		write(')');
+		lastChar = ')';
+		return end + 1;
+	}
+
+	/**
+	 * Reads a comment, removed unless it starts with "!" or is part of a hack.
+	 *
+	 * @param i
+	 *          The index of "/*".
+	 * @return The index after the comment.
+	 */
+	private int readComment(int i) {
+		int end = css.indexOf("*/", i + 2);
+		if (end < 0 || css.startsWith("*", end + 2)) {
+			// unterminated, or "*/*" read by the upstream compressor as the start of another comment
+			throw new UnsupportedStylesheetException();
+		}
+		checkNoDataUrl(i + 2, end);
+		String content = css.substring(i + 2, end);
+		if (afterBackslashComment) {
+			afterBackslashComment = false;
+			writeComment("");
+		} else if (content.startsWith("!")) {
+			writeComment(content);
+		} else if (content.endsWith("\\")) {
+			writeComment("\\");
+			afterBackslashComment = true;
+		} else if (content.isEmpty() && lastChar == '>') {
+			writeComment("");
+		}
+		return end + 2;
+	}
+
+	/**
+	 * Writes a preserved comment.
+	 *
+	 * @param content
+	 *          The content of the comment.
+	 */
+	private void writeComment(String content) {
+		write('/');
+		write('*');
+		writeToken(COMMENT, content);
+		write('*');
+		write('/');
+		lastChar = '/';
+	}
+
+	/**
+	 * Reads a string, preserved as is but its IE opacity filter.
+	 *
+	 * @param i
+	 *          The index of the opening quote.
+	 * @return The index after the closing quote.
+	 */
+	private int readString(int i) {
+		char quote = css.charAt(i);
+		int end = i + 1;
+		while (end < css.length() && css.charAt(end) != quote) {
+			end += css.charAt(end) == '\\' ? 2 : 1;
+		}
+		if (end >= css.length()) {
+			throw new UnsupportedStylesheetException();
+		}
+		String content = css.substring(i + 1, end);
+		if (content.contains("/*")) {
+			// extracted by the upstream compressor before the strings
+			throw new UnsupportedStylesheetException();
+		}
+		checkNoDataUrl(i + 1, end);
+		write(quote);
+		writeToken(STRING, replaceAlpha(content));
+		write(quote);
+		lastChar = quote;
+		return end + 1;
+	}
+
+	/**
+	 * Writes a preserved token.
+	 *
+	 * @param kind
+	 *          The kind of the token.
+	 * @param value
+	 *          The value of the token.
+	 */
+	private void writeToken(int kind, String value) {
+		if (tokens.size() == tokenKinds.length) {
+			int[] newTokenKinds = new int[tokenKinds.length * 2];
+			System.arraycopy(tokenKinds, 0, newTokenKinds, 0, tokens.size());
+			tokenKinds = newTokenKinds;
+		}
+		tokenKinds[tokens.size()] = kind;
+		tokenCounts[kind]++;
+		tokens.add(value);
+		write(TOKEN);
+	}
+
+	/**
+	 * Writes a char of the collapsed text, the whitespace read before it being dropped if followed by a char it can precede.
+	 *
+	 * @param c
+	 *          The char.
+	 */
+	private void write(char c) {
+		if (pendingSpace) {
+			pendingSpace = false;
+			boolean keep;
+			if (c == ':') {
+				// a space and a protected colon denote a descendant pseudo-class
+				keep = colonsState != COLONS_UNPROTECTED;
+				colonSpace |= keep;
+			} else {
+				keep = "!{};>+()],".indexOf(c) < 0;
+			}
+			updateColonsState(' ');
+			if (keep) {
+				segment.append(' ');
+			}
+		}
+		updateColonsState(c);
+		if (c == '{' || c == '}') {
+			endSegment(c);
+		} else {
+			segment.append(c);
+		}
+	}
+
+	/**
+	 * Updates the state of the colons: they are protected from the start of the stylesheet or a closing brace up to the next opening brace,
+	 * unless a colon directly follows.
+	 *
+	 * @param c
+	 *          The next char of the collapsed text.
+	 */
+	private void updateColonsState(char c) {
+		if (c == '{') {
+			colonsState = COLONS_UNPROTECTED;
+			colonSpace = false;
+		} else if (c == '}') {
+			// a closing brace directly following the start is itself a char other than a colon
+			colonsState = colonsState == COLONS_UNPROTECTED ? COLONS_START : COLONS_PROTECTED;
+		} else if (colonsState == COLONS_START) {
+			colonsState = c == ':' ? COLONS_UNPROTECTED : COLONS_PROTECTED;
+		}
+	}
+
+	/**
+	 * Rewrites the text read since the last brace, and appends it to the minified text.
+	 *
+	 * @param end
+	 *          The brace ending the text, 0 at the end of the stylesheet.
+	 */
+	private void endSegment(char end) {
+		segmentEnd = end;
+		rewrite();
+		if (end == '}' && segmentStart == '{' && segment.length() == 0 && minified.length() - 1 > selectorStart) {
+			// empty rule, dropped with its selector
+			for (int i = selectorStart; i < minified.length(); i++) {
+				if (minified.charAt(i) == TOKEN) {
+					minifiedTokenCount--;
+				}
+			}
+			minified.setLength(selectorStart);
+			lastSelectorEnd = selectorStart - 1;
+		} else {
+			int token = segmentFirstToken;
+			for (int i = 0; i < segment.length(); i++) {
+				char c = segment.charAt(i);
+				if (c == TOKEN) {
+					if (minifiedTokenCount == minifiedTokens.length) {
+						int[] newMinifiedTokens = new int[minifiedTokenCount * 2];
+						System.arraycopy(minifiedTokens, 0, newMinifiedTokens, 0, minifiedTokenCount);
+						minifiedTokens = newMinifiedTokens;
+					}
+					minifiedTokens[minifiedTokenCount++] = token++;
+				} else if (c == '/' || c == ';') {
+					lastSelectorEnd = minified.length();
+				}
+				minified.append(c);
+			}
+			if (end != 0) {
+				if (end == '{') {
+					selectorStart = lastSelectorEnd + 1;
+				}
+				lastSelectorEnd = minified.length();
+				minified.append(end);
+			}
+		}
+		segmentStart = end;
+		segment.setLength(0);
+		segmentFirstToken = tokens.size();
+	}
+
+	/**
+	 * Rewrites the text read since the last brace, in the order of the upstream regular expressions.
+	 */
+	private void rewrite() {
+		if (segment.length() == 0) {
+			return;
+		}
+		spaceImportant();
+		spaceFirstLine();
+		removeSpacesAfterComments();
+		lowerCaseCharset();
+		lowerCaseAtRules();
+		lowerCaseAfterColon(PSEUDO_CLASSES);
+		lowerCaseAfterColon(PSEUDO_FUNCTIONS);
+		lowerCaseFunctions();
+		spaceAnd();
+		removeSpaces();
+		if (segmentEnd == '}') {
+			int length = segment.length();
+			while (length > 0 && segment.charAt(length - 1) == ';') {
+				length--;
+			}
+			segment.setLength(length);
+		}
+		removeZeroUnits();
+		collapseZeros();
+		doubleOriginZeros();
+		removeLeadingZeros();
+		convertRgbColors();
+		if (segmentEnd == '}') {
+			shortenColors();
+		}
+		nameColors();
+		replaceNone();
+		replaceAlphaFilters();
+		protectFractions();
+	}
+
+	/**
+	 * Starts a rewriting pass.
+	 *
+	 * @return The empty buffer to rewrite the text into.
+	 */
+	private StringBuilder startPass() {
+		rewritten.setLength(0);
+		return rewritten;
+	}
+
+	/**
+	 * Ends a rewriting pass, the rewritten text becoming the text to rewrite.
+	 */
+	private void endPass() {
+		StringBuilder previous = segment;
+		segment = rewritten;
+		rewritten = previous;
+	}
+
+	/**
+	 * Checks whether a char ends the text being rewritten, the brace following it being considered.
+	 *
+	 * @param i
+	 *          The index of the char.
+	 * @param c
+	 *          The char, either ";" or a brace.
+	 * @return true if the char at the index is the given one, or if the text ends at the index followed by the given brace.
+	 */
+	private boolean isTerminator(int i, char c) {
+		return i < segment.length() ? segment.charAt(i) == c : segmentEnd == c;
+	}
+
+	/**
+	 * Adds a space before each "!important".
+	 */
+	private void spaceImportant() {
+		if (segment.indexOf("!important") < 0) {
+			return;
+		}
+		StringBuilder out = startPass();
+		for (int i = 0; i < segment.length();) {
+			if (matches(segment, i, "!important")) {
+				out.append(" !important");
+				i += 10;
+			} else {
+				out.append(segment.charAt(i++));
+			}
+		}
+		endPass();
+	}
+
+	/**
+	 * Lowercases the ":first-line" and ":first-letter" pseudo-elements followed by a brace or a comma, adding a space before it (IE6 bug).
+	 */
+	private void spaceFirstLine() {
+		StringBuilder out = null;
+		int copied = 0;
+		for (int i = segment.indexOf(":"); i >= 0; i = segment.indexOf(":", i + 1)) {
+			int end = -1;
+			if (matchesIgnoreCase(segment, i + 1, "first-line")) {
+				end = i + 11;
+			} else if (matchesIgnoreCase(segment, i + 1, "first-letter")) {
+				end = i + 13;
+			}
+			if (end < 0 || !isTerminator(end, ',') && !isTerminator(end, '{')) {
+				continue;
+			}
+			if (out == null) {
+				out = startPass();
+			}
+			out.append(segment, copied, i);
+			appendLowerCase(out, segment, i, end);
+			out.append(' ');
+			copied = end;
+			i = end - 1;
+		}
+		if (out != null) {
+			out.append(segment, copied, segment.length());
+			endPass();
+		}
+	}
+
+	/**
+	 * Removes the spaces following the end of a comment.
+	 */
+	private void removeSpacesAfterComments() {
+		for (int i = segment.indexOf("*/ "); i >= 0; i = segment.indexOf("*/ ", i + 2)) {
+			segment.deleteCharAt(i + 2);
+		}
+	}
+
+	/**
+	 * Lowercases the "@charset" rule starting the stylesheet, the whitespace before it being dropped when its charset is double-quoted.
+	 */
+	private void lowerCaseCharset() {
+		if (segmentStart != 0) {
+			return;
+		}
+		int i = segment.length() > 0 && segment.charAt(0) == ' ' ? 1 : 0;
+		if (!matchesIgnoreCase(segment, i, "@charset ")) {
+			return;
+		}
+		int semicolon = segment.indexOf(";", i + 9);
+		if (semicolon < 0) {
+			// the upstream rule may run past a brace
+			throw new UnsupportedStylesheetException();
+		}
+		for (int j = i + 1; j < i + 8; j++) {
+			segment.setCharAt(j, toLowerCase(segment.charAt(j)));
+		}
+		if (i == 1 && semicolon == i + 12 && matches(segment, i + 9, "\"" + TOKEN + "\"")) {
+			// moved before the rule, then dropped after the semicolon
+			segment.deleteCharAt(0);
+			i = 0;
+		}
+		charsetIndex = i;
+	}
+
+	/**
+	 * Lowercases the at-rules, checking that the "@charset" rule can only start the stylesheet.
+	 */
+	private void lowerCaseAtRules() {
+		for (int i = segment.indexOf("@"); i >= 0; i = segment.indexOf("@", i + 1)) {
+			if (matchesIgnoreCase(segment, i + 1, "charset") && (segmentStart != 0 || i != charsetIndex)) {
+				// moved before the stylesheet by the upstream compressor
+				throw new UnsupportedStylesheetException();
+			}
+			int length = matchAnyIgnoreCase(segment, i + 1, AT_RULES);
+			if (length > 0) {
+				lowerCase(i + 1, i + 1 + length);
+				i += length;
+			}
+		}
+	}
+
+	/**
+	 * Lowercases the keywords following a colon.
+	 *
+	 * @param keywords
+	 *          The lowercase keywords, the first one matching being lowercased.
+	 */
+	private void lowerCaseAfterColon(String[] keywords) {
+		for (int i = segment.indexOf(":"); i >= 0; i = segment.indexOf(":", i + 1)) {
+			int length = matchAnyIgnoreCase(segment, i + 1, keywords);
+			if (length > 0) {
+				lowerCase(i + 1, i + 1 + length);
+				i += length;
+			}
+		}
+	}
+
+	/**
+	 * Lowercases the functions (and "from", "to") following a colon, a comma, a parenthesis or a space.
+	 */
+	private void lowerCaseFunctions() {
+		for (int i = 0; i < segment.length(); i++) {
+			char c = segment.charAt(i);
+			if (c != ':' && c != ',' && c != '(' && c != ' ') {
+				continue;
+			}
+			int start = i + 1;
+			while (start < segment.length() && segment.charAt(start) == ' ') {
+				start++;
+			}
+			int length = matchAnyIgnoreCase(segment, start, FUNCTIONS);
+			if (length > 0) {
+				lowerCase(start, start + length);
+				i = start + length - 1;
+			}
+		}
+	}
+
+	/**
+	 * Adds a space between "and" and a parenthesis in media queries.
+	 */
+	private void spaceAnd() {
+		int i = indexOfIgnoreCase(segment, "and(", 0);
+		if (i < 0) {
+			return;
+		}
+		StringBuilder out = startPass();
+		int copied = 0;
+		for (; i >= 0; i = indexOfIgnoreCase(segment, "and(", i + 4)) {
+			if (i > 0 && isWordChar(segment.charAt(i - 1))) {
+				continue;
+			}
+			out.append(segment, copied, i).append("and (");
+			copied = i + 4;
+		}
+		out.append(segment, copied, segment.length());
+		endPass();
+	}
+
+	/**
+	 * Removes the spaces following a char they are not needed after, or a brace.
+	 */
+	private void removeSpaces() {
+		if (segment.indexOf(" ") < 0) {
+			return;
+		}
+		StringBuilder out = startPass();
+		for (int i = 0; i < segment.length(); i++) {
+			char c = segment.charAt(i);
+			if (c == ' ') {
+				char previous = i > 0 ? segment.charAt(i - 1) : segmentStart;
+				if (previous != 0 && "!{}:;>+([,".indexOf(previous) >= 0) {
+					continue;
+				}
+			}
+			out.append(c);
+		}
+		endPass();
+	}
+
+	/**
+	 * Removes the units of the zero values.
+	 */
+	private void removeZeroUnits() {
+		StringBuilder out = null;
+		int copied = 0;
+		for (int i = 0; i < segment.length(); i++) {
+			// a zero value follows either the start of the text (after a brace or at the start of the stylesheet) or a non-digit char
+			int start;
+			int end;
+			if (i == 0 && (end = zeroValueEnd(0)) >= 0) {
+				start = 0;
+			} else if (!isDigit(segment.charAt(i)) && (end = zeroValueEnd(i + 1)) >= 0) {
+				start = i + 1;
+			} else {
+				continue;
+			}
+			if (out == null) {
+				out = startPass();
+			}
+			out.append(segment, copied, start).append('0');
+			copied = end;
+			i = end - 1;
+		}
+		if (out != null) {
+			out.append(segment, copied, segment.length());
+			endPass();
+		}
+	}
+
+	/**
+	 * Matches a zero value with a unit: "0", ".0" or "0.0" followed by a unit.
+	 *
+	 * @param i
+	 *          The index of the value candidate.
+	 * @return The index after the unit, -1 if not matched.
+	 */
+	private int zeroValueEnd(int i) {
+		int length = segment.length();
+		if (i + 2 < length && segment.charAt(i) == '0' && segment.charAt(i + 1) == '.' && segment.charAt(i + 2) == '0') {
+			int unit = matchAnyIgnoreCase(segment, i + 3, UNITS);
+			if (unit > 0) {
+				return i + 3 + unit;
+			}
+		}
+		if (i + 1 < length && segment.charAt(i) == '.' && segment.charAt(i + 1) == '0') {
+			int unit = matchAnyIgnoreCase(segment, i + 2, UNITS);
+			if (unit > 0) {
+				return i + 2 + unit;
+			}
+		}
+		if (i < length && segment.charAt(i) == '0') {
+			int unit = matchAnyIgnoreCase(segment, i + 1, UNITS);
+			if (unit > 0) {
+				return i + 1 + unit;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Collapses the values made of two, three or four zeros into a single zero.
+	 */
+	private void collapseZeros() {
+		StringBuilder out = null;
+		int copied = 0;
+		for (int i = segment.indexOf(":0 0"); i >= 0; i = segment.indexOf(":0 0", i + 1)) {
+			int end = i + 4;
+			int zeros = 2;
+			while (zeros < 4 && matches(segment, end, " 0")) {
+				end += 2;
+				zeros++;
+			}
+			if (!isTerminator(end, ';') && !isTerminator(end, '}')) {
+				continue;
+			}
+			if (out == null) {
+				out = startPass();
+			}
+			out.append(segment, copied, i).append(":0");
+			copied = end;
+			i = end - 1;
+		}
+		if (out != null) {
+			out.append(segment, copied, segment.length());
+			endPass();
+		}
+	}
+
+	/**
+	 * Doubles the single zero value of the background and transform origins.
+	 */
+	private void doubleOriginZeros() {
+		StringBuilder out = null;
+		int copied = 0;
+		for (int i = segment.indexOf(":0"); i >= 0; i = segment.indexOf(":0", i + 1)) {
+			if (!isTerminator(i + 2, ';') && !isTerminator(i + 2, '}')) {
+				continue;
+			}
+			// the leftmost property ending at the colon
+			int start = -1;
+			for (String origin : ORIGINS) {
+				int j = i - origin.length();
+				if (j >= copied && (start < 0 || j < start) && matchesIgnoreCase(segment, j, origin)) {
+					start = j;
+				}
+			}
+			if (start < 0) {
+				continue;
+			}
+			if (out == null) {
+				out = startPass();
+			}
+			out.append(segment, copied, start);
+			appendLowerCase(out, segment, start, i);
+			out.append(":0 0");
+			copied = i + 2;
+		}
+		if (out != null) {
+			out.append(segment, copied, segment.length());
+			endPass();
+		}
+	}
+
+	/**
+	 * Removes the leading zeros of the decimal values following a colon or a space.
+	 */
+	private void removeLeadingZeros() {
+		StringBuilder out = null;
+		int copied = 0;
+		for (int i = 0; i < segment.length(); i++) {
+			char c = segment.charAt(i);
+			if (c != ':' && c != ' ' || i + 1 >= segment.length() || segment.charAt(i + 1) != '0') {
+				continue;
+			}
+			int dot = i + 1;
+			while (dot < segment.length() && segment.charAt(dot) == '0') {
+				dot++;
+			}
+			int end = dot + 1;
+			while (end < segment.length() && isDigit(segment.charAt(end))) {
+				end++;
+			}
+			if (dot >= segment.length() || segment.charAt(dot) != '.' || end == dot + 1) {
+				continue;
+			}
+			if (out == null) {
+				out = startPass();
+			}
+			out.append(segment, copied, i + 1);
+			copied = dot;
+			i = end - 1;
+		}
+		if (out != null) {
+			out.append(segment, copied, segment.length());
+			endPass();
+		}
+	}
+
+	/**
+	 * Converts the "rgb(r,g,b)" colors to hexadecimal colors.
+	 */
+	private void convertRgbColors() {
+		StringBuilder out = null;
+		int copied = 0;
+		for (int i = segment.indexOf("rgb"); i >= 0; i = segment.indexOf("rgb", i + 1)) {
+			int j = i + 3;
+			while (j < segment.length() && segment.charAt(j) == ' ') {
+				j++;
+			}
+			if (j >= segment.length() || segment.charAt(j) != '(') {
+				continue;
+			}
+			int start = j + 1;
+			while (start < segment.length() && segment.charAt(start) == ' ') {
+				start++;
+			}
+			int end = start;
+			while (end < segment.length() && (isDigit(segment.charAt(end)) || segment.charAt(end) == ',' || segment.charAt(end) == ' ')) {
+				end++;
+			}
+			if (end >= segment.length() || segment.charAt(end) != ')' || end == j + 1) {
+				continue;
+			}
+			if (start == end) {
+				// the spaces are part of the values
+				start = j + 1;
+			}
+			StringBuilder hex = new StringBuilder("#");
+			try {
+				for (String value : segment.substring(start, end).split(",")) {
+					int rgb = Integer.parseInt(value);
+					if (rgb < 16) {
+						hex.append('0');
+					}
+					hex.append(Integer.toHexString(rgb));
+				}
+			} catch (NumberFormatException e) {
+				// the upstream compressor fails
+				throw new UnsupportedStylesheetException();
+			}
+			if (out == null) {
+				out = startPass();
+			}
+			out.append(segment, copied, i).append(hex);
+			copied = end + 1;
+			i = end;
+		}
+		if (out != null) {
+			out.append(segment, copied, segment.length());
+			endPass();
+		}
+	}
+
+	/**
+	 * Shortens the "#AABBCC" colors to "#abc", lowercasing them, but in the IE filters ("=#AABBCC"). The text must be followed by a closing brace.
+	 */
+	private void shortenColors() {
+		int scanned = 0;
+		for (int i = segment.indexOf("#"); i >= 0; i = segment.indexOf("#", i + 1)) {
+			int end = i + 7;
+			if (end > segment.length()) {
+				break;
+			}
+			boolean color = true;
+			for (int j = i + 1; j < end && color; j++) {
+				color = isHexDigit(segment.charAt(j));
+			}
+			if (!color || end < segment.length() && isHexDigit(segment.charAt(end))) {
+				continue;
+			}
+			int filter = i - 1;
+			if (filter >= scanned && (segment.charAt(filter) == '"' || segment.charAt(filter) == '\'')) {
+				filter--;
+			}
+			while (filter >= scanned && segment.charAt(filter) == ' ') {
+				filter--;
+			}
+			if (filter < scanned || segment.charAt(filter) != '=') {
+				lowerCase(i + 1, end);
+				if (segment.charAt(i + 1) == segment.charAt(i + 2) && segment.charAt(i + 3) == segment.charAt(i + 4)
+						&& segment.charAt(i + 5) == segment.charAt(i + 6)) {
+					segment.delete(i + 5, i + 6).delete(i + 3, i + 4).delete(i + 1, i + 2);
+					end = i + 4;
+				}
+			}
+			scanned = end;
+			i = end - 1;
+		}
+	}
+
+	/**
+	 * Replaces the colors having a shorter name by their name.
+	 */
+	private void nameColors() {
+		StringBuilder out = null;
+		int copied = 0;
+		for (int i = segment.indexOf("#"); i >= 0; i = segment.indexOf("#", i + 1)) {
+			if (i == 0 || segment.charAt(i - 1) != ':' && segment.charAt(i - 1) != ' ') {
+				continue;
+			}
+			for (int j = 0; j < COLORS.length; j++) {
+				int end = i + COLORS[j].length();
+				if (matches(segment, i, COLORS[j]) && (isTerminator(end, ';') || isTerminator(end, '}'))) {
+					if (out == null) {
+						out = startPass();
+					}
+					out.append(segment, copied, i).append(COLOR_NAMES[j]);
+					copied = end;
+					i = end - 1;
+					break;
+				}
+			}
+		}
+		if (out != null) {
+			out.append(segment, copied, segment.length());
+			endPass();
+		}
+	}
+
+	/**
+	 * Replaces the "none" value of the borders, outlines and backgrounds by a zero.
+	 */
+	private void replaceNone() {
+		int colon = indexOfIgnoreCase(segment, ":none", 0);
+		if (colon < 0) {
+			return;
+		}
+		StringBuilder out = startPass();
+		int copied = 0;
+		for (int i = 0; i < segment.length(); i++) {
+			for (String border : BORDERS) {
+				int end = i + border.length();
+				if (matchesIgnoreCase(segment, i, border) && matchesIgnoreCase(segment, end, ":none")
+						&& (isTerminator(end + 5, ';') || isTerminator(end + 5, '}'))) {
+					out.append(segment, copied, i);
+					appendLowerCase(out, segment, i, end);
+					out.append(":0");
+					copied = end + 5;
+					i = copied - 1;
+					break;
+				}
+			}
+		}
+		out.append(segment, copied, segment.length());
+		endPass();
+	}
+
+	/**
+	 * Replaces the IE opacity filters by their short form.
+	 */
+	private void replaceAlphaFilters() {
+		if (indexOfIgnoreCase(segment, "progid:", 0) < 0) {
+			return;
+		}
+		String replaced = replaceAlpha(segment.toString());
+		segment.setLength(0);
+		segment.append(replaced);
+	}
+
+	/**
+	 * Protects the slashes of the media query fractions, which do not end the selectors of the empty rules.
+	 */
+	private void protectFractions() {
+		for (int i = segment.indexOf("("); i >= 0; i = segment.indexOf("(", i + 1)) {
+			int j = i + 1;
+			while (j < segment.length() && (isAsciiLetter(segment.charAt(j)) || segment.charAt(j) == '-')) {
+				j++;
+			}
+			if (j == i + 1 || j >= segment.length() || segment.charAt(j) != ':') {
+				continue;
+			}
+			int slash = j + 1;
+			while (slash < segment.length() && isDigit(segment.charAt(slash))) {
+				slash++;
+			}
+			if (slash == j + 1 || slash >= segment.length() || segment.charAt(slash) != '/') {
+				continue;
+			}
+			int end = slash + 1;
+			while (end < segment.length() && isDigit(segment.charAt(end))) {
+				end++;
+			}
+			if (end == slash + 1 || end >= segment.length() || segment.charAt(end) != ')') {
+				continue;
+			}
+			segment.setCharAt(slash, FRACTION);
+			i = end;
+		}
+	}
+
+	/**
+	 * Writes the minified text, restoring the preserved tokens and breaking the lines.
+	 *
+	 * @param out
+	 *          The writer of the compressed stylesheet.
+	 * @param linebreakpos
+	 *          The column after which a line break is inserted after the next closing brace, negative for no line breaks.
+	 * @throws IOException
+	 *           If an error occurred while writing.
+	 */
+	private void write(Writer out, int linebreakpos) throws IOException {
+		// the upstream placeholders are numbered by kind, their length shifting the line breaks
+		int[] indices = new int[tokens.size()];
+		int[] next = { 0, tokenCounts[DATA_URL], tokenCounts[DATA_URL] + tokenCounts[STRING] };
+		for (int i = 0; i < indices.length; i++) {
+			indices[i] = next[tokenKinds[i]]++;
+		}
+		int start = 0;
+		int end = minified.length();
+		while (start < end && minified.charAt(start) <= ' ') {
+			start++;
+		}
+		while (end > start && minified.charAt(end - 1) <= ' ') {
+			end--;
+		}
+		JavaScriptWriter writer = new JavaScriptWriter(out);
+		int token = 0;
+		long position = 0;
+		long lineStart = 0;
+		char previous = 0;
+		for (int i = 0; i < minified.length(); i++) {
+			char c = minified.charAt(i);
+			boolean visible = i >= start && i < end;
+			if (c == TOKEN) {
+				int index = minifiedTokens[token++];
+				if (visible) {
+					writer.append(tokens.get(index));
+				}
+				position += PLACEHOLDER_LENGTH + Integer.toString(indices[index]).length();
+			} else {
+				if (visible && (c != ';' || previous != ';')) {
+					writer.append(c == FRACTION ? '/' : c);
+				}
+				position++;
+				if (c == '}' && linebreakpos >= 0 && position - lineStart > linebreakpos) {
+					if (i < end - 1) {
+						writer.append('\n');
+					}
+					lineStart = position;
+					position++;
+				}
+			}
+			previous = c;
+		}
+		writer.flush();
+	}
+
+	/**
+	 * Lowercases a region of the text being rewritten.
+	 *
+	 * @param start
+	 *          The start of the region, inclusive.
+	 * @param end
+	 *          The end of the region, exclusive.
+	 */
+	private void lowerCase(int start, int end) {
+		for (int i = start; i < end; i++) {
+			segment.setCharAt(i, toLowerCase(segment.charAt(i)));
+		}
+	}
+
+	/**
+	 * Replaces the IE opacity filters ("progid:DXImageTransform.Microsoft.Alpha(Opacity=", ignoring case, the dots matching any char) by their
+	 * short form ("alpha(opacity=").
+	 *
+	 * @param s
+	 *          The text.
+	 * @return The text with the short filters.
+	 */
+	private static String replaceAlpha(String s) {
+		int i = indexOfIgnoreCase(s, "progid:dximagetransform", 0);
+		if (i < 0) {
+			return s;
+		}
+		StringBuilder sb = null;
+		int copied = 0;
+		for (; i >= 0; i = indexOfIgnoreCase(s, "progid:dximagetransform", i + 1)) {
+			if (i + 48 <= s.length() && isAnyChar(s.charAt(i + 23)) && matchesIgnoreCase(s, i + 24, "microsoft") && isAnyChar(s.charAt(i + 33))
+					&& matchesIgnoreCase(s, i + 34, "alpha(opacity=")) {
+				if (sb == null) {
+					sb = new StringBuilder(s.length());
+				}
+				sb.append(s, copied, i).append("alpha(opacity=");
+				copied = i + 48;
+				i = copied - 1;
+			}
+		}
+		return sb == null ? s : sb.append(s, copied, s.length()).toString();
+	}
+
+	/**
+	 * Checks whether a char is matched by the "." of a regular expression.
+	 *
+	 * @param c
+	 *          The char.
+	 * @return true if the char is neither a line terminator nor a preserved token.
+	 */
+	private static boolean isAnyChar(char c) {
+		return c != '\n' && c != '\r' && c != '\u0085' && c != '\u2028' && c != '\u2029' && c != TOKEN;
+	}
+
+	/**
+	 * Checks whether a char is whitespace, as matched by "\s".
+	 *
+	 * @param c
+	 *          The char.
+	 * @return true if the char is whitespace.
+	 */
+	private static boolean isWhitespace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000b' || c == '\f' || c == '\r';
+	}
+
+	/**
+	 * Checks whether a char is a decimal digit, as matched by "[0-9]".
+	 *
+	 * @param c
+	 *          The char.
+	 * @return true if the char is a decimal digit.
+	 */
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	/**
+	 * Checks whether a char is a hexadecimal digit, as matched by "[0-9a-fA-F]".
+	 *
+	 * @param c
+	 *          The char.
+	 * @return true if the char is a hexadecimal digit.
+	 */
+	private static boolean isHexDigit(char c) {
+		return isDigit(c) || c >= 'a' && c <= 'f' || c >= 'A' && c <= 'F';
+	}
+
+	/**
+	 * Checks whether a char is an ASCII letter, as matched by "[A-Za-z]".
+	 *
+	 * @param c
+	 *          The char.
+	 * @return true if the char is an ASCII letter.
+	 */
+	private static boolean isAsciiLetter(char c) {
+		return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z';
+	}
+
+	/**
+	 * Checks whether a char is a word char, as considered by "\b" (a preserved token ending with "_").
+	 *
+	 * @param c
+	 *          The char.
+	 * @return true if the char is a word char.
+	 */
+	private static boolean isWordChar(char c) {
+		return c == '_' || c == TOKEN || Character.isLetterOrDigit(c);
+	}
+
+	/**
+	 * Lowercases an ASCII letter.
+	 *
+	 * @param c
+	 *          The char.
+	 * @return The lowercase char if an ASCII uppercase letter, the char otherwise.
+	 */
+	private static char toLowerCase(char c) {
+		return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+	}
+
+	/**
+	 * Appends a lowercased region of a char sequence.
+	 *
+	 * @param sb
+	 *          The string builder to append to.
+	 * @param s
+	 *          The char sequence.
+	 * @param start
+	 *          The start of the region, inclusive.
+	 * @param end
+	 *          The end of the region, exclusive.
+	 */
+	private static void appendLowerCase(StringBuilder sb, CharSequence s, int start, int end) {
+		for (int i = start; i < end; i++) {
+			sb.append(toLowerCase(s.charAt(i)));
+		}
+	}
+
+	/**
+	 * Checks whether a string appears at an index of a char sequence.
+	 *
+	 * @param s
+	 *          The char sequence.
+	 * @param i
+	 *          The index.
+	 * @param word
+	 *          The string.
+	 * @return true if the string appears at the index.
+	 */
+	private static boolean matches(CharSequence s, int i, String word) {
+		if (i < 0 || i + word.length() > s.length()) {
+			return false;
+		}
+		for (int j = 0; j < word.length(); j++) {
+			if (s.charAt(i + j) != word.charAt(j)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Checks whether a lowercase string appears at an index of a char sequence, ignoring the case of the ASCII letters.
+	 *
+	 * @param s
+	 *          The char sequence.
+	 * @param i
+	 *          The index.
+	 * @param word
+	 *          The lowercase string.
+	 * @return true if the string appears at the index.
+	 */
+	private static boolean matchesIgnoreCase(CharSequence s, int i, String word) {
+		if (i < 0 || i + word.length() > s.length()) {
+			return false;
+		}
+		for (int j = 0; j < word.length(); j++) {
+			if (toLowerCase(s.charAt(i + j)) != word.charAt(j)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Finds the first lowercase string of a list appearing at an index of a char sequence, ignoring the case of the ASCII letters.
+	 *
+	 * @param s
+	 *          The char sequence.
+	 * @param i
+	 *          The index.
+	 * @param words
+	 *          The lowercase strings, in order of preference.
+	 * @return The length of the first string appearing at the index, -1 if none.
+	 */
+	private static int matchAnyIgnoreCase(CharSequence s, int i, String[] words) {
+		for (String word : words) {
+			if (matchesIgnoreCase(s, i, word)) {
+				return word.length();
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Finds a lowercase string in a char sequence, ignoring the case of the ASCII letters.
+	 *
+	 * @param s
+	 *          The char sequence.
+	 * @param word
+	 *          The lowercase string.
+	 * @param from
+	 *          The index to start from.
+	 * @return The index of the first occurrence from the index, -1 if none.
+	 */
+	private static int indexOfIgnoreCase(CharSequence s, String word, int from) {
+		for (int i = from; i + word.length() <= s.length(); i++) {
+			if (matchesIgnoreCase(s, i, word)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Prefixes words with vendor prefixes.
+	 *
+	 * @param words
+	 *          The words.
+	 * @param vendors
+	 *          The vendors.
+	 * @return The words prefixed by "-{vendor}-", by vendor then by word.
+	 */
+	private static String[] prefix(String[] words, String[] vendors) {
+		String[] prefixed = new String[words.length * vendors.length];
+		int i = 0;
+		for (String vendor : vendors) {
+			for (String word : words) {
+				prefixed[i++] = "-" + vendor + "-" + word;
+			}
+		}
+		return prefixed;
+	}
+
+	/**
+	 * Concatenates arrays of strings.
+	 *
+	 * @param arrays
+	 *          The arrays.
+	 * @return The concatenated arrays.
+	 */
+	private static String[] concat(String[]... arrays) {
+		List<String> strings = new ArrayList<>();
+		for (String[] array : arrays) {
+			for (String s : array) {
+				strings.add(s);
+			}
+		}
+		return strings.toArray(new String[strings.size()]);
+	}
+
+	/**
+	 * Thrown when the stylesheet is compressed differently by the upstream compressor.
+	 */
+	private static final class UnsupportedStylesheetException extends RuntimeException {
+
+		/** Serial version UID. */
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * Constructor, without stack trace.
+		 */
+		public UnsupportedStylesheetException() {
+			super(null, null, false, false);
+		}
+
+	}
+
+}
@@ -1,5 +1,6 @@
 /**
  * Temporary fix for the YUI compressor "use strict"-as-a-hint issue:
  * https://github.com/yui/yuicompressor/issues/71
+ * The compression phases of the JS compressor are package-private, so that they can be benchmarked separately.
  */
 package com.yahoo.platform.yui.compressor;
\ No newline at end of file
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) boogiedev.com, all rights reserved.
+ * This code is licensed under the LGPL 3.0 license,
+ * available at the root application directory.
+ */
+
+package org.mozilla.javascript;
+
+/**
+ * Decompiler handing the tokens over as the parser adds them, instead of encoding them into a source string to be decoded afterwards:
+ * <ul>
+ * <li>The tokens are passed to {@link #token(int)}, {@link #token(int, String)} and {@link #number(double)} in the order of the encoded source,
+ * so that neither the encoded source nor the strings extracted from it are created.</li>
+ * <li>Nothing is encoded, so that the offsets are always 0 and the encoded source is empty: the parser must not be used to decompile the
+ * functions.</li>
+ * </ul>
+ * The methods of {@link Decompiler} being package-private, this class lives in its package.
+ */
+public abstract class TokenDecompiler extends Decompiler {
+
+	/**
+	 * Handles a token without value.
+	 *
+	 * @param type
+	 *          The type of the token (see {@link Token}).
+	 */
+	protected abstract void token(int type);
+
+	/**
+	 * Handles a token with a value: {@link Token#NAME}, {@link Token#STRING}, {@link Token#REGEXP}, {@link Token#CONDCOMMENT} or
+	 * {@link Token#KEEPCOMMENT}.
+	 *
+	 * @param type
+	 *          The type of the token.
+	 * @param value
+	 *          The value of the token, unquoted for the strings, delimited by slashes and followed by the flags for the regular expressions.
+	 */
+	protected abstract void token(int type, String value);
+
+	/**
+	 * Handles a {@link Token#NUMBER} token.
+	 *
+	 * @param number
+	 *          The value of the number.
+	 */
+	protected abstract void number(double number);
+
+	@Override
+	String getEncodedSource() {
+		return "";
+	}
+
+	@Override
+	int getCurrentOffset() {
+		return 0;
+	}
+
+	@Override
+	int markFunctionStart(int functionType) {
+		// the function type following the FUNCTION token is not a token
+		token(Token.FUNCTION);
+		return 0;
+	}
+
+	@Override
+	int markFunctionEnd(int functionStart) {
+		return 0;
+	}
+
+	@Override
+	void addToken(int token) {
+		if (token < 0 || token > Token.LAST_TOKEN) {
+			throw new IllegalArgumentException();
+		}
+		token(token);
+	}
+
+	@Override
+	void addEOL(int token) {
+		// the EOL following the token is not a token
+		addToken(token);
+	}
+
+	@Override
+	void addName(String str) {
+		token(Token.NAME, str);
+	}
+
+	@Override
+	void addString(String str) {
+		token(Token.STRING, str);
+	}
+
+	@Override
+	void addRegexp(String regexp, String flags) {
+		token(Token.REGEXP, '/' + regexp + '/' + flags);
+	}
+
+	@Override
+	void addJScriptConditionalComment(String str) {
+		token(Token.CONDCOMMENT, str);
+	}
+
+	@Override
+	void addPreservedComment(String str) {
+		token(Token.KEEPCOMMENT, str);
+	}
+
+	@Override
+	void addNumber(double n) {
+		number(n);
+	}
+
+}
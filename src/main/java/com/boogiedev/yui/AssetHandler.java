@@ -0,0 +1,583 @@
+/*
+ * Copyright (c) boogiedev.com, all rights reserved.
+ * This code is licensed under the LGPL 3.0 license,
+ * available at the root application directory.
+ */
+
+package com.boogiedev.yui;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.mozilla.javascript.EvaluatorException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+/**
+ * HTTP handler serving the bundles of a YUI compressor straight from their input directories, compressing them on demand:
+ * <ul>
+ * <li>Serves each bundle at "{context path}{bundle name}{suffix}", e.g. "/assets/app.js", the input files being compressed and merged in the same
+ * order as by {@link YuiCompressor#compressAll()}, without writing nor deleting anything.</li>
+ * <li>Keeps the compressed contents in a bounded LRU cache keyed by the hash of the input contents and of the compression options, so that only
+ * the changed input files are compressed again.</li>
+ * <li>Identifies each version of a bundle by an ETag (the hash of its compressed contents keys), answering conditional requests with
+ * "304 Not Modified".</li>
+ * <li>Checks the sizes and last modified dates of the input files at most once per check interval and bundle (see
+ * {@link #setCheckInterval(long)}), on request: once a bundle changed, its stale version is served while it is being recompressed in the
+ * background (the first request of a bundle waits for its compression though).</li>
+ * <li>Exposes its statistics through JMX (see {@link AssetHandlerMXBean} and {@link #registerMBean(String)}).</li>
+ * </ul>
+ * It can be added to any {@link com.sun.net.httpserver.HttpServer}, and should be closed once the server is stopped.
+ */
+public class AssetHandler implements HttpHandler, AssetHandlerMXBean, Closeable {
+
+	/** Logger. */
+	private static final Logger DEFAULT_LOGGER = LoggerFactory.getLogger(AssetHandler.class);
+
+	/** Default maximum size of the cache of compressed contents, in bytes (32 MB). */
+	public static final long DEFAULT_CACHE_MAX_SIZE = 32L * 1024 * 1024;
+
+	/** Default minimum delay between two checks of the input files of a bundle, in milliseconds. */
+	public static final long DEFAULT_CHECK_INTERVAL = 1000;
+
+	/**
+	 * Compressed version of a bundle.
+	 */
+	private static class Asset {
+
+		/** The signature of the input files (paths, sizes and last modified dates) when the compression started. */
+		private final String signature;
+
+		/** The ETag, quoted. */
+		private final String etag;
+
+		/** The compressed content. */
+		private final byte[] content;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param signature
+		 *          The signature of the input files when the compression started.
+		 * @param etag
+		 *          The ETag, quoted.
+		 * @param content
+		 *          The compressed content.
+		 */
+		public Asset(String signature, String etag, byte[] content) {
+			this.signature = signature;
+			this.etag = etag;
+			this.content = content;
+		}
+
+	}
+
+	/**
+	 * Served bundle.
+	 */
+	private static class BundleState {
+
+		/** The bundle. */
+		private final Bundle bundle;
+
+		/** Whether the bundle is being recompressed in the background. */
+		private final AtomicBoolean recompressing;
+
+		/** The time its input files were last checked, in nanoseconds (see {@link System#nanoTime()}). */
+		private final AtomicLong checked;
+
+		/** The last compressed version of the bundle, null until compressed. */
+		private volatile Asset asset;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param bundle
+		 *          The bundle.
+		 */
+		public BundleState(Bundle bundle) {
+			this.bundle = bundle;
+			recompressing = new AtomicBoolean();
+			checked = new AtomicLong();
+		}
+
+	}
+
+	/** The YUI compressor. */
+	private final YuiCompressor yuiCompressor;
+
+	/** The served bundles, by path relative to the context path. */
+	private final Map<String, BundleState> bundles;
+
+	/** The maximum size of the cache of compressed contents, in bytes. */
+	private final long cacheMaxSize;
+
+	/** The cache of compressed contents, by key, in access order. */
+	private final LinkedHashMap<String, byte[]> cache;
+
+	/** The executor recompressing the changed bundles in the background. */
+	private final ExecutorService executor;
+
+	/** The number of handled requests. */
+	private final AtomicLong requests;
+
+	/** The number of requests answered with "304 Not Modified". */
+	private final AtomicLong notModifiedResponses;
+
+	/** The number of requests answered with a stale bundle. */
+	private final AtomicLong staleResponses;
+
+	/** The number of compressed contents found in the cache. */
+	private final AtomicLong cacheHits;
+
+	/** The number of compressed contents looked up in the cache without being found. */
+	private final AtomicLong cacheMisses;
+
+	/** The histogram of the requests latencies. */
+	private final LatencyHistogram requestLatencies;
+
+	/** The histogram of the bundles compression latencies. */
+	private final LatencyHistogram compressionLatencies;
+
+	/** The minimum delay between two checks of the input files of a bundle, in nanoseconds. */
+	private volatile long checkIntervalNanos;
+
+	/** The size of the compressed contents in the cache, in bytes, guarded by {@link #cache}. */
+	private long cacheSize;
+
+	/** The name this handler has been registered with into the platform MBean server, may be null. */
+	private ObjectName objectName;
+
+	/** Logger. */
+	private Logger logger;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param yuiCompressor
+	 *          The YUI compressor, whose bundles will be served.
+	 * @param cacheMaxSize
+	 *          The maximum size of the cache of compressed contents, in bytes (see {@link #DEFAULT_CACHE_MAX_SIZE}).
+	 */
+	public AssetHandler(YuiCompressor yuiCompressor, long cacheMaxSize) {
+		this.yuiCompressor = yuiCompressor;
+		this.cacheMaxSize = cacheMaxSize;
+		bundles = new HashMap<>();
+		for (Bundle bundle : yuiCompressor.getBundles()) {
+			bundles.put(bundle.getName() + bundle.getType().getSuffix(), new BundleState(bundle));
+		}
+		cache = new LinkedHashMap<>(16, 0.75f, true);
+		executor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("yui-asset-%d").setDaemon(true).build());
+		requests = new AtomicLong();
+		notModifiedResponses = new AtomicLong();
+		staleResponses = new AtomicLong();
+		cacheHits = new AtomicLong();
+		cacheMisses = new AtomicLong();
+		requestLatencies = new LatencyHistogram();
+		compressionLatencies = new LatencyHistogram();
+		checkIntervalNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_CHECK_INTERVAL);
+		logger = DEFAULT_LOGGER;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void handle(HttpExchange exchange) throws IOException {
+		long start = System.nanoTime();
+		requests.incrementAndGet();
+		try {
+			String path = exchange.getRequestURI().getPath().substring(exchange.getHttpContext().getPath().length());
+			BundleState state = bundles.get(path.startsWith("/") ? path.substring(1) : path);
+			if (state == null) {
+				exchange.sendResponseHeaders(404, -1);
+				return;
+			}
+			String method = exchange.getRequestMethod();
+			if (!"GET".equals(method) && !"HEAD".equals(method)) {
+				exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+				exchange.sendResponseHeaders(405, -1);
+				return;
+			}
+			Asset asset;
+			try {
+				asset = getAsset(state);
+			} catch (YuiCompressorException e) {
+				logger.error("Unable to serve " + path, e);
+				exchange.sendResponseHeaders(500, -1);
+				return;
+			}
+			Headers headers = exchange.getResponseHeaders();
+			headers.set("ETag", asset.etag);
+			headers.set("Cache-Control", "no-cache");
+			if (matches(exchange.getRequestHeaders().getFirst("If-None-Match"), asset.etag)) {
+				notModifiedResponses.incrementAndGet();
+				exchange.sendResponseHeaders(304, -1);
+				return;
+			}
+			String contentType = state.bundle.getType() == Bundle.Type.JS ? "application/javascript" : "text/css";
+			headers.set("Content-Type", contentType + "; charset=" + yuiCompressor.getCharset().name());
+			if ("HEAD".equals(method)) {
+				exchange.sendResponseHeaders(200, -1);
+				return;
+			}
+			exchange.sendResponseHeaders(200, asset.content.length);
+			try (OutputStream body = exchange.getResponseBody()) {
+				body.write(asset.content);
+			}
+		} finally {
+			exchange.close();
+			requestLatencies.record(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Returns the version of a bundle to serve:
+	 * <ul>
+	 * <li>The last compressed version if the input files did not change since, or if they were checked less than a check interval ago.</li>
+	 * <li>The last compressed version too if they changed, while the bundle is being recompressed in the background.</li>
+	 * <li>A version compressed in the calling thread if the bundle has not been compressed yet.</li>
+	 * </ul>
+	 *
+	 * @param state
+	 *          The bundle.
+	 * @return The version of the bundle to serve.
+	 * @throws YuiCompressorException
+	 *           If an error occurred while scanning or compressing.
+	 */
+	private Asset getAsset(final BundleState state) throws YuiCompressorException {
+		Asset asset = state.asset;
+		if (asset != null) {
+			if (isCheckDue(state) && !asset.signature.equals(getSignature(yuiCompressor.getInputFiles(state.bundle)))) {
+				staleResponses.incrementAndGet();
+				if (state.recompressing.compareAndSet(false, true)) {
+					executor.execute(new Runnable() {
+
+						@Override
+						public void run() {
+							try {
+								state.asset = compress(state);
+							} catch (YuiCompressorException e) {
+								logger.error("Unable to recompress " + state.bundle.getName() + ", serving its stale version", e);
+							} finally {
+								state.recompressing.set(false);
+							}
+						}
+
+					});
+				}
+			}
+			return asset;
+		}
+		synchronized (state) {
+			if (state.asset == null) {
+				state.asset = compress(state);
+			}
+			return state.asset;
+		}
+	}
+
+	/**
+	 * Checks whether the input files of a bundle should be checked, i.e. if they were last checked at least a check interval ago. Only one of the
+	 * concurrent requests is told so, the other ones serving the last compressed version meanwhile.
+	 *
+	 * @param state
+	 *          The bundle.
+	 * @return true if the input files of the bundle should be checked.
+	 */
+	private boolean isCheckDue(BundleState state) {
+		long now = System.nanoTime();
+		long checked = state.checked.get();
+		return now - checked >= checkIntervalNanos && state.checked.compareAndSet(checked, now);
+	}
+
+	/**
+	 * Compresses a bundle, going through the cache.
+	 *
+	 * @param state
+	 *          The bundle.
+	 * @return The compressed version of the bundle.
+	 * @throws YuiCompressorException
+	 *           If an error occurred while scanning or compressing.
+	 */
+	private Asset compress(BundleState state) throws YuiCompressorException {
+		long start = System.nanoTime();
+		Bundle bundle = state.bundle;
+		List<File> inputFiles = yuiCompressor.getInputFiles(bundle);
+		state.checked.set(start);
+		String signature = getSignature(inputFiles);
+		String options = yuiCompressor.getOptions(bundle.getType());
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		Hasher etag = Hashing.sha1().newHasher();
+		for (File inputFile : inputFiles) {
+			try {
+				InputContent input = yuiCompressor.readInput(inputFile);
+				String key = Hashing.sha1().newHasher().putString(options, Charsets.UTF_8).putString(input.getHash(), Charsets.UTF_8).hash().toString();
+				byte[] compressed = getCached(key);
+				if (compressed == null) {
+					cacheMisses.incrementAndGet();
+					compressed = yuiCompressor.compress(bundle.getType(), input, new FileMetrics(inputFile));
+					putCached(key, compressed);
+				} else {
+					cacheHits.incrementAndGet();
+				}
+				content.write(compressed);
+				etag.putString(key, Charsets.UTF_8);
+			} catch (IOException | EvaluatorException e) {
+				throw new YuiCompressorException("An error occurred while compressing " + inputFile, e);
+			}
+		}
+		compressionLatencies.record(System.nanoTime() - start);
+		return new Asset(signature, "\"" + etag.hash() + "\"", content.toByteArray());
+	}
+
+	/**
+	 * Returns the signature of input files, changing whenever one of them is added, removed, resized or modified.
+	 *
+	 * @param inputFiles
+	 *          The input files.
+	 * @return The signature of the input files.
+	 */
+	private static String getSignature(List<File> inputFiles) {
+		StringBuilder signature = new StringBuilder();
+		for (File inputFile : inputFiles) {
+			signature.append(inputFile.getPath()).append('\t').append(inputFile.length()).append('\t').append(inputFile.lastModified()).append('\n');
+		}
+		return signature.toString();
+	}
+
+	/**
+	 * Checks whether an If-None-Match request header matches an ETag.
+	 *
+	 * @param ifNoneMatch
+	 *          The If-None-Match request header, may be null.
+	 * @param etag
+	 *          The ETag, quoted.
+	 * @return true if the header matches the ETag.
+	 */
+	private static boolean matches(String ifNoneMatch, String etag) {
+		if (ifNoneMatch == null) {
+			return false;
+		}
+		for (String candidate : ifNoneMatch.split(",")) {
+			candidate = candidate.trim();
+			if (candidate.equals("*") || candidate.equals(etag) || candidate.equals("W/" + etag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Gets a compressed content from the cache.
+	 *
+	 * @param key
+	 *          The key.
+	 * @return The compressed content, null if not found.
+	 */
+	private byte[] getCached(String key) {
+		synchronized (cache) {
+			return cache.get(key);
+		}
+	}
+
+	/**
+	 * Puts a compressed content into the cache, then evicts the least recently used ones while the cache exceeds its maximum size.
+	 *
+	 * @param key
+	 *          The key.
+	 * @param compressed
+	 *          The compressed content.
+	 */
+	private void putCached(String key, byte[] compressed) {
+		synchronized (cache) {
+			byte[] previous = cache.put(key, compressed);
+			cacheSize += compressed.length - (previous == null ? 0 : previous.length);
+			Iterator<byte[]> eldest = cache.values().iterator();
+			while (cacheSize > cacheMaxSize && cache.size() > 1) {
+				cacheSize -= eldest.next().length;
+				eldest.remove();
+			}
+		}
+	}
+
+	/**
+	 * Registers this handler into the platform MBean server, as "com.boogiedev.yui:type=AssetHandler,name={name}". It is unregistered once closed.
+	 *
+	 * @param name
+	 *          The name of this handler, e.g. its context path.
+	 * @throws YuiCompressorException
+	 *           If an error occurred while registering.
+	 */
+	public void registerMBean(String name) throws YuiCompressorException {
+		try {
+			ObjectName objectName = new ObjectName("com.boogiedev.yui:type=AssetHandler,name=" + ObjectName.quote(name));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+			this.objectName = objectName;
+		} catch (JMException e) {
+			throw new YuiCompressorException("Unable to register " + name + " into the platform MBean server", e);
+		}
+	}
+
+	/**
+	 * Stops the background compressions, and unregisters this handler from the platform MBean server if needed.
+	 *
+	 * @throws IOException
+	 *           If an error occurred while unregistering.
+	 */
+	@Override
+	public void close() throws IOException {
+		executor.shutdownNow();
+		if (objectName != null) {
+			MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+			try {
+				mBeanServer.unregisterMBean(objectName);
+			} catch (JMException e) {
+				throw new IOException("Unable to unregister " + objectName, e);
+			}
+			objectName = null;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long getRequests() {
+		return requests.get();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long getNotModifiedResponses() {
+		return notModifiedResponses.get();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long getStaleResponses() {
+		return staleResponses.get();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long getCacheHits() {
+		return cacheHits.get();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long getCacheMisses() {
+		return cacheMisses.get();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public double getCacheHitRate() {
+		long hits = cacheHits.get();
+		long lookups = hits + cacheMisses.get();
+		return lookups == 0 ? 0 : (double) hits / lookups;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int getCacheEntries() {
+		synchronized (cache) {
+			return cache.size();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long getCacheSize() {
+		synchronized (cache) {
+			return cacheSize;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long[] getLatencyBoundsMillis() {
+		return LatencyHistogram.getBoundsMillis();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long[] getRequestLatencies() {
+		return requestLatencies.getCounts();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long[] getCompressionLatencies() {
+		return compressionLatencies.getCounts();
+	}
+
+	/**
+	 * Sets the minimum delay between two checks of the input files of a bundle (defaults to {@link #DEFAULT_CHECK_INTERVAL}), so that the input
+	 * directories are not scanned on every request. The changes are served at most this delay (plus the recompression time) after being made.
+	 *
+	 * @param checkInterval
+	 *          The minimum delay between two checks of the input files of a bundle, in milliseconds, 0 to check them on every request.
+	 */
+	public void setCheckInterval(long checkInterval) {
+		checkIntervalNanos = TimeUnit.MILLISECONDS.toNanos(checkInterval);
+	}
+
+	/**
+	 * Sets the logger to use.
+	 *
+	 * @param logger
+	 *          The logger to use.
+	 */
+	public void setLogger(Logger logger) {
+		this.logger = logger;
+	}
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) boogiedev.com, all rights reserved.
+ * This code is licensed under the LGPL 3.0 license,
+ * available at the root application directory.
+ */
+
+package com.boogiedev.yui;
+
+/**
+ * JMX view of an {@link AssetHandler}: requests, cache and latency statistics since its creation.
+ */
+public interface AssetHandlerMXBean {
+
+	/**
+	 * Returns the number of handled requests.
+	 *
+	 * @return The number of handled requests.
+	 */
+	long getRequests();
+
+	/**
+	 * Returns the number of requests answered with "304 Not Modified".
+	 *
+	 * @return The number of requests answered with "304 Not Modified".
+	 */
+	long getNotModifiedResponses();
+
+	/**
+	 * Returns the number of requests answered with a stale bundle, while it was being recompressed in the background.
+	 *
+	 * @return The number of requests answered with a stale bundle.
+	 */
+	long getStaleResponses();
+
+	/**
+	 * Returns the number of compressed contents found in the cache.
+	 *
+	 * @return The number of compressed contents found in the cache.
+	 */
+	long getCacheHits();
+
+	/**
+	 * Returns the number of compressed contents looked up in the cache without being found.
+	 *
+	 * @return The number of compressed contents looked up in the cache without being found.
+	 */
+	long getCacheMisses();
+
+	/**
+	 * Returns the cache hit rate.
+	 *
+	 * @return The cache hit rate, between 0 and 1, 0 if the cache has not been used yet.
+	 */
+	double getCacheHitRate();
+
+	/**
+	 * Returns the number of compressed contents in the cache.
+	 *
+	 * @return The number of compressed contents in the cache.
+	 */
+	int getCacheEntries();
+
+	/**
+	 * Returns the size of the compressed contents in the cache.
+	 *
+	 * @return The size of the compressed contents in the cache, in bytes.
+	 */
+	long getCacheSize();
+
+	/**
+	 * Returns the inclusive upper bounds of the latency histograms buckets.
+	 *
+	 * @return The inclusive upper bounds of the latency histograms buckets, in milliseconds, the last bucket counting the latencies above the last
+	 *         bound.
+	 */
+	long[] getLatencyBoundsMillis();
+
+	/**
+	 * Returns the histogram of the requests latencies.
+	 *
+	 * @return The number of requests, by latency bucket.
+	 */
+	long[] getRequestLatencies();
+
+	/**
+	 * Returns the histogram of the bundles compression latencies, in the foreground or in the background.
+	 *
+	 * @return The number of bundle compressions, by latency bucket.
+	 */
+	long[] getCompressionLatencies();
+
+}
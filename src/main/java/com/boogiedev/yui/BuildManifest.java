@@ -0,0 +1,298 @@
+/*
+ * Copyright (c) boogiedev.com, all rights reserved.
+ * This code is licensed under the LGPL 3.0 license,
+ * available at the root application directory.
+ */
+
+package com.boogiedev.yui;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Build manifest of a merged output file, stored next to it:
+ * <ul>
+ * <li>Records the compression options the output file has been built with.</li>
+ * <li>Records, for each input file, its path, size and content hash, and the offset and length of its compressed content in the output file.</li>
+ * </ul>
+ * It allows rebuilding the output file by compressing only the changed input files, and by copying the unchanged segments from the previous output
+ * file.
+ */
+public class BuildManifest {
+
+	/**
+	 * Build manifest entry of one input file.
+	 */
+	public static class Entry {
+
+		/** The absolute path of the input file. */
+		private final String path;
+
+		/** The size of the input file. */
+		private final long size;
+
+		/** The hash of the input file content. */
+		private final String hash;
+
+		/** The offset of the compressed content in the output file. */
+		private long offset;
+
+		/** The length of the compressed content in the output file. */
+		private long length;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param path
+		 *          The absolute path of the input file.
+		 * @param size
+		 *          The size of the input file.
+		 * @param hash
+		 *          The hash of the input file content.
+		 */
+		public Entry(String path, long size, String hash) {
+			this.path = path;
+			this.size = size;
+			this.hash = hash;
+		}
+
+		/**
+		 * Returns whether this entry and the given one denote the same input content.
+		 *
+		 * @param entry
+		 *          The other entry, may be null.
+		 * @return true if both entries have the same path, size and hash.
+		 */
+		public boolean isSameInput(Entry entry) {
+			return entry != null && path.equals(entry.path) && size == entry.size && hash.equals(entry.hash);
+		}
+
+		/**
+		 * Returns the absolute path of the input file.
+		 *
+		 * @return The absolute path of the input file.
+		 */
+		public String getPath() {
+			return path;
+		}
+
+		/**
+		 * Returns the size of the input file.
+		 *
+		 * @return The size of the input file.
+		 */
+		public long getSize() {
+			return size;
+		}
+
+		/**
+		 * Returns the hash of the input file content.
+		 *
+		 * @return The hash of the input file content.
+		 */
+		public String getHash() {
+			return hash;
+		}
+
+		/**
+		 * Returns the offset of the compressed content in the output file.
+		 *
+		 * @return The offset of the compressed content in the output file.
+		 */
+		public long getOffset() {
+			return offset;
+		}
+
+		/**
+		 * Returns the length of the compressed content in the output file.
+		 *
+		 * @return The length of the compressed content in the output file.
+		 */
+		public long getLength() {
+			return length;
+		}
+
+	}
+
+	/** Prefix of the options line. */
+	private static final String OPTIONS_PREFIX = "options=";
+
+	/** Separator of the entries fields. */
+	private static final String SEPARATOR = "\t";
+
+	/** The compression options. */
+	private final String options;
+
+	/** The entries, in the output file order. */
+	private final List<Entry> entries;
+
+	/** The entries, by input file path. */
+	private final Map<String, Entry> entriesByPath;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param options
+	 *          The compression options.
+	 */
+	public BuildManifest(String options) {
+		this.options = options;
+		entries = new ArrayList<>();
+		entriesByPath = new HashMap<>();
+	}
+
+	/**
+	 * Returns the build manifest file of an output file.
+	 *
+	 * @param outputFile
+	 *          The output file.
+	 * @return The build manifest file.
+	 */
+	public static File getFile(File outputFile) {
+		return new File(outputFile.getPath() + ".manifest");
+	}
+
+	/**
+	 * Reads a build manifest.
+	 *
+	 * @param file
+	 *          The build manifest file.
+	 * @return The build manifest, null if the file does not exist or is not a valid build manifest.
+	 * @throws IOException
+	 *           If an error occurred while reading the file.
+	 */
+	public static BuildManifest read(File file) throws IOException {
+		try (BufferedReader reader = Files.newBufferedReader(file.toPath(), Charsets.UTF_8)) {
+			String line = reader.readLine();
+			if (line == null || !line.startsWith(OPTIONS_PREFIX)) {
+				return null;
+			}
+			BuildManifest manifest = new BuildManifest(line.substring(OPTIONS_PREFIX.length()));
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split(SEPARATOR, -1);
+				if (fields.length != 5) {
+					return null;
+				}
+				Entry entry = new Entry(fields[0], Long.parseLong(fields[1]), fields[2]);
+				manifest.add(entry, Long.parseLong(fields[3]), Long.parseLong(fields[4]));
+			}
+			return manifest;
+		} catch (NoSuchFileException e) {
+			return null;
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Writes this build manifest to a temporary file first, then atomically moves it.
+	 *
+	 * @param file
+	 *          The build manifest file.
+	 * @throws IOException
+	 *           If an error occurred while writing the file.
+	 */
+	public void write(File file) throws IOException {
+		File tmpFile = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+		try {
+			try (Writer writer = Files.newBufferedWriter(tmpFile.toPath(), Charsets.UTF_8)) {
+				writer.write(OPTIONS_PREFIX + options + "\n");
+				for (Entry entry : entries) {
+					writer.write(entry.path + SEPARATOR + entry.size + SEPARATOR + entry.hash + SEPARATOR + entry.offset + SEPARATOR + entry.length + "\n");
+				}
+			}
+			try {
+				Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(tmpFile.toPath());
+		}
+	}
+
+	/**
+	 * Appends an entry, its compressed content being located right after the previous one in the output file.
+	 *
+	 * @param entry
+	 *          The entry.
+	 * @param length
+	 *          The length of the compressed content in the output file.
+	 */
+	public void add(Entry entry, long length) {
+		add(entry, getLength(), length);
+	}
+
+	/**
+	 * Appends an entry.
+	 *
+	 * @param entry
+	 *          The entry.
+	 * @param offset
+	 *          The offset of the compressed content in the output file.
+	 * @param length
+	 *          The length of the compressed content in the output file.
+	 */
+	private void add(Entry entry, long offset, long length) {
+		entry.offset = offset;
+		entry.length = length;
+		entries.add(entry);
+		entriesByPath.put(entry.path, entry);
+	}
+
+	/**
+	 * Returns the compression options.
+	 *
+	 * @return The compression options.
+	 */
+	public String getOptions() {
+		return options;
+	}
+
+	/**
+	 * Returns the entries, in the output file order.
+	 *
+	 * @return The entries, in the output file order.
+	 */
+	public List<Entry> getEntries() {
+		return Collections.unmodifiableList(entries);
+	}
+
+	/**
+	 * Returns the entry of an input file.
+	 *
+	 * @param path
+	 *          The absolute path of the input file.
+	 * @return The entry, null if none.
+	 */
+	public Entry getEntry(String path) {
+		return entriesByPath.get(path);
+	}
+
+	/**
+	 * Returns the expected length of the output file.
+	 *
+	 * @return The expected length of the output file.
+	 */
+	public long getLength() {
+		if (entries.isEmpty()) {
+			return 0;
+		}
+		Entry last = entries.get(entries.size() - 1);
+		return last.offset + last.length;
+	}
+
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) boogiedev.com, all rights reserved.
+ * This code is licensed under the LGPL 3.0 license,
+ * available at the root application directory.
+ */
+
+package com.boogiedev.yui;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+
+/**
+ * Bundle of JS or CSS files: the input files of an input directory (except the excluded ones) are compressed, then merged into the output file if
+ * any.
+ * <p>
+ * Bundles can be defined in a properties file (see {@link #read(File)}), each bundle being defined by the properties prefixed by its name:
+ *
+ * <pre>
+ * app.type = js
+ * app.inputDir = src/js
+ * app.includes = *.js; lib/**&#47;*.js
+ * app.excludes = vendor; *.test.js
+ * app.outputFile = dist/app.js
+ * </pre>
+ *
+ * "type" and "inputDir" are mandatory, "includes", "excludes" (see {@link DirectoryScanner}) and "outputFile" are optional. Relative paths are
+ * resolved against the directory of the properties file, and two bundles cannot have the same output file.
+ * </p>
+ */
+public class Bundle {
+
+	/**
+	 * Bundle types.
+	 */
+	public enum Type {
+
+		/** JS bundle. */
+		JS(".js"),
+
+		/** CSS bundle. */
+		CSS(".css");
+
+		/** The suffix of the input files. */
+		private final String suffix;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param suffix
+		 *          The suffix of the input files.
+		 */
+		private Type(String suffix) {
+			this.suffix = suffix;
+		}
+
+		/**
+		 * Returns the suffix of the input files.
+		 *
+		 * @return The suffix of the input files.
+		 */
+		public String getSuffix() {
+			return suffix;
+		}
+
+	}
+
+	/** The properties defining a bundle. */
+	private static final List<String> PROPERTIES = Arrays.asList("type", "inputDir", "includes", "excludes", "outputFile");
+
+	/** The bundle name. */
+	private final String name;
+
+	/** The bundle type. */
+	private final Type type;
+
+	/** The input directory, may be null. */
+	private final File inputDir;
+
+	/** The output file, may be null. */
+	private final File outputFile;
+
+	/** The scanner of the input directory, taking the includes and excludes into account. */
+	private final DirectoryScanner scanner;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param name
+	 *          The bundle name.
+	 * @param type
+	 *          The bundle type.
+	 * @param inputDir
+	 *          The input directory, may be null.
+	 * @param excludes
+	 *          The files names (or directories names), relative paths or globs that must be excluded, separated by ";", may be null.
+	 * @param outputFile
+	 *          The output file, null if the compressed files should not be merged.
+	 */
+	public Bundle(String name, Type type, File inputDir, String excludes, File outputFile) {
+		this(name, type, inputDir, null, excludes, outputFile);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param name
+	 *          The bundle name.
+	 * @param type
+	 *          The bundle type.
+	 * @param inputDir
+	 *          The input directory, may be null.
+	 * @param includes
+	 *          The files names, relative paths or globs that must be included, separated by ";", null to include all the files.
+	 * @param excludes
+	 *          The files names (or directories names), relative paths or globs that must be excluded, separated by ";", may be null.
+	 * @param outputFile
+	 *          The output file, null if the compressed files should not be merged.
+	 */
+	public Bundle(String name, Type type, File inputDir, String includes, String excludes, File outputFile) {
+		this.name = name;
+		this.type = type;
+		this.inputDir = inputDir;
+		this.outputFile = outputFile;
+		scanner = new DirectoryScanner(type.getSuffix(), split(includes), split(excludes));
+	}
+
+	/**
+	 * Splits a list of names, paths or globs.
+	 *
+	 * @param patterns
+	 *          The names, paths or globs, separated by ";", may be null.
+	 * @return The names, paths or globs.
+	 */
+	private static List<String> split(String patterns) {
+		return Strings.isNullOrEmpty(patterns) ? Collections.<String> emptyList() : Arrays.asList(patterns.trim().split("\\s*;\\s*", -1));
+	}
+
+	/**
+	 * Reads bundles from a properties file.
+	 *
+	 * @param file
+	 *          The properties file.
+	 * @return The bundles, sorted by name.
+	 * @throws IOException
+	 *           If an error occurred while reading the file.
+	 * @throws YuiCompressorException
+	 *           If a bundle is invalid, or if two bundles have the same output file.
+	 */
+	public static List<Bundle> read(File file) throws IOException, YuiCompressorException {
+		Properties properties = new Properties();
+		try (Reader reader = Files.newBufferedReader(file.toPath(), Charsets.UTF_8)) {
+			properties.load(reader);
+		}
+		Map<String, Map<String, String>> definitions = new TreeMap<>();
+		for (String key : properties.stringPropertyNames()) {
+			int dot = key.lastIndexOf('.');
+			if (dot <= 0 || !PROPERTIES.contains(key.substring(dot + 1))) {
+				throw new YuiCompressorException("Invalid bundle property " + key + " in " + file);
+			}
+			String name = key.substring(0, dot);
+			if (!definitions.containsKey(name)) {
+				definitions.put(name, new TreeMap<String, String>());
+			}
+			definitions.get(name).put(key.substring(dot + 1), properties.getProperty(key).trim());
+		}
+		File baseDir = file.getAbsoluteFile().getParentFile();
+		List<Bundle> bundles = new ArrayList<>();
+		Map<File, String> outputFiles = new HashMap<>();
+		for (Map.Entry<String, Map<String, String>> definition : definitions.entrySet()) {
+			String name = definition.getKey();
+			Map<String, String> values = definition.getValue();
+			String type = values.get("type");
+			String inputDir = values.get("inputDir");
+			if (Strings.isNullOrEmpty(type) || Strings.isNullOrEmpty(inputDir)) {
+				throw new YuiCompressorException("Bundle " + name + " must have a type and an input directory in " + file);
+			}
+			Type bundleType;
+			try {
+				bundleType = Type.valueOf(type.toUpperCase(Locale.ENGLISH));
+			} catch (IllegalArgumentException e) {
+				throw new YuiCompressorException("Invalid type " + type + " of bundle " + name + " in " + file, e);
+			}
+			String outputPath = values.get("outputFile");
+			File outputFile = Strings.isNullOrEmpty(outputPath) ? null : resolve(baseDir, outputPath);
+			if (outputFile != null) {
+				String otherName = outputFiles.put(outputFile.toPath().normalize().toFile(), name);
+				if (otherName != null) {
+					throw new YuiCompressorException("Bundles " + otherName + " and " + name + " have the same output file " + outputFile + " in " + file);
+				}
+			}
+			bundles.add(new Bundle(name, bundleType, resolve(baseDir, inputDir), values.get("includes"), values.get("excludes"), outputFile));
+		}
+		return bundles;
+	}
+
+	/**
+	 * Resolves a path against a base directory.
+	 *
+	 * @param baseDir
+	 *          The base directory.
+	 * @param path
+	 *          The path, absolute or relative.
+	 * @return The resolved file.
+	 */
+	private static File resolve(File baseDir, String path) {
+		File file = new File(path);
+		return file.isAbsolute() ? file : new File(baseDir, path);
+	}
+
+	/**
+	 * Returns the bundle name.
+	 *
+	 * @return The bundle name.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the bundle type.
+	 *
+	 * @return The bundle type.
+	 */
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * Returns the input directory.
+	 *
+	 * @return The input directory, may be null.
+	 */
+	public File getInputDir() {
+		return inputDir;
+	}
+
+	/**
+	 * Returns the output file.
+	 *
+	 * @return The output file, null if the compressed files should not be merged.
+	 */
+	public File getOutputFile() {
+		return outputFile;
+	}
+
+	/**
+	 * Returns the scanner of the input directory.
+	 *
+	 * @return The scanner of the input directory, taking the includes and excludes into account.
+	 */
+	DirectoryScanner getScanner() {
+		return scanner;
+	}
+
+}
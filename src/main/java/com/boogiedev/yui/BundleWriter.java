@@ -0,0 +1,415 @@
+/*
+ * Copyright (c) boogiedev.com, all rights reserved.
+ * This code is licensed under the LGPL 3.0 license,
+ * available at the root application directory.
+ */
+
+package com.boogiedev.yui;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes a merged output file through a single {@link FileChannel}:
+ * <ul>
+ * <li>Contents held in memory are written as they are, without any intermediate buffer.</li>
+ * <li>Parts of other files are transferred with {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}, so that the
+ * kernel can move the bytes without copying them into the JVM heap.</li>
+ * <li>Precompressed variants (".gz" and ".deflate" files, at the maximum compression level) can be encoded on the fly, while the output file is
+ * being written. Parts of other files then need to go through the JVM heap.</li>
+ * <li>Everything is written to temporary files first, which replace the actual files once committed.</li>
+ * </ul>
+ */
+public class BundleWriter implements Closeable {
+
+	/**
+	 * Precompressed variant of the output file.
+	 */
+	private static class Variant {
+
+		/** The variant file. */
+		private final File file;
+
+		/** The temporary variant file. */
+		private final File tmpFile;
+
+		/** The encoding stream. */
+		private final DeflaterOutputStream stream;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param file
+		 *          The variant file.
+		 * @param gzip
+		 *          true for the gzip format, false for the zlib format (i.e. the HTTP "deflate" content coding).
+		 * @throws IOException
+		 *           If an error occurred while opening the temporary variant file, which is deleted then.
+		 */
+		public Variant(File file, boolean gzip) throws IOException {
+			this.file = file;
+			tmpFile = createTempFile(file);
+			BufferedOutputStream outputStream = null;
+			try {
+				outputStream = new BufferedOutputStream(new FileOutputStream(tmpFile), BUFFER_SIZE);
+				if (gzip) {
+					stream = new GZIPOutputStream(outputStream, BUFFER_SIZE) {
+
+						{
+							def.setLevel(Deflater.BEST_COMPRESSION);
+						}
+
+					};
+				} else {
+					stream = new DeflaterOutputStream(outputStream, new Deflater(Deflater.BEST_COMPRESSION), BUFFER_SIZE) {
+
+						@Override
+						public void close() throws IOException {
+							try {
+								super.close();
+							} finally {
+								def.end();
+							}
+						}
+
+					};
+				}
+			} catch (IOException | RuntimeException e) {
+				// not known to the writer yet, which would not delete it
+				try {
+					if (outputStream != null) {
+						outputStream.close();
+					}
+					Files.deleteIfExists(tmpFile.toPath());
+				} catch (IOException cleanupError) {
+					e.addSuppressed(cleanupError);
+				}
+				throw e;
+			}
+		}
+
+	}
+
+	/** Size of the buffers. */
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/** The output file. */
+	private final File file;
+
+	/** The temporary output file. */
+	private final File tmpFile;
+
+	/** The temporary output file channel. */
+	private final FileChannel channel;
+
+	/** The gzip variant, may be null. */
+	private final Variant gzipVariant;
+
+	/** The deflate variant, may be null. */
+	private final Variant deflateVariant;
+
+	/** The precompressed variants. */
+	private final List<Variant> variants;
+
+	/** Whether the temporary files replaced the actual files. */
+	private boolean committed;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param file
+	 *          The output file.
+	 * @param gzip
+	 *          Whether the ".gz" variant should be written.
+	 * @param deflate
+	 *          Whether the ".deflate" variant should be written.
+	 * @throws IOException
+	 *           If an error occurred while opening the temporary files.
+	 */
+	public BundleWriter(File file, boolean gzip, boolean deflate) throws IOException {
+		this.file = file;
+		tmpFile = createTempFile(file);
+		variants = new ArrayList<>();
+		try {
+			channel = FileChannel.open(tmpFile.toPath(), StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+			gzipVariant = gzip ? new Variant(getGzipFile(file), true) : null;
+			if (gzipVariant != null) {
+				variants.add(gzipVariant);
+			}
+			deflateVariant = deflate ? new Variant(getDeflateFile(file), false) : null;
+			if (deflateVariant != null) {
+				variants.add(deflateVariant);
+			}
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the ".gz" variant of an output file.
+	 *
+	 * @param file
+	 *          The output file.
+	 * @return The ".gz" variant.
+	 */
+	public static File getGzipFile(File file) {
+		return new File(file.getPath() + ".gz");
+	}
+
+	/**
+	 * Returns the ".deflate" variant of an output file.
+	 *
+	 * @param file
+	 *          The output file.
+	 * @return The ".deflate" variant.
+	 */
+	public static File getDeflateFile(File file) {
+		return new File(file.getPath() + ".deflate");
+	}
+
+	/**
+	 * Appends a content.
+	 *
+	 * @param content
+	 *          The content.
+	 * @throws IOException
+	 *           If an error occurred while writing.
+	 */
+	public void write(byte[] content) throws IOException {
+		write(content, 0, content.length);
+	}
+
+	/**
+	 * Appends a part of another file.
+	 *
+	 * @param source
+	 *          The channel of the other file, may be null if the length is 0.
+	 * @param offset
+	 *          The offset of the part to append.
+	 * @param length
+	 *          The length of the part to append.
+	 * @throws IOException
+	 *           If an error occurred while transferring.
+	 */
+	public void transfer(FileChannel source, long offset, long length) throws IOException {
+		long transferred = 0;
+		ByteBuffer buffer = variants.isEmpty() || length == 0 ? null : ByteBuffer.allocate((int) Math.min(BUFFER_SIZE, length));
+		while (transferred < length) {
+			long count;
+			if (buffer == null) {
+				count = source.transferTo(offset + transferred, length - transferred, channel);
+			} else {
+				buffer.clear();
+				buffer.limit((int) Math.min(buffer.capacity(), length - transferred));
+				count = source.read(buffer, offset + transferred);
+				if (count > 0) {
+					write(buffer.array(), 0, (int) count);
+				}
+			}
+			if (count <= 0) {
+				throw new EOFException("Unexpected end of file at offset " + (offset + transferred));
+			}
+			transferred += count;
+		}
+	}
+
+	/**
+	 * Finishes writing, then replaces the actual files by the temporary ones. The variants that are not written are deleted, as they would be stale.
+	 *
+	 * @throws IOException
+	 *           If an error occurred while finishing or moving the files.
+	 */
+	public void commit() throws IOException {
+		channel.close();
+		for (Variant variant : variants) {
+			variant.stream.close();
+		}
+		move(tmpFile, file);
+		for (Variant variant : variants) {
+			move(variant.tmpFile, variant.file);
+		}
+		if (gzipVariant == null) {
+			Files.deleteIfExists(getGzipFile(file).toPath());
+		}
+		if (deflateVariant == null) {
+			Files.deleteIfExists(getDeflateFile(file).toPath());
+		}
+		committed = true;
+	}
+
+	/**
+	 * Returns a description of the written files sizes, e.g. "1234 bytes, gzip: 567 bytes".
+	 *
+	 * @return A description of the written files sizes.
+	 */
+	public String describeSizes() {
+		StringBuilder sizes = new StringBuilder();
+		sizes.append(file.length()).append(" bytes");
+		if (gzipVariant != null) {
+			sizes.append(", gzip: ").append(gzipVariant.file.length()).append(" bytes");
+		}
+		if (deflateVariant != null) {
+			sizes.append(", deflate: ").append(deflateVariant.file.length()).append(" bytes");
+		}
+		return sizes.toString();
+	}
+
+	/**
+	 * Closes the files, deleting the temporary ones if not committed.
+	 *
+	 * @throws IOException
+	 *           If an error occurred while closing or deleting.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			closeStreams();
+		} finally {
+			// even if closing failed, e.g. when flushing the trailer of a variant on a full disk
+			if (!committed) {
+				deleteTempFiles();
+			}
+		}
+	}
+
+	/**
+	 * Closes the temporary output file channel and the variants streams, all of them even if some fail to close.
+	 *
+	 * @throws IOException
+	 *           If an error occurred while closing, the next ones being suppressed.
+	 */
+	private void closeStreams() throws IOException {
+		IOException failure = null;
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				failure = e;
+			}
+		}
+		for (Variant variant : variants) {
+			try {
+				variant.stream.close();
+			} catch (IOException e) {
+				failure = addFailure(failure, e);
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Deletes the temporary files, all of them even if some fail to be deleted.
+	 *
+	 * @throws IOException
+	 *           If an error occurred while deleting, the next ones being suppressed.
+	 */
+	private void deleteTempFiles() throws IOException {
+		IOException failure = null;
+		List<File> tmpFiles = new ArrayList<>();
+		tmpFiles.add(tmpFile);
+		for (Variant variant : variants) {
+			tmpFiles.add(variant.tmpFile);
+		}
+		for (File file : tmpFiles) {
+			try {
+				Files.deleteIfExists(file.toPath());
+			} catch (IOException e) {
+				failure = addFailure(failure, e);
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Records a failure, suppressed by the first one if any.
+	 *
+	 * @param failure
+	 *          The first failure, may be null.
+	 * @param e
+	 *          The new failure.
+	 * @return The first failure, or the new one if none.
+	 */
+	private static IOException addFailure(IOException failure, IOException e) {
+		if (failure == null) {
+			return e;
+		}
+		failure.addSuppressed(e);
+		return failure;
+	}
+
+	/**
+	 * Appends a part of a content.
+	 *
+	 * @param content
+	 *          The content.
+	 * @param offset
+	 *          The offset of the part to append.
+	 * @param length
+	 *          The length of the part to append.
+	 * @throws IOException
+	 *           If an error occurred while writing.
+	 */
+	private void write(byte[] content, int offset, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(content, offset, length);
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		for (Variant variant : variants) {
+			variant.stream.write(content, offset, length);
+		}
+	}
+
+	/**
+	 * Creates a temporary file next to a file, creating its parent directories if needed.
+	 *
+	 * @param file
+	 *          The file.
+	 * @return The temporary file.
+	 * @throws IOException
+	 *           If an error occurred while creating the temporary file.
+	 */
+	private static File createTempFile(File file) throws IOException {
+		File dir = file.getAbsoluteFile().getParentFile();
+		Files.createDirectories(dir.toPath());
+		return File.createTempFile(file.getName(), ".tmp", dir);
+	}
+
+	/**
+	 * Atomically moves a file, if supported by the file system.
+	 *
+	 * @param from
+	 *          The file to move.
+	 * @param to
+	 *          The destination file, replaced if it exists.
+	 * @throws IOException
+	 *           If an error occurred while moving.
+	 */
+	private static void move(File from, File to) throws IOException {
+		try {
+			Files.move(from.toPath(), to.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) boogiedev.com, all rights reserved.
+ * This code is licensed under the LGPL 3.0 license,
+ * available at the root application directory.
+ */
+
+package com.boogiedev.yui;
+
+/**
+ * Thread-safe budget of in-flight bytes, blocking the acquisitions that would exceed it. An acquisition larger than the whole budget is granted
+ * when nothing else is in flight, so that any file can go through.
+ */
+class ByteBudget {
+
+	/** The maximum number of in-flight bytes. */
+	private final long maxBytes;
+
+	/** The number of in-flight bytes. */
+	private long bytes;
+
+	/** The highest number of in-flight bytes. */
+	private long peakBytes;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param maxBytes
+	 *          The maximum number of in-flight bytes.
+	 */
+	public ByteBudget(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Acquires bytes, waiting until they fit in the budget.
+	 *
+	 * @param count
+	 *          The number of bytes to acquire.
+	 * @throws InterruptedException
+	 *           If interrupted while waiting.
+	 */
+	public synchronized void acquire(long count) throws InterruptedException {
+		while (bytes > 0 && bytes + count > maxBytes) {
+			wait();
+		}
+		bytes += count;
+		peakBytes = Math.max(peakBytes, bytes);
+	}
+
+	/**
+	 * Releases bytes.
+	 *
+	 * @param count
+	 *          The number of bytes to release, previously acquired.
+	 */
+	public synchronized void release(long count) {
+		bytes -= count;
+		notifyAll();
+	}
+
+	/**
+	 * Returns the highest number of in-flight bytes.
+	 *
+	 * @return The highest number of in-flight bytes since the creation of the budget.
+	 */
+	public synchronized long getPeakBytes() {
+		return peakBytes;
+	}
+
+}
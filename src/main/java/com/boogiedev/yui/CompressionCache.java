@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) boogiedev.com, all rights reserved.
+ * This code is licensed under the LGPL 3.0 license,
+ * available at the root application directory.
+ */
+
+package com.boogiedev.yui;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+
+/**
+ * On-disk cache of compressed contents:
+ * <ul>
+ * <li>Entries are keyed by a hash of the input content and of the compression options.</li>
+ * <li>Entries are written to a temporary file first, then atomically moved, so that concurrent builds never read a partially written entry.</li>
+ * <li>Reading an entry refreshes its last modified date, which is used to evict the least recently used entries when the cache grows beyond its
+ * maximum size.</li>
+ * </ul>
+ */
+public class CompressionCache {
+
+	/** Default maximum size of the cache, in bytes. */
+	public static final long DEFAULT_MAX_SIZE = 100L * 1024 * 1024;
+
+	/** Suffix of the temporary files. */
+	private static final String TMP_SUFFIX = ".tmp";
+
+	/** Age after which an orphan temporary file (left by a crashed build) is deleted, in milliseconds. */
+	private static final long TMP_MAX_AGE = 60L * 60 * 1000;
+
+	/** The cache directory. */
+	private final File dir;
+
+	/** The maximum size of the cache, in bytes. */
+	private final long maxSize;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param dir
+	 *          The cache directory, created if needed.
+	 * @param maxSize
+	 *          The maximum size of the cache, in bytes.
+	 */
+	public CompressionCache(File dir, long maxSize) {
+		this.dir = dir;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Computes the key of an entry.
+	 *
+	 * @param contentHash
+	 *          The hash of the input content.
+	 * @param options
+	 *          The compression options.
+	 * @return The key.
+	 */
+	public String key(String contentHash, String options) {
+		return Hashing.sha1().newHasher().putString(contentHash, Charsets.UTF_8).putString(options, Charsets.UTF_8).hash().toString();
+	}
+
+	/**
+	 * Returns the compressed content stored under a key.
+	 *
+	 * @param key
+	 *          The key.
+	 * @return The compressed content, null if not cached.
+	 * @throws IOException
+	 *           If an error occurred while reading the entry.
+	 */
+	public byte[] get(String key) throws IOException {
+		File file = getFile(key);
+		try {
+			byte[] content = Files.readAllBytes(file.toPath());
+			file.setLastModified(System.currentTimeMillis());
+			return content;
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Stores compressed content under a key.
+	 *
+	 * @param key
+	 *          The key.
+	 * @param content
+	 *          The compressed content.
+	 * @throws IOException
+	 *           If an error occurred while writing the entry.
+	 */
+	public void put(String key, byte[] content) throws IOException {
+		File file = getFile(key);
+		File parent = file.getParentFile();
+		if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+			throw new IOException("Unable to create dir " + parent);
+		}
+		File tmpFile = File.createTempFile(key, TMP_SUFFIX, parent);
+		try {
+			Files.write(tmpFile.toPath(), content);
+			try {
+				Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(tmpFile.toPath());
+		}
+	}
+
+	/**
+	 * Evicts the least recently used entries until the cache size is lower than its maximum size, and deletes the orphan temporary files.
+	 */
+	public void trim() {
+		List<File> entries = new ArrayList<>();
+		long size = 0;
+		File[] shards = dir.listFiles();
+		if (shards == null) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		for (File shard : shards) {
+			File[] files = shard.listFiles();
+			if (files == null) {
+				continue;
+			}
+			for (File file : files) {
+				if (file.getName().endsWith(TMP_SUFFIX)) {
+					if (now - file.lastModified() > TMP_MAX_AGE) {
+						file.delete();
+					}
+				} else {
+					entries.add(file);
+					size += file.length();
+				}
+			}
+		}
+		if (size > maxSize) {
+			// snapshot the dates, as other builds may refresh entries while sorting
+			final long[] lastModifieds = new long[entries.size()];
+			for (int i = 0; i < lastModifieds.length; i++) {
+				lastModifieds[i] = entries.get(i).lastModified();
+			}
+			List<Integer> indexes = new ArrayList<>();
+			for (int i = 0; i < lastModifieds.length; i++) {
+				indexes.add(i);
+			}
+			Collections.sort(indexes, new Comparator<Integer>() {
+
+				@Override
+				public int compare(Integer o1, Integer o2) {
+					return Long.compare(lastModifieds[o1], lastModifieds[o2]);
+				}
+
+			});
+			for (int i = 0, n = indexes.size(); i < n && size > maxSize; i++) {
+				File entry = entries.get(indexes.get(i));
+				long length = entry.length();
+				// another build may have evicted it already
+				if (entry.delete()) {
+					size -= length;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the file of an entry, entries being spread among sub-directories named after the first two characters of their keys.
+	 *
+	 * @param key
+	 *          The key.
+	 * @return The file of the entry.
+	 */
+	private File getFile(String key) {
+		return new File(new File(dir, key.substring(0, 2)), key);
+	}
+
+}
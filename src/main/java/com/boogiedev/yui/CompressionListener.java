@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) boogiedev.com, all rights reserved.
+ * This code is licensed under the LGPL 3.0 license,
+ * available at the root application directory.
+ */
+
+package com.boogiedev.yui;
+
+import java.io.File;
+
+/**
+ * Listener of the YUI compressor runs. It is notified from the thread calling the compressor, whatever the number of compression threads.
+ */
+public interface CompressionListener {
+
+	/**
+	 * Called once per successfully processed input file, in the output order.
+	 *
+	 * @param metrics
+	 *          The metrics of the input file.
+	 */
+	void fileProcessed(FileMetrics metrics);
+
+	/**
+	 * Called once per successfully processed set of input files, after all of them.
+	 *
+	 * @param outputFile
+	 *          The output file, null if the compressed files are not merged.
+	 * @param rebuilt
+	 *          false if the output file was up to date, true otherwise.
+	 * @param nanos
+	 *          The time spent on this output file only, from the start of its merge (waiting for the compressed contents of its input files included)
+	 *          to its replacement, in nanoseconds.
+	 */
+	void outputProcessed(File outputFile, boolean rebuilt, long nanos);
+
+}
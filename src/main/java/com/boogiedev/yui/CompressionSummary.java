@@ -0,0 +1,316 @@
+/*
+ * Copyright (c) boogiedev.com, all rights reserved.
+ * This code is licensed under the LGPL 3.0 license,
+ * available at the root application directory.
+ */
+
+package com.boogiedev.yui;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Compression listener summarizing the runs it has been notified of:
+ * <ul>
+ * <li>Totals: number of input files (by status), bytes in and out, and time spent in each phase.</li>
+ * <li>Time spent on each output file.</li>
+ * <li>The slowest input files.</li>
+ * </ul>
+ * The summary can be formatted as text (see {@link #toString()}) or as JSON (see {@link #toJson()}), times being in nanoseconds in the latter.
+ */
+public class CompressionSummary implements CompressionListener {
+
+	/** Default number of slowest input files reported. */
+	public static final int DEFAULT_SLOWEST_FILES = 10;
+
+	/**
+	 * Output file metrics.
+	 */
+	private static class OutputMetrics {
+
+		/** The output file, null if the compressed files are not merged. */
+		private final File outputFile;
+
+		/** false if the output file was up to date, true otherwise. */
+		private final boolean rebuilt;
+
+		/** The time spent, in nanoseconds. */
+		private final long nanos;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param outputFile
+		 *          The output file, null if the compressed files are not merged.
+		 * @param rebuilt
+		 *          false if the output file was up to date, true otherwise.
+		 * @param nanos
+		 *          The time spent, in nanoseconds.
+		 */
+		public OutputMetrics(File outputFile, boolean rebuilt, long nanos) {
+			this.outputFile = outputFile;
+			this.rebuilt = rebuilt;
+			this.nanos = nanos;
+		}
+
+	}
+
+	/** The number of slowest input files reported. */
+	private final int slowestFiles;
+
+	/** The metrics of the processed input files. */
+	private final List<FileMetrics> files;
+
+	/** The metrics of the processed output files. */
+	private final List<OutputMetrics> outputs;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param slowestFiles
+	 *          The number of slowest input files reported.
+	 */
+	public CompressionSummary(int slowestFiles) {
+		this.slowestFiles = slowestFiles;
+		files = new ArrayList<>();
+		outputs = new ArrayList<>();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void fileProcessed(FileMetrics metrics) {
+		files.add(metrics);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void outputProcessed(File outputFile, boolean rebuilt, long nanos) {
+		outputs.add(new OutputMetrics(outputFile, rebuilt, nanos));
+	}
+
+	/**
+	 * Returns the number of processed input files having a status.
+	 *
+	 * @param status
+	 *          The status.
+	 * @return The number of processed input files having this status.
+	 */
+	public int getFileCount(FileMetrics.Status status) {
+		int count = 0;
+		for (FileMetrics metrics : files) {
+			count += metrics.getStatus() == status ? 1 : 0;
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the total size of the processed input files.
+	 *
+	 * @return The total size of the processed input files, in bytes.
+	 */
+	public long getBytesIn() {
+		long bytesIn = 0;
+		for (FileMetrics metrics : files) {
+			bytesIn += metrics.getBytesIn();
+		}
+		return bytesIn;
+	}
+
+	/**
+	 * Returns the total size of the compressed contents.
+	 *
+	 * @return The total size of the compressed contents, in bytes.
+	 */
+	public long getBytesOut() {
+		long bytesOut = 0;
+		for (FileMetrics metrics : files) {
+			bytesOut += metrics.getBytesOut();
+		}
+		return bytesOut;
+	}
+
+	/**
+	 * Returns the total time spent in a phase.
+	 *
+	 * @param phase
+	 *          The phase.
+	 * @return The total time spent in the phase, in nanoseconds.
+	 */
+	public long getNanos(FileMetrics.Phase phase) {
+		long nanos = 0;
+		for (FileMetrics metrics : files) {
+			nanos += metrics.getNanos(phase);
+		}
+		return nanos;
+	}
+
+	/**
+	 * Returns the slowest input files, the slowest first.
+	 *
+	 * @return The metrics of the slowest input files.
+	 */
+	public List<FileMetrics> getSlowestFiles() {
+		List<FileMetrics> slowest = new ArrayList<>(files);
+		Collections.sort(slowest, new Comparator<FileMetrics>() {
+
+			@Override
+			public int compare(FileMetrics o1, FileMetrics o2) {
+				return Long.compare(o2.getTotalNanos(), o1.getTotalNanos());
+			}
+
+		});
+		return slowest.subList(0, Math.min(slowestFiles, slowest.size()));
+	}
+
+	/**
+	 * Writes the summary as JSON.
+	 *
+	 * @param file
+	 *          The JSON file, created or replaced.
+	 * @throws IOException
+	 *           If an error occurred while writing.
+	 */
+	public void writeJson(File file) throws IOException {
+		try (Writer writer = Files.newBufferedWriter(file.toPath(), Charsets.UTF_8)) {
+			writer.write(toJson());
+		}
+	}
+
+	/**
+	 * Formats the summary as JSON, times being in nanoseconds.
+	 *
+	 * @return The summary, as JSON.
+	 */
+	public String toJson() {
+		StringBuilder json = new StringBuilder("{\n");
+		json.append("  \"files\": {");
+		for (FileMetrics.Status status : FileMetrics.Status.values()) {
+			json.append(status.ordinal() == 0 ? " " : ", ").append(quote(status.name().toLowerCase(Locale.ENGLISH))).append(": ")
+					.append(getFileCount(status));
+		}
+		json.append(" },\n");
+		json.append("  \"bytesIn\": ").append(getBytesIn()).append(",\n");
+		json.append("  \"bytesOut\": ").append(getBytesOut()).append(",\n");
+		json.append("  \"nanos\": ");
+		appendPhases(json, null);
+		json.append(",\n");
+		json.append("  \"outputs\": [");
+		for (int i = 0, n = outputs.size(); i < n; i++) {
+			OutputMetrics output = outputs.get(i);
+			json.append(i == 0 ? "\n" : ",\n");
+			json.append("    { \"file\": ").append(output.outputFile == null ? "null" : quote(output.outputFile.getPath()));
+			json.append(", \"rebuilt\": ").append(output.rebuilt);
+			json.append(", \"nanos\": ").append(output.nanos).append(" }");
+		}
+		json.append(outputs.isEmpty() ? "],\n" : "\n  ],\n");
+		json.append("  \"slowestFiles\": [");
+		List<FileMetrics> slowest = getSlowestFiles();
+		for (int i = 0, n = slowest.size(); i < n; i++) {
+			FileMetrics metrics = slowest.get(i);
+			json.append(i == 0 ? "\n" : ",\n");
+			json.append("    { \"file\": ").append(quote(metrics.getInputFile().getPath()));
+			json.append(", \"status\": ").append(quote(metrics.getStatus().name().toLowerCase(Locale.ENGLISH)));
+			json.append(", \"bytesIn\": ").append(metrics.getBytesIn());
+			json.append(", \"bytesOut\": ").append(metrics.getBytesOut());
+			json.append(", \"nanos\": ");
+			appendPhases(json, metrics);
+			json.append(" }");
+		}
+		json.append(slowest.isEmpty() ? "]\n" : "\n  ]\n");
+		return json.append("}\n").toString();
+	}
+
+	/**
+	 * Formats the summary as text, times being in milliseconds.
+	 *
+	 * @return The summary, as text.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder text = new StringBuilder();
+		text.append("Files: ").append(files.size());
+		text.append(" (").append(getFileCount(FileMetrics.Status.COMPRESSED)).append(" compressed, ");
+		text.append(getFileCount(FileMetrics.Status.CACHED)).append(" cached, ");
+		text.append(getFileCount(FileMetrics.Status.UNCHANGED)).append(" unchanged), ");
+		text.append(getBytesIn()).append(" bytes in, ").append(getBytesOut()).append(" bytes out");
+		text.append("\nTime:");
+		for (FileMetrics.Phase phase : FileMetrics.Phase.values()) {
+			text.append(phase.ordinal() == 0 ? " " : ", ").append(phase.name().toLowerCase(Locale.ENGLISH)).append(" ").append(millis(getNanos(phase)));
+		}
+		for (OutputMetrics output : outputs) {
+			text.append("\nOutput: ").append(output.outputFile == null ? "*.min files" : output.outputFile.getPath());
+			text.append(output.rebuilt ? " rebuilt in " : " up to date in ").append(millis(output.nanos));
+		}
+		for (FileMetrics metrics : getSlowestFiles()) {
+			text.append("\nSlowest: ").append(metrics.getInputFile().getPath()).append(" ").append(millis(metrics.getTotalNanos()));
+			text.append(" (").append(metrics.getStatus().name().toLowerCase(Locale.ENGLISH)).append(", ");
+			text.append(metrics.getBytesIn()).append(" -> ").append(metrics.getBytesOut()).append(" bytes)");
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Appends the times spent in each phase as a JSON object.
+	 *
+	 * @param json
+	 *          The JSON being built.
+	 * @param metrics
+	 *          The metrics of an input file, null for the totals.
+	 */
+	private void appendPhases(StringBuilder json, FileMetrics metrics) {
+		json.append("{");
+		for (FileMetrics.Phase phase : FileMetrics.Phase.values()) {
+			json.append(phase.ordinal() == 0 ? " " : ", ").append(quote(phase.name().toLowerCase(Locale.ENGLISH))).append(": ");
+			json.append(metrics == null ? getNanos(phase) : metrics.getNanos(phase));
+		}
+		json.append(" }");
+	}
+
+	/**
+	 * Quotes a JSON string.
+	 *
+	 * @param value
+	 *          The string to quote.
+	 * @return The quoted string.
+	 */
+	private static String quote(String value) {
+		StringBuilder quoted = new StringBuilder("\"");
+		for (int i = 0, n = value.length(); i < n; i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				quoted.append('\\').append(c);
+			} else if (c < ' ') {
+				quoted.append(String.format("\\u%04x", (int) c));
+			} else {
+				quoted.append(c);
+			}
+		}
+		return quoted.append('"').toString();
+	}
+
+	/**
+	 * Formats a time in milliseconds.
+	 *
+	 * @param nanos
+	 *          The time, in nanoseconds.
+	 * @return The time, in milliseconds, e.g. "12 ms".
+	 */
+	private static String millis(long nanos) {
+		return TimeUnit.NANOSECONDS.toMillis(nanos) + " ms";
+	}
+
+}
@@ -0,0 +1,399 @@
+/*
+ * Copyright (c) boogiedev.com, all rights reserved.
+ * This code is licensed under the LGPL 3.0 license,
+ * available at the root application directory.
+ */
+
+package com.boogiedev.yui;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Scans input directories, using {@link Files#walkFileTree(Path, java.util.Set, int, java.nio.file.FileVisitor)} one directory level at a time,
+ * so that the sub-directories can be scanned in parallel. The excludes are compiled once:
+ * <ul>
+ * <li>Names (e.g. "vendor" or "debug.js") exclude any file or directory having this name, wherever it is located.</li>
+ * <li>Paths (e.g. "lib/legacy.js", i.e. containing a "/") exclude the file or directory located at this path, relative to the scanned
+ * directory.</li>
+ * <li>Globs (e.g. "*-exclude.js" or "lib/**&#47;*.test.js", i.e. containing any of "*?[{") exclude the files and directories whose names, or
+ * relative paths if the glob contains a "/", match them (see {@link FileSystem#getPathMatcher(String)}).</li>
+ * </ul>
+ * The includes, if any, are compiled the same way, but only apply to the files to compress: the directories are always scanned (unless
+ * excluded), and only the files matching at least one include are compressed (the "*.min{suffix}" files being listed anyway).
+ * The scanned files are listed in the same order whatever the number of threads: the files of a directory sorted by name, then the ones of its
+ * sub-directories, in name order. The symbolic links are followed, except the ones looping back to a directory being scanned.
+ */
+public class DirectoryScanner {
+
+	/**
+	 * Result of a scan.
+	 */
+	public static class Result {
+
+		/** The scanned files whose names match "*{suffix}", except the "*.min{suffix}" ones. */
+		private final List<File> files;
+
+		/** The scanned files whose names match "*.min{suffix}". */
+		private final List<File> minifiedFiles;
+
+		/** The scanned directories, including the root one. */
+		private final List<File> dirs;
+
+		/**
+		 * Constructor.
+		 */
+		private Result() {
+			files = new ArrayList<>();
+			minifiedFiles = new ArrayList<>();
+			dirs = new ArrayList<>();
+		}
+
+		/**
+		 * Appends the content of another result.
+		 *
+		 * @param result
+		 *          The other result.
+		 */
+		private void addAll(Result result) {
+			files.addAll(result.files);
+			minifiedFiles.addAll(result.minifiedFiles);
+			dirs.addAll(result.dirs);
+		}
+
+		/**
+		 * Returns the scanned files whose names match "*{suffix}", except the "*.min{suffix}" ones.
+		 *
+		 * @return The scanned files whose names match "*{suffix}", except the "*.min{suffix}" ones.
+		 */
+		public List<File> getFiles() {
+			return files;
+		}
+
+		/**
+		 * Returns the scanned files whose names match "*.min{suffix}".
+		 *
+		 * @return The scanned files whose names match "*.min{suffix}".
+		 */
+		public List<File> getMinifiedFiles() {
+			return minifiedFiles;
+		}
+
+		/**
+		 * Returns the scanned directories, including the root one.
+		 *
+		 * @return The scanned directories, including the root one.
+		 */
+		public List<File> getDirs() {
+			return dirs;
+		}
+
+	}
+
+	/**
+	 * Names, paths and globs, matched against the paths relative to the scanned directory.
+	 */
+	private static class PathPatterns {
+
+		/** The names. */
+		private final Set<String> names;
+
+		/** The relative paths. */
+		private final Set<Path> paths;
+
+		/** The globs matching names. */
+		private final List<PathMatcher> nameGlobs;
+
+		/** The globs matching relative paths. */
+		private final List<PathMatcher> pathGlobs;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param patterns
+		 *          The names, paths or globs, the empty ones being ignored.
+		 */
+		public PathPatterns(List<String> patterns) {
+			names = new HashSet<>();
+			paths = new HashSet<>();
+			nameGlobs = new ArrayList<>();
+			pathGlobs = new ArrayList<>();
+			FileSystem fileSystem = FileSystems.getDefault();
+			for (String pattern : patterns) {
+				if (pattern.isEmpty()) {
+					continue;
+				}
+				boolean path = pattern.contains("/");
+				if (pattern.matches(".*[*?\\[{].*")) {
+					(path ? pathGlobs : nameGlobs).add(fileSystem.getPathMatcher("glob:" + pattern));
+				} else if (path) {
+					paths.add(fileSystem.getPath(pattern).normalize());
+				} else {
+					names.add(pattern);
+				}
+			}
+		}
+
+		/**
+		 * Checks whether there is no pattern.
+		 *
+		 * @return true if there is no pattern.
+		 */
+		public boolean isEmpty() {
+			return names.isEmpty() && paths.isEmpty() && nameGlobs.isEmpty() && pathGlobs.isEmpty();
+		}
+
+		/**
+		 * Checks whether a file or directory matches one of the patterns.
+		 *
+		 * @param relativePath
+		 *          The path of the file or directory, relative to the scanned directory.
+		 * @return true if the file or directory matches one of the patterns.
+		 */
+		public boolean matches(Path relativePath) {
+			Path name = relativePath.getFileName();
+			if (names.contains(name.toString()) || paths.contains(relativePath)) {
+				return true;
+			}
+			for (PathMatcher glob : nameGlobs) {
+				if (glob.matches(name)) {
+					return true;
+				}
+			}
+			for (PathMatcher glob : pathGlobs) {
+				if (glob.matches(relativePath)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+	}
+
+	/**
+	 * Wraps an {@link IOException} thrown while scanning, so that it goes through {@link ForkJoinPool}.
+	 */
+	private static class ScanException extends RuntimeException {
+
+		/** UID. */
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param cause
+		 *          The cause.
+		 */
+		public ScanException(IOException cause) {
+			super(cause);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public synchronized IOException getCause() {
+			return (IOException) super.getCause();
+		}
+
+	}
+
+	/**
+	 * Scans one directory, then its sub-directories, forking one task per sub-directory if parallel.
+	 */
+	private class ScanTask extends RecursiveTask<Result> {
+
+		/** UID. */
+		private static final long serialVersionUID = 1L;
+
+		/** The root directory of the scan. */
+		private final Path root;
+
+		/** The directory to scan. */
+		private final Path dir;
+
+		/** The directory to skip, may be null. */
+		private final Path skippedDir;
+
+		/** The real paths of the directories the scanned one is located in, so that the symbolic links looping back to them are skipped. */
+		private final Set<Path> ancestors;
+
+		/** Whether the sub-directories should be scanned in parallel. */
+		private final boolean parallel;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param root
+		 *          The root directory of the scan.
+		 * @param dir
+		 *          The directory to scan.
+		 * @param skippedDir
+		 *          The directory to skip, may be null.
+		 * @param ancestors
+		 *          The real paths of the directories the scanned one is located in.
+		 * @param parallel
+		 *          Whether the sub-directories should be scanned in parallel.
+		 */
+		public ScanTask(Path root, Path dir, Path skippedDir, Set<Path> ancestors, boolean parallel) {
+			this.root = root;
+			this.dir = dir;
+			this.skippedDir = skippedDir;
+			this.ancestors = ancestors;
+			this.parallel = parallel;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		protected Result compute() {
+			final Result result = new Result();
+			final List<Path> files = new ArrayList<>();
+			final List<Path> subDirs = new ArrayList<>();
+			Set<Path> dirAncestors = new HashSet<>(ancestors);
+			try {
+				if (!dirAncestors.add(dir.toRealPath())) {
+					// symbolic link to a directory being scanned
+					return result;
+				}
+				result.dirs.add(dir.toFile());
+				// the symbolic links are followed, as by File#isDirectory()
+				Files.walkFileTree(dir, EnumSet.of(FileVisitOption.FOLLOW_LINKS), 1, new SimpleFileVisitor<Path>() {
+
+					@Override
+					public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+						if (excludes.matches(root.relativize(file))) {
+							return FileVisitResult.CONTINUE;
+						}
+						if (attrs.isDirectory()) {
+							if (!file.equals(skippedDir)) {
+								subDirs.add(file);
+							}
+						} else {
+							files.add(file);
+						}
+						return FileVisitResult.CONTINUE;
+					}
+
+				});
+			} catch (IOException e) {
+				throw new ScanException(e);
+			}
+			Collections.sort(files);
+			for (Path file : files) {
+				String name = file.getFileName().toString();
+				if (name.endsWith(minifiedSuffix)) {
+					result.minifiedFiles.add(file.toFile());
+				} else if (name.regionMatches(true, name.length() - suffix.length(), suffix, 0, suffix.length())
+						&& (includes.isEmpty() || includes.matches(root.relativize(file)))) {
+					result.files.add(file.toFile());
+				}
+			}
+			Collections.sort(subDirs);
+			List<ScanTask> tasks = new ArrayList<>();
+			for (Path subDir : subDirs) {
+				ScanTask task = new ScanTask(root, subDir, skippedDir, dirAncestors, parallel);
+				if (parallel) {
+					task.fork();
+				}
+				tasks.add(task);
+			}
+			for (ScanTask task : tasks) {
+				result.addAll(parallel ? task.join() : task.compute());
+			}
+			return result;
+		}
+
+	}
+
+	/** The suffix of the files to scan. */
+	private final String suffix;
+
+	/** The suffix of the minified files. */
+	private final String minifiedSuffix;
+
+	/** The included names, paths and globs, matched against the files only. */
+	private final PathPatterns includes;
+
+	/** The excluded names, paths and globs. */
+	private final PathPatterns excludes;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param suffix
+	 *          The suffix of the files to scan, matched case-insensitively.
+	 * @param excludes
+	 *          The excluded names, paths or globs.
+	 */
+	public DirectoryScanner(String suffix, List<String> excludes) {
+		this(suffix, Collections.<String> emptyList(), excludes);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param suffix
+	 *          The suffix of the files to scan, matched case-insensitively.
+	 * @param includes
+	 *          The included names, paths or globs, empty to include all the files.
+	 * @param excludes
+	 *          The excluded names, paths or globs.
+	 */
+	public DirectoryScanner(String suffix, List<String> includes, List<String> excludes) {
+		this.suffix = suffix;
+		minifiedSuffix = ".min" + suffix;
+		this.includes = new PathPatterns(includes);
+		this.excludes = new PathPatterns(excludes);
+	}
+
+	/**
+	 * Recursively scans a directory.
+	 *
+	 * @param dir
+	 *          The directory to scan.
+	 * @param skippedDir
+	 *          A directory to skip, may be null.
+	 * @param threads
+	 *          The number of threads used to scan the sub-directories, 1 to scan them in the calling thread.
+	 * @return The result of the scan.
+	 * @throws IOException
+	 *           If an error occurred while scanning.
+	 */
+	public Result scan(File dir, File skippedDir, int threads) throws IOException {
+		Path root = dir.getAbsoluteFile().toPath();
+		Path skippedPath = skippedDir == null ? null : skippedDir.getAbsoluteFile().toPath();
+		try {
+			if (threads <= 1) {
+				return new ScanTask(root, root, skippedPath, Collections.<Path> emptySet(), false).compute();
+			}
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			try {
+				return pool.invoke(new ScanTask(root, root, skippedPath, Collections.<Path> emptySet(), true));
+			} finally {
+				pool.shutdownNow();
+			}
+		} catch (ScanException e) {
+			throw e.getCause();
+		}
+	}
+
+}
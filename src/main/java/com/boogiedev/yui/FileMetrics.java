@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) boogiedev.com, all rights reserved.
+ * This code is licensed under the LGPL 3.0 license,
+ * available at the root application directory.
+ */
+
+package com.boogiedev.yui;
+
+import java.io.File;
+
+/**
+ * Metrics of the compression of one input file: its size before and after compression, and the time spent in each compression phase.
+ */
+public class FileMetrics {
+
+	/**
+	 * Compression phases.
+	 */
+	public enum Phase {
+
+		/** Reading the input file, hashing and decoding it, looking up and filling the cache, encoding and writing the compressed content. */
+		IO,
+
+		/** Parsing the input content, including the processing of the JS tokens (string literals, member accesses, object literal keys). */
+		PARSE,
+
+		/** Building the JS symbol tree. */
+		BUILD,
+
+		/** Munging the JS symbol tree. */
+		MUNGE,
+
+		/** Printing the compressed content (the CSS compression, being a single pass, is accounted as printing). */
+		PRINT;
+
+	}
+
+	/**
+	 * How the compressed content has been obtained.
+	 */
+	public enum Status {
+
+		/** The input file has been compressed. */
+		COMPRESSED,
+
+		/** The compressed content has been found in the cache. */
+		CACHED,
+
+		/** The input file did not change since the previous build, its previously compressed content has been reused. */
+		UNCHANGED;
+
+	}
+
+	/** The input file. */
+	private final File inputFile;
+
+	/** The time spent in each phase, in nanoseconds. */
+	private final long[] nanos;
+
+	/** How the compressed content has been obtained. */
+	private Status status;
+
+	/** The size of the input file, in bytes. */
+	private long bytesIn;
+
+	/** The size of the compressed content, in bytes. */
+	private long bytesOut;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param inputFile
+	 *          The input file.
+	 */
+	public FileMetrics(File inputFile) {
+		this.inputFile = inputFile;
+		nanos = new long[Phase.values().length];
+		status = Status.COMPRESSED;
+	}
+
+	/**
+	 * Adds time spent in a phase.
+	 *
+	 * @param phase
+	 *          The phase.
+	 * @param nanos
+	 *          The time spent, in nanoseconds.
+	 */
+	void add(Phase phase, long nanos) {
+		this.nanos[phase.ordinal()] += nanos;
+	}
+
+	/**
+	 * Sets how the compressed content has been obtained.
+	 *
+	 * @param status
+	 *          How the compressed content has been obtained.
+	 */
+	void setStatus(Status status) {
+		this.status = status;
+	}
+
+	/**
+	 * Sets the size of the input file.
+	 *
+	 * @param bytesIn
+	 *          The size of the input file, in bytes.
+	 */
+	void setBytesIn(long bytesIn) {
+		this.bytesIn = bytesIn;
+	}
+
+	/**
+	 * Sets the size of the compressed content.
+	 *
+	 * @param bytesOut
+	 *          The size of the compressed content, in bytes.
+	 */
+	void setBytesOut(long bytesOut) {
+		this.bytesOut = bytesOut;
+	}
+
+	/**
+	 * Returns the input file.
+	 *
+	 * @return The input file.
+	 */
+	public File getInputFile() {
+		return inputFile;
+	}
+
+	/**
+	 * Returns how the compressed content has been obtained.
+	 *
+	 * @return How the compressed content has been obtained.
+	 */
+	public Status getStatus() {
+		return status;
+	}
+
+	/**
+	 * Returns the size of the input file.
+	 *
+	 * @return The size of the input file, in bytes.
+	 */
+	public long getBytesIn() {
+		return bytesIn;
+	}
+
+	/**
+	 * Returns the size of the compressed content.
+	 *
+	 * @return The size of the compressed content, in bytes.
+	 */
+	public long getBytesOut() {
+		return bytesOut;
+	}
+
+	/**
+	 * Returns the time spent in a phase.
+	 *
+	 * @param phase
+	 *          The phase.
+	 * @return The time spent in the phase, in nanoseconds.
+	 */
+	public long getNanos(Phase phase) {
+		return nanos[phase.ordinal()];
+	}
+
+	/**
+	 * Returns the time spent in all the phases.
+	 *
+	 * @return The time spent in all the phases, in nanoseconds.
+	 */
+	public long getTotalNanos() {
+		long total = 0;
+		for (long phaseNanos : nanos) {
+			total += phaseNanos;
+		}
+		return total;
+	}
+
+}
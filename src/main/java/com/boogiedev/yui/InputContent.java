@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) boogiedev.com, all rights reserved.
+ * This code is licensed under the LGPL 3.0 license,
+ * available at the root application directory.
+ */
+
+package com.boogiedev.yui;
+
+import java.io.CharArrayReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashCode;
+
+/**
+ * Content of an input file, decoded with an explicit charset:
+ * <ul>
+ * <li>The files are read into the heap, unless asked to memory-map the large ones (see {@link #MAPPING_THRESHOLD}), so that they are neither copied
+ * nor held in the heap. A mapped file should neither be modified nor deleted while its content is in use: it may not be writable on some
+ * platforms (e.g. Windows) until the mapping is garbage-collected, and truncating it makes the reads of the mapping fail.</li>
+ * <li>UTF-8, US-ASCII and ISO-8859-1 contents are decoded by a single loop copying the ASCII bytes as is, the other charsets (and malformed
+ * sequences) going through a {@link java.nio.charset.CharsetDecoder}. The malformed and unmappable bytes are replaced, as done by
+ * {@link String#String(byte[], Charset)}.</li>
+ * </ul>
+ */
+final class InputContent {
+
+	/** The size from which the input files are memory-mapped, in bytes. */
+	static final long MAPPING_THRESHOLD = 1024 * 1024;
+
+	/** The bytes of the content. */
+	private final ByteBuffer bytes;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param bytes
+	 *          The bytes of the content.
+	 */
+	private InputContent(ByteBuffer bytes) {
+		this.bytes = bytes;
+	}
+
+	/**
+	 * Reads an input file into the heap.
+	 *
+	 * @param file
+	 *          The input file.
+	 * @return The content of the input file.
+	 * @throws IOException
+	 *           If an error occurred while reading.
+	 */
+	public static InputContent read(File file) throws IOException {
+		return read(file, false);
+	}
+
+	/**
+	 * Reads an input file, memory-mapping it if asked to and if its size reaches {@link #MAPPING_THRESHOLD}.
+	 *
+	 * @param file
+	 *          The input file.
+	 * @param mapLargeFile
+	 *          Whether the input file should be memory-mapped if large.
+	 * @return The content of the input file.
+	 * @throws IOException
+	 *           If an error occurred while reading.
+	 */
+	public static InputContent read(File file, boolean mapLargeFile) throws IOException {
+		return read(file, mapLargeFile ? MAPPING_THRESHOLD : Long.MAX_VALUE);
+	}
+
+	/**
+	 * Reads an input file, memory-mapping it if its size reaches a threshold.
+	 *
+	 * @param file
+	 *          The input file.
+	 * @param mappingThreshold
+	 *          The size from which the input file is memory-mapped, in bytes.
+	 * @return The content of the input file.
+	 * @throws IOException
+	 *           If an error occurred while reading.
+	 */
+	static InputContent read(File file, long mappingThreshold) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size >= mappingThreshold && size > 0) {
+				// the mapping remains valid once the channel is closed
+				return new InputContent(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+			}
+		}
+		return new InputContent(ByteBuffer.wrap(Files.readAllBytes(file.toPath())));
+	}
+
+	/**
+	 * Returns the size of the content.
+	 *
+	 * @return The size of the content, in bytes.
+	 */
+	public int length() {
+		return bytes.remaining();
+	}
+
+	/**
+	 * Returns the SHA-1 hash of the content.
+	 *
+	 * @return The SHA-1 hash of the content, in lowercase hexadecimal.
+	 */
+	public String getHash() {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			digest.update(bytes.duplicate());
+			return HashCode.fromBytes(digest.digest()).toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-1 is not supported", e);
+		}
+	}
+
+	/**
+	 * Returns a reader of the decoded content.
+	 *
+	 * @param charset
+	 *          The charset of the content.
+	 * @return A reader of the decoded content.
+	 */
+	public Reader newReader(Charset charset) {
+		CharBuffer chars = decode(charset);
+		return new CharArrayReader(chars.array(), chars.arrayOffset() + chars.position(), chars.remaining());
+	}
+
+	/**
+	 * Decodes the content.
+	 *
+	 * @param charset
+	 *          The charset of the content.
+	 * @return The decoded content, backed by an array.
+	 */
+	CharBuffer decode(Charset charset) {
+		boolean utf8 = charset.equals(Charsets.UTF_8);
+		boolean latin1 = charset.equals(Charsets.ISO_8859_1);
+		if (!utf8 && !latin1 && !charset.equals(Charsets.US_ASCII)) {
+			return decode(charset, bytes.duplicate());
+		}
+		// one char at most per byte, a 4 bytes UTF-8 sequence being decoded into 2 chars
+		char[] chars = new char[bytes.remaining()];
+		int count = 0;
+		int i = bytes.position();
+		int end = bytes.limit();
+		while (i < end) {
+			int b = bytes.get(i) & 0xff;
+			if (b < 0x80 || latin1) {
+				chars[count++] = (char) b;
+				i++;
+				continue;
+			}
+			if (!utf8) {
+				break;
+			}
+			if (b >= 0xc2 && b <= 0xdf && i + 1 < end) {
+				int b1 = bytes.get(i + 1) & 0xff;
+				if ((b1 & 0xc0) == 0x80) {
+					chars[count++] = (char) ((b & 0x1f) << 6 | b1 & 0x3f);
+					i += 2;
+					continue;
+				}
+			} else if (b >= 0xe0 && b <= 0xef && i + 2 < end) {
+				int b1 = bytes.get(i + 1) & 0xff;
+				int b2 = bytes.get(i + 2) & 0xff;
+				// neither overlong nor surrogate
+				if ((b1 & 0xc0) == 0x80 && (b2 & 0xc0) == 0x80 && (b != 0xe0 || b1 >= 0xa0) && (b != 0xed || b1 < 0xa0)) {
+					chars[count++] = (char) ((b & 0x0f) << 12 | (b1 & 0x3f) << 6 | b2 & 0x3f);
+					i += 3;
+					continue;
+				}
+			} else if (b >= 0xf0 && b <= 0xf4 && i + 3 < end) {
+				int b1 = bytes.get(i + 1) & 0xff;
+				int b2 = bytes.get(i + 2) & 0xff;
+				int b3 = bytes.get(i + 3) & 0xff;
+				// neither overlong nor above U+10FFFF
+				if ((b1 & 0xc0) == 0x80 && (b2 & 0xc0) == 0x80 && (b3 & 0xc0) == 0x80 && (b != 0xf0 || b1 >= 0x90) && (b != 0xf4 || b1 < 0x90)) {
+					int codePoint = (b & 0x07) << 18 | (b1 & 0x3f) << 12 | (b2 & 0x3f) << 6 | b3 & 0x3f;
+					chars[count++] = Character.highSurrogate(codePoint);
+					chars[count++] = Character.lowSurrogate(codePoint);
+					i += 4;
+					continue;
+				}
+			}
+			break;
+		}
+		if (i == end) {
+			return CharBuffer.wrap(chars, 0, count);
+		}
+		// malformed or unmappable bytes, the rest is decoded from this character boundary
+		ByteBuffer rest = bytes.duplicate();
+		rest.position(i);
+		CharBuffer decodedRest = decode(charset, rest);
+		CharBuffer decoded = CharBuffer.allocate(count + decodedRest.remaining());
+		decoded.put(chars, 0, count).put(decodedRest);
+		decoded.flip();
+		return decoded;
+	}
+
+	/**
+	 * Decodes bytes with a charset decoder, replacing the malformed and unmappable bytes.
+	 *
+	 * @param charset
+	 *          The charset of the bytes.
+	 * @param in
+	 *          The bytes to decode.
+	 * @return The decoded bytes, backed by an array.
+	 */
+	private static CharBuffer decode(Charset charset, ByteBuffer in) {
+		try {
+			return charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE).decode(in);
+		} catch (CharacterCodingException e) {
+			// cannot happen when replacing
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
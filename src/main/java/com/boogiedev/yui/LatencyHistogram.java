@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) boogiedev.com, all rights reserved.
+ * This code is licensed under the LGPL 3.0 license,
+ * available at the root application directory.
+ */
+
+package com.boogiedev.yui;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread-safe latency histogram, counting the recorded latencies in fixed buckets (see {@link #getBoundsMillis()}).
+ */
+class LatencyHistogram {
+
+	/** The inclusive upper bounds of the buckets, in milliseconds, the last bucket counting the latencies above the last bound. */
+	private static final long[] BOUNDS_MILLIS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000 };
+
+	/** The number of recorded latencies, by bucket. */
+	private final AtomicLongArray counts;
+
+	/**
+	 * Constructor.
+	 */
+	public LatencyHistogram() {
+		counts = new AtomicLongArray(BOUNDS_MILLIS.length + 1);
+	}
+
+	/**
+	 * Records a latency.
+	 *
+	 * @param nanos
+	 *          The latency, in nanoseconds.
+	 */
+	public void record(long nanos) {
+		long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+		int bucket = 0;
+		while (bucket < BOUNDS_MILLIS.length && millis > BOUNDS_MILLIS[bucket]) {
+			bucket++;
+		}
+		counts.incrementAndGet(bucket);
+	}
+
+	/**
+	 * Returns the number of recorded latencies, by bucket.
+	 *
+	 * @return A snapshot of the number of recorded latencies, by bucket, one more than the bounds.
+	 */
+	public long[] getCounts() {
+		long[] snapshot = new long[counts.length()];
+		for (int i = 0; i < snapshot.length; i++) {
+			snapshot[i] = counts.get(i);
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Returns the inclusive upper bounds of the buckets.
+	 *
+	 * @return The inclusive upper bounds of the buckets, in milliseconds, the last bucket counting the latencies above the last bound.
+	 */
+	public static long[] getBoundsMillis() {
+		return BOUNDS_MILLIS.clone();
+	}
+
+}
@@ -6,21 +6,37 @@
 
 package com.boogiedev.yui;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 
 import org.mozilla.javascript.ErrorReporter;
@@ -28,10 +44,12 @@ import org.mozilla.javascript.EvaluatorException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.base.Strings;
-import com.google.common.io.ByteStreams;
+import com.google.common.base.Charsets;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.yahoo.platform.yui.compressor.CssCompressor;
 import com.yahoo.platform.yui.compressor.JavaScriptCompressor;
+import com.yahoo.platform.yui.compressor.SinglePassCssCompressor;
 
 /**
  * YUI compressor.
@@ -73,261 +91,1381 @@ public class YuiCompressor {
 
 	}
 
+	/**
+	 * Compresses contents of a given type.
+	 */
+	private abstract class ContentCompressor {
+
+		/** The suffix of the input files. */
+		private final String suffix;
+
+		/** The compression options, part of the cache keys and of the build manifests along with the charset. */
+		private final String options;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param suffix
+		 *          The suffix of the input files.
+		 * @param options
+		 *          The compression options.
+		 */
+		protected ContentCompressor(String suffix, String options) {
+			this.suffix = suffix;
+			this.options = options;
+		}
+
+		/**
+		 * Returns the suffix of the input files.
+		 *
+		 * @return The suffix of the input files.
+		 */
+		public String getSuffix() {
+			return suffix;
+		}
+
+		/**
+		 * Returns the compression options, including the charset.
+		 *
+		 * @return The compression options, including the charset.
+		 */
+		public String getOptions() {
+			return options + ";" + charset.name();
+		}
+
+		/**
+		 * Compresses the content read from the reader into the writer.
+		 *
+		 * @param reader
+		 *          The reader of the input content.
+		 * @param writer
+		 *          The writer of the compressed content.
+		 * @param metrics
+		 *          The metrics the time spent in each compression phase will be added to, may be null.
+		 * @throws IOException
+		 *           If an error occurred while reading or writing.
+		 */
+		protected abstract void compress(Reader reader, Writer writer, FileMetrics metrics) throws IOException;
+
+		/**
+		 * Compresses an input content, the compressed content being encoded as written, instead of being held as a string then copied.
+		 *
+		 * @param content
+		 *          The input content.
+		 * @param metrics
+		 *          The metrics the time spent in each compression phase will be added to, may be null.
+		 * @return The compressed content.
+		 * @throws IOException
+		 *           If an error occurred while reading or writing.
+		 */
+		public byte[] compress(InputContent content, FileMetrics metrics) throws IOException {
+			ByteArrayOutputStream output = new ByteArrayOutputStream(content.length() / 2);
+			Writer writer = new OutputStreamWriter(output, charset);
+			compress(content.newReader(charset), writer, metrics);
+			writer.flush();
+			return output.toByteArray();
+		}
+
+	}
+
+	/**
+	 * Compresses one input file in memory, going through the {@link #cache} if any, unless its previously compressed content can be reused by all the
+	 * bundles including it. Its stages run in different threads:
+	 * <ul>
+	 * <li>The reader stage reads the input file once its size fits in the budget of in-flight bytes (see {@link #read(ByteBudget)}).</li>
+	 * <li>A worker compresses the read content (see {@link #run()}).</li>
+	 * <li>Each bundle including the input file takes the compressed content, the first one releasing its bytes from the budget, the last one letting
+	 * it be garbage collected (see {@link #take()}).</li>
+	 * </ul>
+	 */
+	private class FileCompressor implements Runnable {
+
+		/** The input file to compress. */
+		private final File inputFile;
+
+		/** The content compressor. */
+		private final ContentCompressor contentCompressor;
+
+		/** The build manifest entries of the previous builds, one per bundle including the input file, null for the bundles having none. */
+		private final List<BuildManifest.Entry> previousEntries;
+
+		/** The metrics of the compression. */
+		private final FileMetrics metrics;
+
+		/** The build manifest entry of this build. */
+		private BuildManifest.Entry entry;
+
+		/** Whether the compressed content has been found in the cache. */
+		private boolean cacheHit;
+
+		/** Whether the compressed content has been looked up in the cache without being found. */
+		private boolean cacheMiss;
+
+		/** The content of the input file, from its reading to its compression. */
+		private InputContent content;
+
+		/** The budget the size of the input file has been acquired from, until the compressed content is first taken, null otherwise. */
+		private ByteBudget budget;
+
+		/** The size of the input file acquired from the budget. */
+		private long budgetBytes;
+
+		/** Whether the compression completed, successfully or not. */
+		private boolean completed;
+
+		/** The compressed content, until taken by all the bundles including the input file. */
+		private byte[] compressed;
+
+		/** The failure of the compression, null if it succeeded. */
+		private Throwable failure;
+
+		/** The number of bundles that took the compressed content or gave it up. */
+		private int takes;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param inputFile
+		 *          The input file to compress.
+		 * @param contentCompressor
+		 *          The content compressor.
+		 */
+		public FileCompressor(File inputFile, ContentCompressor contentCompressor) {
+			this.inputFile = inputFile;
+			this.contentCompressor = contentCompressor;
+			previousEntries = new ArrayList<>();
+			metrics = new FileMetrics(inputFile);
+		}
+
+		/**
+		 * Adds the build manifest entry of the previous build of a bundle including the input file, before the compression.
+		 *
+		 * @param previousEntry
+		 *          The build manifest entry of the previous build, may be null.
+		 */
+		public void addPreviousEntry(BuildManifest.Entry previousEntry) {
+			previousEntries.add(previousEntry);
+		}
+
+		/**
+		 * Reads the input file, once its size fits in the budget of in-flight bytes. The compression is failed if the input file cannot be read, and
+		 * skipped if all the bundles including the input file already gave it up.
+		 *
+		 * @param budget
+		 *          The budget of in-flight bytes.
+		 * @return true if the input file has been read and should be compressed, false otherwise.
+		 * @throws InterruptedException
+		 *           If interrupted while waiting for the budget.
+		 */
+		public boolean read(ByteBudget budget) throws InterruptedException {
+			long size = inputFile.length();
+			budget.acquire(size);
+			synchronized (this) {
+				if (takes == previousEntries.size()) {
+					budget.release(size);
+					return false;
+				}
+				this.budget = budget;
+				budgetBytes = size;
+			}
+			long start = System.nanoTime();
+			try {
+				content = readInput(inputFile);
+				return true;
+			} catch (IOException e) {
+				fail(new YuiCompressorException("An error occurred while compressing " + inputFile, e));
+				return false;
+			} finally {
+				metrics.add(FileMetrics.Phase.IO, System.nanoTime() - start);
+			}
+		}
+
+		/**
+		 * Compresses the read content, then hands the compressed content or the failure over to the bundles including the input file.
+		 */
+		@Override
+		public void run() {
+			byte[] compressed;
+			try {
+				compressed = compress();
+			} catch (Throwable e) {
+				fail(e);
+				return;
+			}
+			complete(compressed, null);
+		}
+
+		/**
+		 * Compresses the read content.
+		 *
+		 * @return The compressed content, null if the input file did not change since the previous builds of all the bundles including it.
+		 * @throws YuiCompressorException
+		 *           If an error occurred while compressing.
+		 */
+		private byte[] compress() throws YuiCompressorException {
+			long start = System.nanoTime();
+			long phasesStart = metrics.getTotalNanos();
+			InputContent content = this.content;
+			this.content = null;
+			try {
+				metrics.setBytesIn(content.length());
+				entry = new BuildManifest.Entry(inputFile.getAbsolutePath(), content.length(), content.getHash());
+				if (isUnchanged()) {
+					metrics.setStatus(FileMetrics.Status.UNCHANGED);
+					metrics.setBytesOut(previousEntries.get(0).getLength());
+					return null;
+				}
+				String key = null;
+				byte[] compressed = null;
+				if (cache != null) {
+					key = cache.key(entry.getHash(), contentCompressor.getOptions());
+					compressed = cache.get(key);
+					cacheHit = compressed != null;
+					cacheMiss = !cacheHit;
+				}
+				if (compressed == null) {
+					compressed = contentCompressor.compress(content, metrics);
+					if (cache != null) {
+						cache.put(key, compressed);
+					}
+				} else {
+					metrics.setStatus(FileMetrics.Status.CACHED);
+				}
+				metrics.setBytesOut(compressed.length);
+				return compressed;
+			} catch (IOException | EvaluatorException e) {
+				throw new YuiCompressorException("An error occurred while compressing " + inputFile, e);
+			} finally {
+				// everything but the compression phases, the reading being timed by the reader stage
+				metrics.add(FileMetrics.Phase.IO, System.nanoTime() - start - (metrics.getTotalNanos() - phasesStart));
+			}
+		}
+
+		/**
+		 * Fails the compression, unless already completed.
+		 *
+		 * @param failure
+		 *          The failure.
+		 */
+		public void fail(Throwable failure) {
+			complete(null, failure);
+		}
+
+		/**
+		 * Completes the compression, unless already completed, waking up the bundles waiting for it.
+		 *
+		 * @param compressed
+		 *          The compressed content, may be null.
+		 * @param failure
+		 *          The failure, null if the compression succeeded.
+		 */
+		private synchronized void complete(byte[] compressed, Throwable failure) {
+			if (!completed) {
+				completed = true;
+				this.compressed = takes == previousEntries.size() ? null : compressed;
+				this.failure = failure;
+				notifyAll();
+			}
+		}
+
+		/**
+		 * Takes the compressed content for one of the bundles including the input file, waiting for the compression to complete.
+		 *
+		 * @return The compressed content, null if the input file did not change since the previous builds of all the bundles including it.
+		 * @throws ExecutionException
+		 *           If the compression failed, the cause being the failure.
+		 * @throws InterruptedException
+		 *           If interrupted while waiting.
+		 */
+		public synchronized byte[] take() throws ExecutionException, InterruptedException {
+			try {
+				while (!completed) {
+					wait();
+				}
+				if (failure != null) {
+					throw new ExecutionException(failure);
+				}
+				return compressed;
+			} finally {
+				giveUp();
+			}
+		}
+
+		/**
+		 * Gives the compressed content up for one of the bundles including the input file, e.g. because its merge failed, releasing the size of the
+		 * input file from the budget of in-flight bytes if not already done.
+		 */
+		public synchronized void giveUp() {
+			takes++;
+			if (budget != null) {
+				budget.release(budgetBytes);
+				budget = null;
+			}
+			if (takes == previousEntries.size()) {
+				compressed = null;
+			}
+		}
+
+		/**
+		 * Checks whether the input file did not change since the previous builds of all the bundles including it.
+		 *
+		 * @return true if the input file did not change since the previous builds of all the bundles including it.
+		 */
+		private boolean isUnchanged() {
+			for (BuildManifest.Entry previousEntry : previousEntries) {
+				if (!entry.isSameInput(previousEntry)) {
+					return false;
+				}
+			}
+			return !previousEntries.isEmpty();
+		}
+
+		/**
+		 * Returns the input file to compress.
+		 *
+		 * @return The input file to compress.
+		 */
+		public File getInputFile() {
+			return inputFile;
+		}
+
+		/**
+		 * Returns the metrics of the compression.
+		 *
+		 * @return The metrics of the compression, complete once the input file has been compressed.
+		 */
+		public FileMetrics getMetrics() {
+			return metrics;
+		}
+
+		/**
+		 * Returns the build manifest entry of this build.
+		 *
+		 * @return The build manifest entry of this build, null if the input file has not been read yet.
+		 */
+		public BuildManifest.Entry getEntry() {
+			return entry;
+		}
+
+		/**
+		 * Returns whether the compressed content has been found in the cache.
+		 *
+		 * @return true if the compressed content has been found in the cache.
+		 */
+		public boolean isCacheHit() {
+			return cacheHit;
+		}
+
+		/**
+		 * Returns whether the compressed content has been looked up in the cache without being found.
+		 *
+		 * @return true if the compressed content has been looked up in the cache without being found.
+		 */
+		public boolean isCacheMiss() {
+			return cacheMiss;
+		}
+
+	}
+
+	/**
+	 * Reader stage of a compression run, reading the input files one at a time in the order they are consumed, and handing each of them over to the
+	 * workers. It waits whenever the in-flight bytes would exceed their budget, so that the memory held by a run is bounded whatever the number and
+	 * sizes of the input files.
+	 */
+	private static class InputReader implements Runnable {
+
+		/** The distinct file compressors, in reading order. */
+		private final List<FileCompressor> fileCompressors;
+
+		/** The budget of in-flight bytes. */
+		private final ByteBudget budget;
+
+		/** The executor of the workers. */
+		private final ExecutorService executor;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param fileCompressors
+		 *          The distinct file compressors, in reading order.
+		 * @param budget
+		 *          The budget of in-flight bytes.
+		 * @param executor
+		 *          The executor of the workers.
+		 */
+		public InputReader(List<FileCompressor> fileCompressors, ByteBudget budget, ExecutorService executor) {
+			this.fileCompressors = fileCompressors;
+			this.budget = budget;
+			this.executor = executor;
+		}
+
+		/**
+		 * Reads the input files, failing the file compressors left behind if interrupted, so that no bundle waits for them forever.
+		 */
+		@Override
+		public void run() {
+			for (int i = 0, n = fileCompressors.size(); i < n; i++) {
+				try {
+					if (fileCompressors.get(i).read(budget)) {
+						executor.execute(fileCompressors.get(i));
+					}
+				} catch (InterruptedException | RuntimeException e) {
+					for (FileCompressor fileCompressor : fileCompressors.subList(i, n)) {
+						fileCompressor.fail(new YuiCompressorException("Interrupted while reading " + fileCompressor.getInputFile(), e));
+					}
+					return;
+				}
+			}
+		}
+
+	}
+
+	/**
+	 * State of a bundle during a compression run.
+	 */
+	private static class BundleRun {
+
+		/** The bundle. */
+		private final Bundle bundle;
+
+		/** The input files, sorted by the names of their compressed files once prepared. */
+		private final List<File> inputFiles;
+
+		/** The input files directories. */
+		private final List<File> inputDirs;
+
+		/** The "*.min{suffix}" files, by input file, written only when the compressed files are not merged. */
+		private final Map<File, File> compressedFiles;
+
+		/** The file compressors, in the same order as the input files, possibly shared with other bundles. */
+		private final List<FileCompressor> fileCompressors;
+
+		/** The failures of the file compressors, or of the merge. */
+		private final List<Throwable> errors;
+
+		/** The build manifest of the previous output file, may be null. */
+		private BuildManifest previousManifest;
+
+		/** false if the output file was up to date, true otherwise. */
+		private boolean processed;
+
+		/** The time spent merging or writing the compressed contents, waiting for them included, in nanoseconds (see {@link #start()}). */
+		private long nanos;
+
+		/** The start of the run, in nanoseconds (see {@link System#nanoTime()}). */
+		private long start;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param bundle
+		 *          The bundle.
+		 */
+		public BundleRun(Bundle bundle) {
+			this.bundle = bundle;
+			inputFiles = new ArrayList<>();
+			inputDirs = new ArrayList<>();
+			compressedFiles = new HashMap<>();
+			fileCompressors = new ArrayList<>();
+			errors = new ArrayList<>();
+		}
+
+		/**
+		 * Starts the run, so that the time spent is measured from now on.
+		 */
+		public void start() {
+			start = System.nanoTime();
+		}
+
+		/**
+		 * Ends the run, measuring the time spent since its start.
+		 */
+		public void end() {
+			nanos = System.nanoTime() - start;
+		}
+
+	}
+
+	/** The default maximum number of bytes read but not consumed yet during a compression run. */
+	public static final long DEFAULT_MAX_IN_FLIGHT_BYTES = 64L * 1024 * 1024;
+
+	/** The maximum capacity of the arrays kept by an idle JS compressor, in tokens. */
+	private static final int MAX_POOLED_JS_CAPACITY = 64 * 1024;
+
 	/** Position of the line break. */
 	private static final int LINE_BREAK = 200;
 
-	/** The CSS files names (or directories names) that must be excluded from the process. */
-	private final List<String> cssExcludes;
+	/** Whether JS local symbols should be obfuscated. */
+	private static final boolean MUNGE = true;
 
-	/** The CSS input directory, may be null. */
-	private final File cssInputDir;
+	/** Whether JS compression warnings should be reported. */
+	private static final boolean VERBOSE = true;
 
-	/** The CSS input files directories. */
-	private final List<File> cssInputDirs;
+	/** Whether all the JS semicolons should be preserved. */
+	private static final boolean PRESERVE_ALL_SEMICOLONS = true;
 
-	/** The CSS input files to compress and merge. */
-	private final List<File> cssInputFiles;
+	/** Whether the JS micro optimizations should be disabled. */
+	private static final boolean DISABLE_OPTIMIZATIONS = false;
 
-	/** The CSS final file. */
-	private final File cssOutputFile;
+	/** The JS compression options, part of the cache keys and of the build manifests. */
+	private static final String JS_OPTIONS = "js;" + LINE_BREAK + ";" + MUNGE + ";" + PRESERVE_ALL_SEMICOLONS + ";" + DISABLE_OPTIMIZATIONS;
 
-	/** The JS files names (or directories names) that must be excluded from the process. */
-	private final List<String> jsExcludes;
+	/** The CSS compression options, part of the cache keys and of the build manifests. */
+	private static final String CSS_OPTIONS = "css;" + LINE_BREAK;
 
-	/** The JS input directory, may be null. */
-	private final File jsInputDir;
+	/** The bundles to compress. */
+	private final List<Bundle> bundles;
 
-	/** The JS input files directories. */
-	private final List<File> jsInputDirs;
+	/**
+	 * The idle JS compressors, each of them being reused by one thread at a time, so that their parser and arrays are recycled from one file to the
+	 * next one. There are at most as many of them as concurrent JS compressions, each one holding arrays of at most
+	 * {@link #MAX_POOLED_JS_CAPACITY} elements.
+	 */
+	private final Queue<JavaScriptCompressor> jsCompressors = new ConcurrentLinkedQueue<>();
 
-	/** The JS input files to compress and merge. */
-	private final List<File> jsInputFiles;
+	/** The JS content compressor. */
+	private final ContentCompressor jsContentCompressor = new ContentCompressor(".js", JS_OPTIONS) {
 
-	/** The JS final file. */
-	private final File jsOutputFile;
+		@Override
+		protected void compress(Reader reader, Writer writer, FileMetrics metrics) throws IOException {
+			JavaScriptCompressor compressor = jsCompressors.poll();
+			if (compressor == null) {
+				compressor = new JavaScriptCompressor(new YuiErrorReporter());
+			}
+			try {
+				compressor.reset(reader);
+				compressor.compress(writer, LINE_BREAK, MUNGE, VERBOSE, PRESERVE_ALL_SEMICOLONS, DISABLE_OPTIMIZATIONS);
+				if (metrics != null) {
+					metrics.add(FileMetrics.Phase.PARSE, compressor.getParseNanos());
+					metrics.add(FileMetrics.Phase.BUILD, compressor.getBuildNanos());
+					metrics.add(FileMetrics.Phase.MUNGE, compressor.getMungeNanos());
+					metrics.add(FileMetrics.Phase.PRINT, compressor.getPrintNanos());
+				}
+			} finally {
+				// the state left by a failure is discarded by the next reset, the arrays grown by a large file are not kept
+				compressor.trim(MAX_POOLED_JS_CAPACITY);
+				jsCompressors.offer(compressor);
+			}
+		}
+
+	};
+
+	/** The CSS content compressor. */
+	private final ContentCompressor cssContentCompressor = new ContentCompressor(".css", CSS_OPTIONS) {
+
+		@Override
+		protected void compress(Reader reader, Writer writer, FileMetrics metrics) throws IOException {
+			long start = System.nanoTime();
+			CssCompressor compressor = new CssCompressor(reader);
+			compressor.compress(writer, LINE_BREAK);
+			if (metrics != null) {
+				metrics.add(FileMetrics.Phase.PRINT, System.nanoTime() - start);
+			}
+		}
+
+	};
+
+	/** The single-pass CSS content compressor, its options differing so that the contents compressed by either engine are not mixed up. */
+	private final ContentCompressor singlePassCssContentCompressor = new ContentCompressor(".css", CSS_OPTIONS + ";single-pass") {
+
+		@Override
+		protected void compress(Reader reader, Writer writer, FileMetrics metrics) throws IOException {
+			long start = System.nanoTime();
+			SinglePassCssCompressor compressor = new SinglePassCssCompressor(reader);
+			compressor.compress(writer, LINE_BREAK);
+			if (metrics != null) {
+				metrics.add(FileMetrics.Phase.PRINT, System.nanoTime() - start);
+			}
+		}
+
+	};
 
 	/** Logger. */
 	private Logger logger;
 
+	/** The number of threads used to compress the input files. */
+	private int threads;
+
+	/** The cache of compressed contents, may be null. */
+	private CompressionCache cache;
+
+	/** The listeners of the compression runs. */
+	private final List<CompressionListener> listeners;
+
+	/** Whether the input files should be kept (they are deleted once compressed otherwise). */
+	private boolean keepInputs;
+
+	/** The directory the "*.min{suffix}" files are written into, may be null (they are written next to the input files then). */
+	private File outputDir;
+
+	/** Whether the CSS files should be compressed by the single-pass engine rather than by the YUI compressor's one. */
+	private boolean singlePassCss;
+
+	/** Whether the large input files should be memory-mapped rather than read into the heap. */
+	private boolean mapLargeInputs;
+
+	/** Whether a ".gz" variant should be written next to each output file. */
+	private boolean gzip;
+
+	/** Whether a ".deflate" variant should be written next to each output file. */
+	private boolean deflate;
+
+	/** The maximum number of bytes read but not consumed yet during a compression run. */
+	private long maxInFlightBytes;
+
+	/** The charset of the input files, and of the compressed files. */
+	private Charset charset;
+
+	/** The highest number of bytes read but not consumed yet during the last compression run. */
+	private volatile long peakInFlightBytes;
+
 	/**
-	 * Constructor.
+	 * Constructor, defining a "js" bundle and a "css" bundle.
 	 *
 	 * @param jsInputDir
 	 *          The directory containing the JS files to compress and merge.
 	 * @param jsOutputFile
 	 *          The file that will contain the final JS file.
 	 * @param jsExcludes
-	 *          The JS files names (or directories names) that must be excluded from the process, separated by ";".
+	 *          The JS files names (or directories names), relative paths or globs that must be excluded from the process, separated by ";" (see
+	 *          {@link DirectoryScanner}).
 	 * @param cssInputDir
 	 *          The directory containing the CSS files to compress and merge.
 	 * @param cssOutputFile
 	 *          The file that will contain the final CSS file.
 	 * @param cssExcludes
-	 *          The CSS files names (or directories names) that must be excluded from the process, separated by ";".
+	 *          The CSS files names (or directories names), relative paths or globs that must be excluded from the process, separated by ";" (see
+	 *          {@link DirectoryScanner}).
 	 */
 	public YuiCompressor(File jsInputDir, File jsOutputFile, String jsExcludes, File cssInputDir, File cssOutputFile, String cssExcludes) {
-		this.jsInputDir = jsInputDir;
-		this.jsOutputFile = jsOutputFile;
-		jsInputFiles = new ArrayList<>();
-		jsInputDirs = new ArrayList<>();
-		this.jsExcludes = new ArrayList<>();
-		if (!Strings.isNullOrEmpty(jsExcludes)) {
-			this.jsExcludes.addAll(Arrays.asList(jsExcludes.trim().split("\\s*;\\s*", -1)));
-		}
-		this.cssInputDir = cssInputDir;
-		this.cssOutputFile = cssOutputFile;
-		cssInputFiles = new ArrayList<>();
-		cssInputDirs = new ArrayList<>();
-		this.cssExcludes = new ArrayList<>();
-		if (!Strings.isNullOrEmpty(cssExcludes)) {
-			this.cssExcludes.addAll(Arrays.asList(cssExcludes.trim().split("\\s*;\\s*", -1)));
-		}
+		this(Arrays.asList(new Bundle("js", Bundle.Type.JS, jsInputDir, jsExcludes, jsOutputFile), new Bundle("css", Bundle.Type.CSS, cssInputDir,
+				cssExcludes, cssOutputFile)));
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param bundles
+	 *          The bundles to compress, see {@link Bundle#read(File)}.
+	 */
+	public YuiCompressor(List<Bundle> bundles) {
+		this.bundles = new ArrayList<>(bundles);
+		listeners = new ArrayList<>();
 		logger = DEFAULT_LOGGER;
+		threads = 1;
+		maxInFlightBytes = DEFAULT_MAX_IN_FLIGHT_BYTES;
+		charset = Charsets.UTF_8;
 	}
 
 	/**
-	 * Launches JS and CSS compression.
+	 * Launches the compression of all the bundles.
 	 *
 	 * @throws YuiCompressorException
 	 *           If an error occurred while compressing or merging.
 	 */
 	public void compressAll() throws YuiCompressorException {
-		compressJs();
-		compressCss();
+		compress(bundles);
 	}
 
 	/**
-	 * Launches JS compression.
+	 * Launches the compression of the JS bundles.
 	 *
 	 * @throws YuiCompressorException
 	 *           If an error occurred while compressing or merging.
 	 */
 	public void compressJs() throws YuiCompressorException {
-		if (jsInputDir != null && jsInputDir.exists()) {
-			readDirectory(jsInputDir, jsInputFiles, jsInputDirs, jsExcludes, ".js");
-		}
-		if (shouldBeProcessed(jsInputFiles, jsOutputFile)) {
-			List<File> compressedFiles = new ArrayList<>();
-			for (File jsInputFile : jsInputFiles) {
-				String compressedFilePath = jsInputFile.getAbsolutePath().replaceAll("(?i)\\.js$", ".min.js");
-				File compressedFile = new File(compressedFilePath);
-				try (Reader reader = new FileReader(jsInputFile); Writer writer = new FileWriter(compressedFile)) {
-					JavaScriptCompressor compressor = new JavaScriptCompressor(reader, new YuiErrorReporter());
-					compressor.compress(writer, LINE_BREAK, true, true, true, false);
-					compressedFiles.add(compressedFile);
-				} catch (IOException e) {
-					throw new YuiCompressorException("An error occurred while compressing " + jsInputFile, e);
-				}
-				logger.info("Compressed: " + compressedFile);
-			}
-			merge(compressedFiles, jsOutputFile);
-			delete(jsInputFiles);
-			clean(jsInputDirs);
-		}
+		compress(getBundles(Bundle.Type.JS));
 	}
 
 	/**
-	 * Launches CSS compression.
+	 * Launches the compression of the CSS bundles.
 	 *
 	 * @throws YuiCompressorException
 	 *           If an error occurred while compressing or merging.
 	 */
 	public void compressCss() throws YuiCompressorException {
-		if (cssInputDir != null && cssInputDir.exists()) {
-			readDirectory(cssInputDir, cssInputFiles, cssInputDirs, cssExcludes, ".css");
-		}
-		if (shouldBeProcessed(cssInputFiles, cssOutputFile)) {
-			List<File> compressedFiles = new ArrayList<>();
-			for (File cssInputFile : cssInputFiles) {
-				String compressedFilePath = cssInputFile.getAbsolutePath().replaceAll("(?i)\\.css$", ".min.css");
-				File compressedFile = new File(compressedFilePath);
-				try (Reader reader = new FileReader(cssInputFile); Writer writer = new FileWriter(compressedFile)) {
-					CssCompressor compressor = new CssCompressor(reader);
-					compressor.compress(writer, LINE_BREAK);
-					compressedFiles.add(compressedFile);
-				} catch (IOException e) {
-					throw new YuiCompressorException("An error occurred while compressing " + cssInputFile, e);
+		compress(getBundles(Bundle.Type.CSS));
+	}
+
+	/**
+	 * Compresses bundles in one run, using {@link #threads} threads:
+	 * <ul>
+	 * <li>Scans the input directories, then deletes the previously minified files they contain (see
+	 * {@link #scan(DirectoryScanner, File, List, List, Set)}).</li>
+	 * <li>Compresses each distinct input file once, however many bundles include it (see {@link #prepare(BundleRun, Map)}).</li>
+	 * <li>Reads the input files in a dedicated thread, in the order they are consumed, handing them over to the compression threads as long as the
+	 * bytes read but not consumed yet do not exceed their maximum (see {@link #setMaxInFlightBytes(long)}).</li>
+	 * <li>Merges the bundles having an output file concurrently, each of them waiting for its own compressed contents only (see
+	 * {@link #merge(BundleRun)}).</li>
+	 * <li>Writes each compressed content to its "*.min{suffix}" file for the other bundles (see {@link #getCompressedFile(File, File, String)}).</li>
+	 * <li>Waits for all the file compressors and merges to complete, even if some fail, then reports all the failures at once.</li>
+	 * <li>Logs the cache hits and misses, then trims the cache.</li>
+	 * <li>Notifies the listeners of each processed input file (in the output order, once per input file), then of each output file.</li>
+	 * <li>Deletes the input files and their directories once processed, unless they are kept (see {@link #isKeepingInputs()}).</li>
+	 * </ul>
+	 *
+	 * @param bundles
+	 *          The bundles to compress.
+	 * @throws YuiCompressorException
+	 *           If an error occurred while compressing one or more files, or while merging.
+	 */
+	public void compress(Collection<Bundle> bundles) throws YuiCompressorException {
+		List<BundleRun> runs = new ArrayList<>();
+		Set<File> minifiedFiles = new LinkedHashSet<>();
+		for (Bundle bundle : bundles) {
+			BundleRun run = new BundleRun(bundle);
+			File inputDir = bundle.getInputDir();
+			if (inputDir != null && inputDir.exists()) {
+				scan(bundle.getScanner(), inputDir, run.inputFiles, run.inputDirs, minifiedFiles);
+			}
+			if (!run.inputFiles.isEmpty() && (isKeepingInputs() || !isUpToDate(run))) {
+				runs.add(run);
+			}
+		}
+		delete(minifiedFiles);
+		if (runs.isEmpty()) {
+			return;
+		}
+		Map<String, FileCompressor> fileCompressors = new HashMap<>();
+		int mergedRuns = 0;
+		for (BundleRun run : runs) {
+			prepare(run, fileCompressors);
+			mergedRuns += run.bundle.getOutputFile() == null ? 0 : 1;
+		}
+		int poolSize = getPoolSize();
+		ExecutorService executor;
+		if (poolSize > 1) {
+			executor = Executors.newFixedThreadPool(poolSize, new ThreadFactoryBuilder().setNameFormat("yui-compressor-%d").setDaemon(true).build());
+		} else {
+			executor = MoreExecutors.newDirectExecutorService();
+		}
+		ExecutorService mergeExecutor;
+		if (poolSize > 1 && mergedRuns > 1) {
+			mergeExecutor = Executors.newFixedThreadPool(Math.min(poolSize, mergedRuns), new ThreadFactoryBuilder().setNameFormat("yui-merger-%d")
+					.setDaemon(true).build());
+		} else {
+			mergeExecutor = MoreExecutors.newDirectExecutorService();
+		}
+		ExecutorService reader = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("yui-reader-%d").setDaemon(true).build());
+		ByteBudget budget = new ByteBudget(maxInFlightBytes);
+		try {
+			// the merged bundles are consumed first, then the other ones in order, so their files are read in the same order
+			Set<FileCompressor> distinctFileCompressors = new LinkedHashSet<>();
+			for (BundleRun run : runs) {
+				if (run.bundle.getOutputFile() != null) {
+					distinctFileCompressors.addAll(run.fileCompressors);
+				}
+			}
+			for (BundleRun run : runs) {
+				distinctFileCompressors.addAll(run.fileCompressors);
+			}
+			reader.execute(new InputReader(new ArrayList<>(distinctFileCompressors), budget, executor));
+			List<Future<?>> merges = new ArrayList<>();
+			for (final BundleRun run : runs) {
+				if (run.bundle.getOutputFile() != null) {
+					merges.add(mergeExecutor.submit(new Callable<Void>() {
+
+						@Override
+						public Void call() throws YuiCompressorException, InterruptedException {
+							run.start();
+							run.processed = merge(run);
+							run.end();
+							return null;
+						}
+
+					}));
+				}
+			}
+			Set<File> writtenFiles = new HashSet<>();
+			for (BundleRun run : runs) {
+				if (run.bundle.getOutputFile() == null) {
+					run.start();
+					write(run, writtenFiles);
+					run.processed = true;
+					run.end();
+				}
+			}
+			Set<Throwable> errors = new LinkedHashSet<>();
+			for (Future<?> merge : merges) {
+				try {
+					merge.get();
+				} catch (ExecutionException e) {
+					errors.add(e.getCause());
+				}
+			}
+			for (BundleRun run : runs) {
+				errors.addAll(run.errors);
+			}
+			if (cache != null) {
+				int cacheHits = 0;
+				int cacheMisses = 0;
+				for (FileCompressor fileCompressor : distinctFileCompressors) {
+					cacheHits += fileCompressor.isCacheHit() ? 1 : 0;
+					cacheMisses += fileCompressor.isCacheMiss() ? 1 : 0;
+				}
+				logger.info("Cache: " + cacheHits + " hit(s), " + cacheMisses + " miss(es)");
+				cache.trim();
+			}
+			throwErrors(new ArrayList<>(errors));
+			Set<FileCompressor> firedFileCompressors = new HashSet<>();
+			for (BundleRun run : runs) {
+				for (FileCompressor fileCompressor : run.fileCompressors) {
+					if (firedFileCompressors.add(fileCompressor)) {
+						fireFileProcessed(fileCompressor.getMetrics());
+					}
+				}
+				for (CompressionListener listener : listeners) {
+					listener.outputProcessed(run.bundle.getOutputFile(), run.processed, run.nanos);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new YuiCompressorException("Interrupted while compressing files", e);
+		} finally {
+			mergeExecutor.shutdownNow();
+			reader.shutdownNow();
+			executor.shutdownNow();
+			peakInFlightBytes = budget.getPeakBytes();
+		}
+		if (!isKeepingInputs()) {
+			Set<File> inputFiles = new LinkedHashSet<>();
+			Set<File> inputDirs = new HashSet<>();
+			for (BundleRun run : runs) {
+				if (run.processed) {
+					inputFiles.addAll(run.inputFiles);
+					inputDirs.addAll(run.inputDirs);
 				}
-				logger.info("Compressed: " + compressedFile);
 			}
-			merge(compressedFiles, cssOutputFile);
-			delete(cssInputFiles);
-			clean(cssInputDirs);
+			delete(inputFiles);
+			clean(new ArrayList<>(inputDirs));
 		}
 	}
 
 	/**
-	 * Recursively scans a directory:
+	 * Prepares the compression of a bundle:
 	 * <ul>
-	 * <li>Does not take into account the files whose names are contained in the excludes list.</li>
-	 * <li>Deletes the files whose names match "*.min{suffix}".</li>
-	 * <li>Stores the scanned files whose names match "*{suffix}" into the files list.</li>
-	 * <li>Stores any scanned directory into the filesDirs list.</li>
+	 * <li>Sorts its input files by the names of their compressed files.</li>
+	 * <li>Reads the build manifest of its previous output file if any.</li>
+	 * <li>Creates the file compressors of its input files, unless already created for another bundle.</li>
 	 * </ul>
 	 *
-	 * @param dir
-	 *          The directory to scan.
-	 * @param files
-	 *          The scanned files whose names match "*{suffix}" will be added into this list.
-	 * @param filesDirs
-	 *          Any scanned directory will be added into this list.
-	 * @param excludes
-	 *          The files whose names are contained in this list won't be taken into account.
+	 * @param run
+	 *          The bundle run.
+	 * @param fileCompressors
+	 *          The file compressors of all the bundles, by absolute path of their input files.
+	 * @throws YuiCompressorException
+	 *           If an error occurred while reading the build manifest.
+	 */
+	private void prepare(BundleRun run, Map<String, FileCompressor> fileCompressors) throws YuiCompressorException {
+		ContentCompressor contentCompressor = getContentCompressor(run.bundle.getType());
+		sort(run.inputFiles, contentCompressor.getSuffix());
+		for (File inputFile : run.inputFiles) {
+			run.compressedFiles.put(inputFile, getCompressedFile(run.bundle.getInputDir(), inputFile, contentCompressor.getSuffix()));
+		}
+		run.previousManifest = readManifest(run.bundle.getOutputFile(), contentCompressor.getOptions());
+		for (File inputFile : run.inputFiles) {
+			String path = inputFile.getAbsolutePath();
+			FileCompressor fileCompressor = fileCompressors.get(path);
+			if (fileCompressor == null) {
+				fileCompressor = new FileCompressor(inputFile, contentCompressor);
+				fileCompressors.put(path, fileCompressor);
+			}
+			fileCompressor.addPreviousEntry(run.previousManifest == null ? null : run.previousManifest.getEntry(path));
+			run.fileCompressors.add(fileCompressor);
+		}
+	}
+
+	/**
+	 * Sorts input files by the names of their compressed files, i.e. in the output order.
+	 *
+	 * @param inputFiles
+	 *          The input files.
 	 * @param suffix
-	 *          The suffix of the files to process.
+	 *          The suffix of the input files.
+	 */
+	private static void sort(List<File> inputFiles, String suffix) {
+		final Map<File, String> compressedFileNames = new HashMap<>();
+		for (File inputFile : inputFiles) {
+			compressedFileNames.put(inputFile, getCompressedFileName(inputFile, suffix));
+		}
+		Collections.sort(inputFiles, new Comparator<File>() {
+
+			@Override
+			public int compare(File o1, File o2) {
+				return compressedFileNames.get(o1).compareTo(compressedFileNames.get(o2));
+			}
+
+		});
+	}
+
+	/**
+	 * Scans the input directory of a bundle, without deleting anything.
+	 *
+	 * @param bundle
+	 *          The bundle.
+	 * @return The input files of the bundle, in the output order.
 	 * @throws YuiCompressorException
-	 *           If an error occurred while deleting a previously minified file.
-	 */
-	private void readDirectory(File dir, List<File> files, List<File> filesDirs, List<String> excludes, String suffix) throws YuiCompressorException {
-		filesDirs.add(dir);
-		for (File file : dir.listFiles()) {
-			if (excludes.contains(file.getName())) {
-				continue;
-			}
-			if (file.isDirectory()) {
-				readDirectory(file, files, filesDirs, excludes, suffix);
-			} else if (file.getName().endsWith(".min" + suffix)) {
-				if (!file.delete()) {
-					throw new YuiCompressorException("Unable to delete file " + file);
+	 *           If an error occurred while scanning.
+	 */
+	List<File> getInputFiles(Bundle bundle) throws YuiCompressorException {
+		List<File> inputFiles = new ArrayList<>();
+		File inputDir = bundle.getInputDir();
+		if (inputDir != null && inputDir.exists()) {
+			scan(bundle.getScanner(), inputDir, inputFiles, new ArrayList<File>(), new HashSet<File>());
+		}
+		sort(inputFiles, bundle.getType().getSuffix());
+		return inputFiles;
+	}
+
+	/**
+	 * Compresses a JS or CSS content in memory, without any filesystem access. This method does not depend on the bundles nor on the settings of this
+	 * compressor (but the logger the compression warnings are reported to), and can be called concurrently, e.g. from request threads.
+	 *
+	 * @param type
+	 *          The type of the content.
+	 * @param content
+	 *          The content to compress.
+	 * @return The compressed content.
+	 * @throws YuiCompressorException
+	 *           If an error occurred while compressing.
+	 */
+	public String compress(Bundle.Type type, CharSequence content) throws YuiCompressorException {
+		StringWriter writer = new StringWriter(content.length());
+		compress(type, new StringReader(content.toString()), writer);
+		return writer.toString();
+	}
+
+	/**
+	 * Compresses a JS or CSS content read from a reader into a writer, without any other filesystem access. This method does not depend on the bundles
+	 * nor on the settings of this compressor (but the logger the compression warnings are reported to), and can be called concurrently, e.g. from
+	 * request threads. Neither the reader nor the writer are closed.
+	 *
+	 * @param type
+	 *          The type of the content.
+	 * @param reader
+	 *          The reader of the content to compress.
+	 * @param writer
+	 *          The writer of the compressed content.
+	 * @throws YuiCompressorException
+	 *           If an error occurred while reading, compressing or writing.
+	 */
+	public void compress(Bundle.Type type, Reader reader, Writer writer) throws YuiCompressorException {
+		try {
+			compress(type, reader, writer, null);
+		} catch (IOException | EvaluatorException e) {
+			throw new YuiCompressorException("An error occurred while compressing " + type + " content", e);
+		}
+	}
+
+	/**
+	 * Compresses a content of a given type.
+	 *
+	 * @param type
+	 *          The type of the content.
+	 * @param reader
+	 *          The reader of the input content.
+	 * @param writer
+	 *          The writer of the compressed content.
+	 * @param metrics
+	 *          The metrics the time spent in each compression phase will be added to, may be null.
+	 * @throws IOException
+	 *           If an error occurred while reading or writing.
+	 */
+	void compress(Bundle.Type type, Reader reader, Writer writer, FileMetrics metrics) throws IOException {
+		getContentCompressor(type).compress(reader, writer, metrics);
+	}
+
+	/**
+	 * Compresses an input content of a given type, encoded in the charset of the input files.
+	 *
+	 * @param type
+	 *          The type of the content.
+	 * @param content
+	 *          The input content.
+	 * @param metrics
+	 *          The metrics the time spent in each compression phase will be added to, may be null.
+	 * @return The compressed content, encoded in the charset of the input files.
+	 * @throws IOException
+	 *           If an error occurred while reading or writing.
+	 */
+	byte[] compress(Bundle.Type type, InputContent content, FileMetrics metrics) throws IOException {
+		return getContentCompressor(type).compress(content, metrics);
+	}
+
+	/**
+	 * Returns the compression options of a given type.
+	 *
+	 * @param type
+	 *          The type of the contents.
+	 * @return The compression options, including the charset.
+	 */
+	String getOptions(Bundle.Type type) {
+		return getContentCompressor(type).getOptions();
+	}
+
+	/**
+	 * Returns the content compressor of a bundle type.
+	 *
+	 * @param type
+	 *          The bundle type.
+	 * @return The content compressor.
+	 */
+	private ContentCompressor getContentCompressor(Bundle.Type type) {
+		if (type == Bundle.Type.JS) {
+			return jsContentCompressor;
+		}
+		return singlePassCss ? singlePassCssContentCompressor : cssContentCompressor;
+	}
+
+	/**
+	 * Writes each compressed content of a bundle to its "*.min{suffix}" file, unless already written for another bundle.
+	 *
+	 * @param run
+	 *          The bundle run, whose failures will be added into its errors.
+	 * @param writtenFiles
+	 *          The "*.min{suffix}" files already written.
+	 * @throws InterruptedException
+	 *           If interrupted while waiting for a file compressor.
+	 */
+	private void write(BundleRun run, Set<File> writtenFiles) throws InterruptedException {
+		int taken = 0;
+		try {
+			for (FileCompressor fileCompressor : run.fileCompressors) {
+				File compressedFile = run.compressedFiles.get(fileCompressor.getInputFile());
+				taken++;
+				try {
+					byte[] compressed = fileCompressor.take();
+					if (!writtenFiles.add(compressedFile)) {
+						continue;
+					}
+					long writeStart = System.nanoTime();
+					Files.createDirectories(compressedFile.getAbsoluteFile().getParentFile().toPath());
+					Files.write(compressedFile.toPath(), compressed);
+					fileCompressor.getMetrics().add(FileMetrics.Phase.IO, System.nanoTime() - writeStart);
+					logger.info("Compressed: " + compressedFile);
+				} catch (ExecutionException e) {
+					run.errors.add(e.getCause());
+				} catch (IOException e) {
+					run.errors.add(new YuiCompressorException("An error occurred while writing " + compressedFile, e));
 				}
-			} else if (file.getName().matches(".*(?i)" + Pattern.quote(suffix))) {
-				files.add(file);
 			}
+		} finally {
+			giveUp(run, taken);
 		}
 	}
 
 	/**
-	 * Check whether it is necessary to process the input files or not, based on their last modified dates.
+	 * Gives up the compressed contents a bundle did not take, so that their sizes are released from the budget of in-flight bytes.
 	 *
-	 * @param inputFiles
-	 *          The input files that may need to be processed.
-	 * @param outputFile
-	 *          The output file.
-	 * @return false if the output file is more recent than all the input files, true otherwise.
+	 * @param run
+	 *          The bundle run.
+	 * @param taken
+	 *          The number of compressed contents taken, in the input files order.
 	 */
-	private boolean shouldBeProcessed(List<File> inputFiles, File outputFile) {
-		return !inputFiles.isEmpty() && (outputFile == null || !outputFile.exists() || outputFile.lastModified() < findLatestLastModified(inputFiles));
+	private static void giveUp(BundleRun run, int taken) {
+		for (FileCompressor fileCompressor : run.fileCompressors.subList(taken, run.fileCompressors.size())) {
+			fileCompressor.giveUp();
+		}
 	}
 
 	/**
-	 * Returns the latest last modified date of the given files.
+	 * Throws the failures of a run, if any.
 	 *
-	 * @param files
-	 *          The files, cannot be empty ({@link IndexOutOfBoundsException} otherwise).
-	 * @return The lasted last modified date.
+	 * @param errors
+	 *          The failures.
+	 * @throws YuiCompressorException
+	 *           The only failure if it is a {@link YuiCompressorException}, a failure suppressing the other ones otherwise.
 	 */
-	private long findLatestLastModified(List<File> files) {
-		long latestLastModified = files.get(0).lastModified();
-		for (int i = 1, n = files.size(); i < n; i++) {
-			long lastModified = files.get(i).lastModified();
-			if (lastModified > latestLastModified) {
-				latestLastModified = lastModified;
+	private static void throwErrors(List<Throwable> errors) throws YuiCompressorException {
+		if (errors.size() == 1 && errors.get(0) instanceof YuiCompressorException) {
+			throw (YuiCompressorException) errors.get(0);
+		} else if (!errors.isEmpty()) {
+			StringBuilder message = new StringBuilder("Unable to compress " + errors.size() + " file(s):");
+			for (Throwable error : errors) {
+				message.append("\n").append(error.getMessage());
 			}
+			YuiCompressorException exception = new YuiCompressorException(message.toString(), errors.get(0));
+			for (Throwable error : errors.subList(1, errors.size())) {
+				exception.addSuppressed(error);
+			}
+			throw exception;
 		}
-		return latestLastModified;
 	}
 
 	/**
-	 * Merges the input files into the output file:
+	 * Merges the compressed contents of a bundle into its output file, appending each of them as soon as it is available, in the input files order:
 	 * <ul>
-	 * <li>Deletes the output file if it already exists.</li>
-	 * <li>Sorts the input files by their names.</li>
-	 * <li>Appends all the input files contents to the output file.</li>
-	 * <li>Deletes the input files.</li>
+	 * <li>Transfers the compressed contents of the unchanged input files from the previous output file (see {@link BundleWriter}).</li>
+	 * <li>Leaves the output file untouched if it is up to date, i.e. if all the input files are unchanged and in the same order as in the previous
+	 * build.</li>
+	 * <li>Writes temporary files otherwise, starting with the part of the previous output file that is still valid, then replaces the output file,
+	 * its precompressed variants if requested (see {@link #setGzip(boolean)} and {@link #setDeflate(boolean)}) and its build manifest if the input
+	 * files are kept.</li>
+	 * <li>Leaves the output file untouched if any file compressor failed.</li>
 	 * </ul>
 	 *
-	 * @param inputFiles
-	 *          The input files to merge into the output file.
+	 * @param run
+	 *          The bundle run, whose file compressors failures will be added into its errors.
+	 * @return false if the output file was up to date or if any file compressor failed, true otherwise.
+	 * @throws YuiCompressorException
+	 *           If an error occurred while merging.
+	 * @throws InterruptedException
+	 *           If interrupted while waiting for a file compressor.
+	 */
+	private boolean merge(BundleRun run) throws YuiCompressorException, InterruptedException {
+		File outputFile = run.bundle.getOutputFile();
+		BuildManifest previousManifest = run.previousManifest;
+		List<Throwable> errors = run.errors;
+		List<BuildManifest.Entry> previousEntries = previousManifest == null ? Collections.<BuildManifest.Entry> emptyList() : previousManifest.getEntries();
+		BuildManifest manifest = new BuildManifest(getContentCompressor(run.bundle.getType()).getOptions());
+		BundleWriter bundleWriter = null;
+		int taken = 0;
+		try {
+			try (FileChannel previousOutput = previousManifest == null ? null : FileChannel.open(outputFile.toPath(), StandardOpenOption.READ)) {
+				for (int i = 0, n = run.fileCompressors.size(); i < n; i++) {
+					FileCompressor fileCompressor = run.fileCompressors.get(i);
+					byte[] compressed;
+					taken++;
+					try {
+						compressed = fileCompressor.take();
+					} catch (ExecutionException e) {
+						errors.add(e.getCause());
+						continue;
+					}
+					if (!errors.isEmpty()) {
+						continue;
+					}
+					// the entry of the file compressor is shared with the other bundles, while its offset is specific to this one
+					BuildManifest.Entry sharedEntry = fileCompressor.getEntry();
+					BuildManifest.Entry entry = new BuildManifest.Entry(sharedEntry.getPath(), sharedEntry.getSize(), sharedEntry.getHash());
+					BuildManifest.Entry previousEntry = previousManifest == null ? null : previousManifest.getEntry(entry.getPath());
+					boolean unchanged = entry.isSameInput(previousEntry);
+					manifest.add(entry, unchanged ? previousEntry.getLength() : compressed.length);
+					if (bundleWriter == null && (!unchanged || i >= previousEntries.size() || previousEntries.get(i) != previousEntry)) {
+						// first change, the previous output file is valid up to here
+						bundleWriter = new BundleWriter(outputFile, gzip, deflate);
+						bundleWriter.transfer(previousOutput, 0, entry.getOffset());
+					}
+					if (bundleWriter != null) {
+						if (unchanged) {
+							bundleWriter.transfer(previousOutput, previousEntry.getOffset(), previousEntry.getLength());
+						} else {
+							bundleWriter.write(compressed);
+						}
+					}
+					logger.info((unchanged ? "Unchanged: " : "Compressed: ") + fileCompressor.getInputFile());
+				}
+				if (!errors.isEmpty()) {
+					return false;
+				}
+				if (bundleWriter == null) {
+					if (manifest.getEntries().size() == previousEntries.size() && hasVariants(outputFile)) {
+						logger.info("Up to date: " + outputFile);
+						return false;
+					}
+					// some input files have been removed or some variants are missing, the previous output file is valid up to its last remaining entry
+					bundleWriter = new BundleWriter(outputFile, gzip, deflate);
+					bundleWriter.transfer(previousOutput, 0, manifest.getLength());
+				}
+			}
+			File manifestFile = BuildManifest.getFile(outputFile);
+			Files.deleteIfExists(manifestFile.toPath());
+			bundleWriter.commit();
+			if (isKeepingInputs()) {
+				manifest.write(manifestFile);
+			}
+			logger.info("Merged: " + outputFile + " (" + bundleWriter.describeSizes() + ")");
+			return true;
+		} catch (IOException e) {
+			throw new YuiCompressorException("An error occurred while merging files", e);
+		} finally {
+			giveUp(run, taken);
+			try {
+				if (bundleWriter != null) {
+					bundleWriter.close();
+				}
+			} catch (IOException e) {
+				logger.warn("Unable to delete temporary files of " + outputFile, e);
+			}
+		}
+	}
+
+	/**
+	 * Checks whether the precompressed variants of the output file match the requested ones.
+	 *
 	 * @param outputFile
 	 *          The output file.
+	 * @return true if the requested variants exist and the other ones do not.
+	 */
+	private boolean hasVariants(File outputFile) {
+		return BundleWriter.getGzipFile(outputFile).exists() == gzip && BundleWriter.getDeflateFile(outputFile).exists() == deflate;
+	}
+
+	/**
+	 * Notifies the listeners of a processed input file.
+	 *
+	 * @param metrics
+	 *          The metrics of the input file.
+	 */
+	private void fireFileProcessed(FileMetrics metrics) {
+		for (CompressionListener listener : listeners) {
+			listener.fileProcessed(metrics);
+		}
+	}
+
+	/**
+	 * Reads the build manifest of the previous output file.
+	 *
+	 * @param outputFile
+	 *          The output file, may be null.
+	 * @param options
+	 *          The compression options.
+	 * @return The build manifest, null if there is none, if it has been built with other options, or if the output file does not match it.
 	 * @throws YuiCompressorException
-	 *           If an error occurred while merging compressed files.
+	 *           If an error occurred while reading the build manifest.
 	 */
-	private void merge(List<File> inputFiles, File outputFile) throws YuiCompressorException {
-		if (outputFile != null) {
-			if (outputFile.exists() && !outputFile.delete()) {
-				throw new YuiCompressorException("Unable to delete file " + outputFile);
+	private BuildManifest readManifest(File outputFile, String options) throws YuiCompressorException {
+		if (outputFile == null || !outputFile.exists()) {
+			return null;
+		}
+		File manifestFile = BuildManifest.getFile(outputFile);
+		try {
+			BuildManifest manifest = BuildManifest.read(manifestFile);
+			if (manifest == null || !manifest.getOptions().equals(options) || manifest.getLength() != outputFile.length()) {
+				return null;
 			}
-			try (OutputStream outputStream = new FileOutputStream(outputFile, true)) {
-				Collections.sort(inputFiles, new Comparator<File>() {
+			return manifest;
+		} catch (IOException e) {
+			throw new YuiCompressorException("An error occurred while reading " + manifestFile, e);
+		}
+	}
 
-					@Override
-					public int compare(File o1, File o2) {
-						return o1.getName().compareTo(o2.getName());
-					}
+	/**
+	 * Recursively scans an input directory, using {@link #threads} threads:
+	 * <ul>
+	 * <li>Does not take into account the excluded files and directories, nor the output directory if any.</li>
+	 * <li>Stores the scanned files whose names match "*{suffix}" into the files list.</li>
+	 * <li>Stores any scanned directory into the filesDirs list.</li>
+	 * <li>Stores the files whose names match "*.min{suffix}" into the minifiedFiles set, to be deleted, unless an output directory is set (they are
+	 * then ignored).</li>
+	 * </ul>
+	 *
+	 * @param scanner
+	 *          The scanner of the input directory.
+	 * @param dir
+	 *          The input directory to scan.
+	 * @param files
+	 *          The scanned files whose names match "*{suffix}" will be added into this list.
+	 * @param filesDirs
+	 *          Any scanned directory will be added into this list.
+	 * @param minifiedFiles
+	 *          The previously minified files to delete will be added into this set.
+	 * @throws YuiCompressorException
+	 *           If an error occurred while scanning.
+	 */
+	private void scan(DirectoryScanner scanner, File dir, List<File> files, List<File> filesDirs, Set<File> minifiedFiles)
+			throws YuiCompressorException {
+		DirectoryScanner.Result result;
+		try {
+			result = scanner.scan(dir, outputDir, getPoolSize());
+		} catch (IOException e) {
+			throw new YuiCompressorException("An error occurred while scanning " + dir, e);
+		}
+		if (outputDir == null) {
+			minifiedFiles.addAll(result.getMinifiedFiles());
+		}
+		files.addAll(result.getFiles());
+		filesDirs.addAll(result.getDirs());
+	}
 
-				});
-				for (File inputFile : inputFiles) {
-					try (InputStream inputStream = new FileInputStream(inputFile)) {
-						ByteStreams.copy(inputStream, outputStream);
-					}
-				}
-				logger.info("Merged: " + outputFile);
-			} catch (IOException e) {
-				throw new YuiCompressorException("An error occurred while merging files", e);
+	/**
+	 * Returns the number of threads to use.
+	 *
+	 * @return {@link #threads} if positive, the number of available processors otherwise.
+	 */
+	private int getPoolSize() {
+		return threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Returns the "*.min{suffix}" file of an input file:
+	 * <ul>
+	 * <li>Its sibling if no output directory is set.</li>
+	 * <li>Located in the output directory otherwise, at the same path relative to it as the input file relative to the input directory.</li>
+	 * </ul>
+	 *
+	 * @param inputDir
+	 *          The input directory.
+	 * @param inputFile
+	 *          The input file.
+	 * @param suffix
+	 *          The suffix of the input files.
+	 * @return The "*.min{suffix}" file.
+	 */
+	private File getCompressedFile(File inputDir, File inputFile, String suffix) {
+		String compressedFileName = getCompressedFileName(inputFile, suffix);
+		if (outputDir == null) {
+			return new File(inputFile.getAbsoluteFile().getParentFile(), compressedFileName);
+		}
+		Path relativeDir = inputDir.getAbsoluteFile().toPath().relativize(inputFile.getAbsoluteFile().getParentFile().toPath());
+		return new File(outputDir.toPath().resolve(relativeDir).toFile(), compressedFileName);
+	}
+
+	/**
+	 * Returns the name of the "*.min{suffix}" file of an input file.
+	 *
+	 * @param inputFile
+	 *          The input file.
+	 * @param suffix
+	 *          The suffix of the input files.
+	 * @return The name of the "*.min{suffix}" file.
+	 */
+	private static String getCompressedFileName(File inputFile, String suffix) {
+		return inputFile.getName().replaceAll("(?i)" + Pattern.quote(suffix) + "$", ".min" + suffix);
+	}
+
+	/**
+	 * Reads an input file, memory-mapping it if large and if asked to (see {@link #setMapLargeInputs(boolean)}).
+	 *
+	 * @param inputFile
+	 *          The input file.
+	 * @return The content of the input file.
+	 * @throws IOException
+	 *           If an error occurred while reading.
+	 */
+	InputContent readInput(File inputFile) throws IOException {
+		return InputContent.read(inputFile, mapLargeInputs);
+	}
+
+	/**
+	 * Returns whether the output file of a bundle is more recent than all its input files. Without build manifest, i.e. when the input files are
+	 * not kept, such a bundle is neither compressed again nor are its input files deleted.
+	 *
+	 * @param run
+	 *          The bundle run, its input files being scanned.
+	 * @return true if the bundle has an output file more recent than all its input files.
+	 */
+	private static boolean isUpToDate(BundleRun run) {
+		File outputFile = run.bundle.getOutputFile();
+		if (outputFile == null || !outputFile.exists()) {
+			return false;
+		}
+		long lastModified = outputFile.lastModified();
+		for (File inputFile : run.inputFiles) {
+			if (inputFile.lastModified() >= lastModified) {
+				return false;
 			}
-			delete(inputFiles);
 		}
+		return true;
+	}
+
+	/**
+	 * Returns whether the input files are kept, i.e. if asked to or if an output directory is set.
+	 *
+	 * @return true if the input files are kept.
+	 */
+	private boolean isKeepingInputs() {
+		return keepInputs || outputDir != null;
 	}
 
 	/**
@@ -338,7 +1476,7 @@ public class YuiCompressor {
 	 * @throws YuiCompressorException
 	 *           If an error occurred while deleting a file.
 	 */
-	private void delete(List<File> files) throws YuiCompressorException {
+	private void delete(Collection<File> files) throws YuiCompressorException {
 		for (File file : files) {
 			if (!file.delete()) {
 				throw new YuiCompressorException("Unable to delete file " + file);
@@ -376,6 +1514,32 @@ public class YuiCompressor {
 		}
 	}
 
+	/**
+	 * Returns the bundles to compress.
+	 *
+	 * @return The bundles to compress.
+	 */
+	public List<Bundle> getBundles() {
+		return Collections.unmodifiableList(bundles);
+	}
+
+	/**
+	 * Returns the bundles of a type.
+	 *
+	 * @param type
+	 *          The bundle type.
+	 * @return The bundles of this type.
+	 */
+	private List<Bundle> getBundles(Bundle.Type type) {
+		List<Bundle> typeBundles = new ArrayList<>();
+		for (Bundle bundle : bundles) {
+			if (bundle.getType() == type) {
+				typeBundles.add(bundle);
+			}
+		}
+		return typeBundles;
+	}
+
 	/**
 	 * Sets the logger to use.
 	 *
@@ -386,4 +1550,148 @@ public class YuiCompressor {
 		this.logger = logger;
 	}
 
+	/**
+	 * Adds a listener of the compression runs, notified of the sizes and compression times of each input file.
+	 *
+	 * @param listener
+	 *          The listener to add.
+	 */
+	public void addListener(CompressionListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Sets the cache of compressed contents, so that unchanged files are not compressed again from one build to another.
+	 *
+	 * @param cache
+	 *          The cache of compressed contents, null to disable caching.
+	 */
+	public void setCache(CompressionCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Sets whether the input files should be kept. They are deleted once compressed by default, the bundles whose output file is more recent than
+	 * all their input files being skipped. When they are kept, a build manifest is written next to each output file, so that the next builds only
+	 * compress the input files that changed, whatever their last modified dates.
+	 *
+	 * @param keepInputs
+	 *          Whether the input files should be kept.
+	 */
+	public void setKeepInputs(boolean keepInputs) {
+		this.keepInputs = keepInputs;
+	}
+
+	/**
+	 * Sets whether the CSS files should be compressed by {@link SinglePassCssCompressor} rather than by {@link CssCompressor} (default). The
+	 * single-pass engine reads each stylesheet once instead of running the YUI compressor's regular expressions over it, and produces the same
+	 * output, falling back to {@link CssCompressor} for the stylesheets it cannot compress the same way.
+	 *
+	 * @param singlePassCss
+	 *          Whether the CSS files should be compressed by the single-pass engine.
+	 */
+	public void setSinglePassCss(boolean singlePassCss) {
+		this.singlePassCss = singlePassCss;
+	}
+
+	/**
+	 * Sets whether the input files larger than 1 MB should be memory-mapped, then decoded without being copied into the heap first (defaults to
+	 * false). They should then be left untouched while being compressed: a mapped file may not be writable nor deletable on some platforms (e.g.
+	 * Windows) until the mapping is garbage-collected, and truncating it makes the compression fail. It is not advised when watching or serving the
+	 * input directories while they are being edited, nor when the input files are deleted once compressed.
+	 *
+	 * @param mapLargeInputs
+	 *          Whether the large input files should be memory-mapped.
+	 */
+	public void setMapLargeInputs(boolean mapLargeInputs) {
+		this.mapLargeInputs = mapLargeInputs;
+	}
+
+	/**
+	 * Sets whether a ".gz" variant (gzip format, maximum compression level) should be written next to each output file, so that it can be served as
+	 * is to the clients accepting the gzip content coding. It is encoded while the output file is being written.
+	 *
+	 * @param gzip
+	 *          Whether a ".gz" variant should be written next to each output file.
+	 */
+	public void setGzip(boolean gzip) {
+		this.gzip = gzip;
+	}
+
+	/**
+	 * Sets whether a ".deflate" variant (zlib format, maximum compression level) should be written next to each output file, so that it can be served
+	 * as is to the clients accepting the deflate content coding. It is encoded while the output file is being written.
+	 *
+	 * @param deflate
+	 *          Whether a ".deflate" variant should be written next to each output file.
+	 */
+	public void setDeflate(boolean deflate) {
+		this.deflate = deflate;
+	}
+
+	/**
+	 * Sets the directory the "*.min{suffix}" files are written into when the compressed files are not merged, mirroring the input directories
+	 * structure. When set, the input directories are left untouched: the input files are kept (see {@link #setKeepInputs(boolean)}), and the
+	 * "*.min{suffix}" files they may contain are ignored instead of being deleted. The output files and their build manifests should then be located
+	 * outside of the input directories too.
+	 *
+	 * @param outputDir
+	 *          The directory the "*.min{suffix}" files are written into, null to write them next to the input files (default).
+	 */
+	public void setOutputDir(File outputDir) {
+		this.outputDir = outputDir;
+	}
+
+	/**
+	 * Sets the number of threads used to compress the input files (defaults to 1, i.e. sequential compression). Values lower than 1 mean one thread
+	 * per available processor. The merged output files are the same whatever the number of threads.
+	 *
+	 * @param threads
+	 *          The number of threads used to compress the input files.
+	 */
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	/**
+	 * Sets the maximum number of bytes read but not consumed yet during a compression run (defaults to {@link #DEFAULT_MAX_IN_FLIGHT_BYTES}). The
+	 * input files are read ahead of their compression up to this limit, then only as their compressed contents are consumed. An input file larger
+	 * than the limit is still read, once nothing else is in flight. The output files are the same whatever the limit.
+	 *
+	 * @param maxInFlightBytes
+	 *          The maximum number of bytes read but not consumed yet.
+	 */
+	public void setMaxInFlightBytes(long maxInFlightBytes) {
+		this.maxInFlightBytes = maxInFlightBytes;
+	}
+
+	/**
+	 * Sets the charset of the input files, the compressed files being written in the same charset (defaults to UTF-8, whatever the platform). The
+	 * input files are read into the heap, unless asked to memory-map the large ones (see {@link #setMapLargeInputs(boolean)}).
+	 *
+	 * @param charset
+	 *          The charset of the input files.
+	 */
+	public void setCharset(Charset charset) {
+		this.charset = charset;
+	}
+
+	/**
+	 * Returns the charset of the input files, and of the compressed files.
+	 *
+	 * @return The charset of the input files.
+	 */
+	public Charset getCharset() {
+		return charset;
+	}
+
+	/**
+	 * Returns the highest number of bytes read but not consumed yet during the last compression run.
+	 *
+	 * @return The highest number of bytes read but not consumed yet during the last compression run, 0 if none.
+	 */
+	long getPeakInFlightBytes() {
+		return peakInFlightBytes;
+	}
+
 }
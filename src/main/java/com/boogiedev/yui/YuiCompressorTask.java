@@ -7,10 +7,14 @@
 package com.boogiedev.yui;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
 
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.Task;
 
+import com.google.common.base.Charsets;
+
 /**
  * YUI compressor Ant task.
  */
@@ -34,16 +38,103 @@ public class YuiCompressorTask extends Task {
 	/** The CSS files names (or directories names) that must be excluded from the process, separated by ";". */
 	private String cssExcludes;
 
+	/** The properties file defining the bundles, may be null. */
+	private File bundles;
+
+	/** Whether the input directories should be watched, rebuilding the output files on every change. */
+	private boolean watch;
+
+	/** The delay without any change to wait for before rebuilding, in milliseconds. */
+	private long watchDebounce = YuiCompressorWatcher.DEFAULT_DEBOUNCE;
+
+	/** Whether the input files should be kept. */
+	private boolean keepInputs;
+
+	/** The directory the compressed files are written into when not merged, may be null. */
+	private File outputDir;
+
+	/** Whether the CSS files should be compressed by the single-pass engine. */
+	private boolean singlePassCss;
+
+	/** Whether the large input files should be memory-mapped. */
+	private boolean mapLargeInputs;
+
+	/** Whether a ".gz" variant should be written next to each output file. */
+	private boolean gzip;
+
+	/** Whether a ".deflate" variant should be written next to each output file. */
+	private boolean deflate;
+
+	/** The number of threads used to compress the files. */
+	private int threads = 1;
+
+	/** The maximum number of bytes read but not consumed yet during a run. */
+	private long maxInFlightBytes = YuiCompressor.DEFAULT_MAX_IN_FLIGHT_BYTES;
+
+	/** The charset of the input files, and of the compressed files. */
+	private Charset charset = Charsets.UTF_8;
+
+	/** The directory of the cache of compressed contents, may be null. */
+	private File cacheDir;
+
+	/** The maximum size of the cache of compressed contents, in bytes. */
+	private long cacheMaxSize = CompressionCache.DEFAULT_MAX_SIZE;
+
+	/** Whether the summary of the run should be logged. */
+	private boolean summary;
+
+	/** The file the summary of the run should be written to as JSON, may be null. */
+	private File summaryJsonFile;
+
 	/**
 	 * {@inheritDoc}
 	 */
 	@Override
 	public void execute() throws BuildException {
 		try {
-			YuiCompressor yuiCompressor = new YuiCompressor(jsInputDir, jsOutputFile, jsExcludes, cssInputDir, cssOutputFile, cssExcludes);
+			YuiCompressor yuiCompressor;
+			if (bundles != null) {
+				yuiCompressor = new YuiCompressor(Bundle.read(bundles));
+			} else {
+				yuiCompressor = new YuiCompressor(jsInputDir, jsOutputFile, jsExcludes, cssInputDir, cssOutputFile, cssExcludes);
+			}
 			yuiCompressor.setLogger(new TaskLogger(this));
-			yuiCompressor.compressAll();
-		} catch (YuiCompressorException e) {
+			yuiCompressor.setKeepInputs(keepInputs);
+			yuiCompressor.setOutputDir(outputDir);
+			yuiCompressor.setSinglePassCss(singlePassCss);
+			yuiCompressor.setMapLargeInputs(mapLargeInputs);
+			yuiCompressor.setGzip(gzip);
+			yuiCompressor.setDeflate(deflate);
+			yuiCompressor.setThreads(threads);
+			yuiCompressor.setMaxInFlightBytes(maxInFlightBytes);
+			yuiCompressor.setCharset(charset);
+			if (cacheDir != null) {
+				yuiCompressor.setCache(new CompressionCache(cacheDir, cacheMaxSize));
+			}
+			if (watch) {
+				try (YuiCompressorWatcher watcher = new YuiCompressorWatcher(yuiCompressor, watchDebounce)) {
+					watcher.setLogger(new TaskLogger(this));
+					watcher.watch();
+				}
+			} else {
+				CompressionSummary compressionSummary = null;
+				if (summary || summaryJsonFile != null) {
+					// not listening in watch mode, where it would accumulate the metrics of every rebuild
+					compressionSummary = new CompressionSummary(CompressionSummary.DEFAULT_SLOWEST_FILES);
+					yuiCompressor.addListener(compressionSummary);
+				}
+				yuiCompressor.compressAll();
+				if (summary) {
+					log(compressionSummary.toString());
+				}
+				if (summaryJsonFile != null) {
+					compressionSummary.writeJson(summaryJsonFile);
+				}
+			}
+		} catch (YuiCompressorException | IOException e) {
+			throw new BuildException(e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 			throw new BuildException(e);
 		}
 	}
@@ -69,7 +160,8 @@ public class YuiCompressorTask extends Task {
 	}
 
 	/**
-	 * Sets the JS files names (or directories names) that must be excluded from the process, separated by ";".
+	 * Sets the JS files names (or directories names) that must be excluded from the process, separated by ";". Relative paths (e.g. "lib/legacy")
+	 * and globs (e.g. "*.test.js") are supported too (see {@link DirectoryScanner}).
 	 *
 	 * @param jsExcludes
 	 *          The JS files names (or directories names) that must be excluded from the process, separated by ";".
@@ -99,7 +191,8 @@ public class YuiCompressorTask extends Task {
 	}
 
 	/**
-	 * Sets the CSS files names (or directories names) that must be excluded from the process, separated by ";".
+	 * Sets the CSS files names (or directories names) that must be excluded from the process, separated by ";". Relative paths (e.g. "lib/legacy")
+	 * and globs (e.g. "*.test.css") are supported too (see {@link DirectoryScanner}).
 	 *
 	 * @param cssExcludes
 	 *          The CSS files names (or directories names) that must be excluded from the process, separated by ";".
@@ -108,4 +201,170 @@ public class YuiCompressorTask extends Task {
 		this.cssExcludes = cssExcludes;
 	}
 
+	/**
+	 * Sets the properties file defining the bundles (see {@link Bundle#read(File)}). When set, the JS and CSS attributes are ignored, and all the
+	 * bundles are compressed in one run, each input file being compressed once whatever the number of bundles including it.
+	 *
+	 * @param bundles
+	 *          The properties file defining the bundles.
+	 */
+	public void setBundles(String bundles) {
+		this.bundles = new File(bundles);
+	}
+
+	/**
+	 * Sets whether the input directories should be watched (defaults to false). If true, the task never ends: it keeps the input files, and rebuilds
+	 * the output files on every change.
+	 *
+	 * @param watch
+	 *          Whether the input directories should be watched.
+	 */
+	public void setWatch(boolean watch) {
+		this.watch = watch;
+	}
+
+	/**
+	 * Sets the delay without any change to wait for before rebuilding, in milliseconds (defaults to 200).
+	 *
+	 * @param watchDebounce
+	 *          The delay without any change to wait for before rebuilding, in milliseconds.
+	 */
+	public void setWatchDebounce(long watchDebounce) {
+		this.watchDebounce = watchDebounce;
+	}
+
+	/**
+	 * Sets whether the input files should be kept (defaults to false). When they are not, the output files more recent than all their input files are
+	 * not built again. When they are kept, only the input files that changed since the previous build are compressed again.
+	 *
+	 * @param keepInputs
+	 *          Whether the input files should be kept.
+	 */
+	public void setKeepInputs(boolean keepInputs) {
+		this.keepInputs = keepInputs;
+	}
+
+	/**
+	 * Sets the directory the compressed files are written into when not merged (next to the input files by default). When set, the input directories
+	 * are left untouched.
+	 *
+	 * @param outputDir
+	 *          The directory the compressed files are written into when not merged.
+	 */
+	public void setOutputDir(String outputDir) {
+		this.outputDir = new File(outputDir);
+	}
+
+	/**
+	 * Sets whether the CSS files should be compressed by the single-pass engine rather than by the YUI compressor's one (defaults to false).
+	 *
+	 * @param singlePassCss
+	 *          Whether the CSS files should be compressed by the single-pass engine.
+	 */
+	public void setSinglePassCss(boolean singlePassCss) {
+		this.singlePassCss = singlePassCss;
+	}
+
+	/**
+	 * Sets whether the input files larger than 1 MB should be memory-mapped rather than read into the heap (defaults to false, not advised in watch
+	 * mode).
+	 *
+	 * @param mapLargeInputs
+	 *          Whether the large input files should be memory-mapped.
+	 */
+	public void setMapLargeInputs(boolean mapLargeInputs) {
+		this.mapLargeInputs = mapLargeInputs;
+	}
+
+	/**
+	 * Sets whether a ".gz" variant should be written next to each output file (defaults to false).
+	 *
+	 * @param gzip
+	 *          Whether a ".gz" variant should be written next to each output file.
+	 */
+	public void setGzip(boolean gzip) {
+		this.gzip = gzip;
+	}
+
+	/**
+	 * Sets whether a ".deflate" variant should be written next to each output file (defaults to false).
+	 *
+	 * @param deflate
+	 *          Whether a ".deflate" variant should be written next to each output file.
+	 */
+	public void setDeflate(boolean deflate) {
+		this.deflate = deflate;
+	}
+
+	/**
+	 * Sets the number of threads used to compress the files (defaults to 1, values lower than 1 mean one thread per available processor).
+	 *
+	 * @param threads
+	 *          The number of threads used to compress the files.
+	 */
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	/**
+	 * Sets the maximum number of bytes read but not consumed yet during a run (defaults to {@link YuiCompressor#DEFAULT_MAX_IN_FLIGHT_BYTES}).
+	 *
+	 * @param maxInFlightBytes
+	 *          The maximum number of bytes read but not consumed yet.
+	 */
+	public void setMaxInFlightBytes(long maxInFlightBytes) {
+		this.maxInFlightBytes = maxInFlightBytes;
+	}
+
+	/**
+	 * Sets the charset of the input files, the compressed files being written in the same charset (defaults to UTF-8).
+	 *
+	 * @param charset
+	 *          The name of the charset of the input files.
+	 */
+	public void setCharset(String charset) {
+		this.charset = Charset.forName(charset);
+	}
+
+	/**
+	 * Sets the directory of the cache of compressed contents (no cache by default).
+	 *
+	 * @param cacheDir
+	 *          The directory of the cache of compressed contents.
+	 */
+	public void setCacheDir(String cacheDir) {
+		this.cacheDir = new File(cacheDir);
+	}
+
+	/**
+	 * Sets the maximum size of the cache of compressed contents, in bytes (defaults to 100 MB).
+	 *
+	 * @param cacheMaxSize
+	 *          The maximum size of the cache of compressed contents, in bytes.
+	 */
+	public void setCacheMaxSize(long cacheMaxSize) {
+		this.cacheMaxSize = cacheMaxSize;
+	}
+
+	/**
+	 * Sets whether the summary of the run should be logged (defaults to false): totals of the input files, bytes in and out, time spent in each
+	 * compression phase, and the slowest input files. Ignored in watch mode.
+	 *
+	 * @param summary
+	 *          Whether the summary of the run should be logged.
+	 */
+	public void setSummary(boolean summary) {
+		this.summary = summary;
+	}
+
+	/**
+	 * Sets the file the summary of the run should be written to as JSON (none by default). Ignored in watch mode.
+	 *
+	 * @param summaryJsonFile
+	 *          The file the summary of the run should be written to as JSON.
+	 */
+	public void setSummaryJsonFile(String summaryJsonFile) {
+		this.summaryJsonFile = new File(summaryJsonFile);
+	}
+
 }
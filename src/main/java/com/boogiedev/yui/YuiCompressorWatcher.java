@@ -0,0 +1,267 @@
+/*
+ * Copyright (c) boogiedev.com, all rights reserved.
+ * This code is licensed under the LGPL 3.0 license,
+ * available at the root application directory.
+ */
+
+package com.boogiedev.yui;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * YUI compressor watcher, keeping a warm compressor running:
+ * <ul>
+ * <li>Watches the input directories of the bundles (and their sub-directories, following the symbolic links as the scans do) for changes.</li>
+ * <li>Waits for a burst of changes to be over before rebuilding, i.e. for no change to happen during the debounce delay. The changes that cannot
+ * change any output file (e.g. of other files than the input ones) do not delay the rebuild.</li>
+ * <li>Rebuilds only the bundles whose input files changed, the input files being kept so that only the changed ones are compressed again.</li>
+ * <li>Logs the delay between the first change of a burst and the end of the rebuild.</li>
+ * </ul>
+ */
+public class YuiCompressorWatcher implements Closeable {
+
+	/** Logger. */
+	private static final Logger DEFAULT_LOGGER = LoggerFactory.getLogger(YuiCompressorWatcher.class);
+
+	/** Default debounce delay, in milliseconds. */
+	public static final long DEFAULT_DEBOUNCE = 200;
+
+	/** The YUI compressor. */
+	private final YuiCompressor yuiCompressor;
+
+	/** The debounce delay, in milliseconds. */
+	private final long debounce;
+
+	/** The watch service. */
+	private final WatchService watchService;
+
+	/** The watched directories, by watch key. */
+	private final Map<WatchKey, Path> dirs;
+
+	/** Logger. */
+	private Logger logger;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param yuiCompressor
+	 *          The YUI compressor, whose input files will be kept.
+	 * @param debounce
+	 *          The debounce delay, in milliseconds.
+	 * @throws IOException
+	 *           If an error occurred while creating the watch service.
+	 */
+	public YuiCompressorWatcher(YuiCompressor yuiCompressor, long debounce) throws IOException {
+		this.yuiCompressor = yuiCompressor;
+		this.debounce = debounce;
+		watchService = FileSystems.getDefault().newWatchService();
+		dirs = new HashMap<>();
+		logger = DEFAULT_LOGGER;
+		yuiCompressor.setKeepInputs(true);
+	}
+
+	/**
+	 * Builds the output files, then rebuilds them on every change until this watcher is closed.
+	 *
+	 * @throws YuiCompressorException
+	 *           If an error occurred while registering the input directories.
+	 * @throws InterruptedException
+	 *           If interrupted while waiting for changes.
+	 */
+	public void watch() throws YuiCompressorException, InterruptedException {
+		List<Bundle> bundles = yuiCompressor.getBundles();
+		Set<File> inputDirs = new HashSet<>();
+		try {
+			for (Bundle bundle : bundles) {
+				File inputDir = bundle.getInputDir();
+				if (inputDir != null && inputDir.isDirectory() && inputDirs.add(inputDir.getAbsoluteFile())) {
+					register(inputDir.toPath());
+				}
+			}
+		} catch (IOException e) {
+			throw new YuiCompressorException("An error occurred while watching the input directories", e);
+		}
+		build(bundles, System.nanoTime());
+		try {
+			for (;;) {
+				WatchKey key = watchService.take();
+				long received = System.nanoTime();
+				long start = 0;
+				long lastChange = received;
+				Set<Bundle> changedBundles = new HashSet<>();
+				do {
+					boolean changed = false;
+					Path dir = dirs.get(key);
+					for (WatchEvent<?> event : key.pollEvents()) {
+						if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+							changedBundles.addAll(bundles);
+							changed = true;
+							continue;
+						}
+						Path path = dir.resolve((Path) event.context());
+						boolean wasDir = dirs.containsValue(path);
+						if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+							wasDir = true;
+							try {
+								register(path);
+							} catch (IOException e) {
+								logger.warn("Unable to watch " + path, e);
+							}
+						}
+						for (Bundle bundle : bundles) {
+							if (isChange(path, wasDir, bundle.getInputDir(), bundle.getType().getSuffix())) {
+								changedBundles.add(bundle);
+								changed = true;
+							}
+						}
+					}
+					if (!key.reset()) {
+						dirs.remove(key);
+					}
+					if (changed) {
+						// only the relevant changes extend the burst, so that a busy tree cannot postpone the rebuild indefinitely
+						if (start == 0) {
+							start = received;
+						}
+						lastChange = received;
+					}
+					long remaining = lastChange + TimeUnit.MILLISECONDS.toNanos(debounce) - System.nanoTime();
+					key = remaining > 0 ? watchService.poll(remaining, TimeUnit.NANOSECONDS) : null;
+					received = System.nanoTime();
+				} while (key != null);
+				if (!changedBundles.isEmpty()) {
+					List<Bundle> changed = new ArrayList<>(bundles);
+					changed.retainAll(changedBundles);
+					build(changed, start);
+				}
+			}
+		} catch (ClosedWatchServiceException e) {
+			// closed, stop watching
+		}
+	}
+
+	/**
+	 * Stops watching.
+	 *
+	 * @throws IOException
+	 *           If an error occurred while closing the watch service.
+	 */
+	@Override
+	public void close() throws IOException {
+		watchService.close();
+	}
+
+	/**
+	 * Registers a directory and its sub-directories, following the symbolic links except the ones looping back to a directory being registered.
+	 *
+	 * @param dir
+	 *          The directory.
+	 * @throws IOException
+	 *           If an error occurred while registering.
+	 */
+	private void register(Path dir) throws IOException {
+		Files.walkFileTree(dir, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+						StandardWatchEventKinds.ENTRY_MODIFY);
+				dirs.put(key, dir);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+				if (exc instanceof FileSystemLoopException) {
+					// already registered through one of its ancestors
+					return FileVisitResult.CONTINUE;
+				}
+				throw exc;
+			}
+
+		});
+	}
+
+	/**
+	 * Checks whether a changed path may change an output file:
+	 * <ul>
+	 * <li>The path must be in the input directory.</li>
+	 * <li>It must denote a directory, or a file whose name matches "*{suffix}" but not "*.min{suffix}".</li>
+	 * </ul>
+	 *
+	 * @param path
+	 *          The changed path.
+	 * @param dir
+	 *          Whether the path denotes a directory.
+	 * @param inputDir
+	 *          The input directory, may be null.
+	 * @param suffix
+	 *          The suffix of the input files.
+	 * @return true if the changed path may change the output file.
+	 */
+	private boolean isChange(Path path, boolean dir, File inputDir, String suffix) {
+		if (inputDir == null || !path.startsWith(inputDir.toPath())) {
+			return false;
+		}
+		String name = path.getFileName().toString().toLowerCase(Locale.ENGLISH);
+		return dir || name.endsWith(suffix) && !name.endsWith(".min" + suffix);
+	}
+
+	/**
+	 * Rebuilds the output files, logging failures instead of throwing them so that the next changes can fix them.
+	 *
+	 * @param bundles
+	 *          The bundles to rebuild, compressed in one run so that their shared input files are compressed once.
+	 * @param start
+	 *          The time of the first change, see {@link System#nanoTime()}.
+	 */
+	private void build(List<Bundle> bundles, long start) {
+		long buildStart = System.nanoTime();
+		try {
+			yuiCompressor.compress(bundles);
+			long end = System.nanoTime();
+			logger.info("Built in " + TimeUnit.NANOSECONDS.toMillis(end - buildStart) + " ms, " + TimeUnit.NANOSECONDS.toMillis(end - start)
+					+ " ms after the first change");
+		} catch (YuiCompressorException e) {
+			logger.error("Build failed, waiting for changes", e);
+		}
+	}
+
+	/**
+	 * Sets the logger to use.
+	 *
+	 * @param logger
+	 *          The logger to use.
+	 */
+	public void setLogger(Logger logger) {
+		this.logger = logger;
+	}
+
+}
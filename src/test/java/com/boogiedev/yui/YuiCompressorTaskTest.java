@@ -7,6 +7,25 @@
 package com.boogiedev.yui;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
 
 import junitx.framework.FileAssert;
 
@@ -14,7 +33,12 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
 import com.google.common.io.Files;
+import com.sun.net.httpserver.HttpServer;
+import com.yahoo.platform.yui.compressor.CssCompressor;
+import com.yahoo.platform.yui.compressor.SinglePassCssCompressor;
 
 /**
  * Tests the YUI compressor.
@@ -50,7 +74,88 @@ public class YuiCompressorTaskTest {
 	 */
 	@Test
 	public void compressWithExcludes() throws Exception {
-		compress(true, "compressWithExcludes");
+		compress(true, 1, null, "compressWithExcludes");
+	}
+
+	/**
+	 * Compresses JS and CSS input files, excluding files through globs and relative paths, and checks the output is the same as with name excludes.
+	 *
+	 * @throws Exception
+	 *           If an error occurred while compressing.
+	 */
+	@Test
+	public void compressWithGlobAndPathExcludes() throws Exception {
+
+		YuiCompressorTask compressor = new YuiCompressorTask();
+		compressor.setThreads(4);
+
+		File jsInputDir = Files.createTempDir();
+		copyDir(this.jsInputDir, jsInputDir);
+		File jsOutputFile = File.createTempFile("yui", "tmp");
+		jsOutputFile.delete();
+		compressor.setJsInputDir(jsInputDir.getAbsolutePath());
+		compressor.setJsOutputFile(jsOutputFile.getAbsolutePath());
+		compressor.setJsExcludes("*-exclude.js");
+
+		File cssInputDir = Files.createTempDir();
+		copyDir(this.cssInputDir, cssInputDir);
+		File cssOutputFile = File.createTempFile("yui", "tmp");
+		cssOutputFile.delete();
+		compressor.setCssInputDir(cssInputDir.getAbsolutePath());
+		compressor.setCssOutputFile(cssOutputFile.getAbsolutePath());
+		compressor.setCssExcludes("dir2/1-exclude.css; dir1/3-*.css");
+
+		compressor.execute();
+
+		FileAssert.assertEquals(getFile("/compressWithExcludes.js"), jsOutputFile);
+		FileAssert.assertEquals(getFile("/compressWithExcludes.css"), cssOutputFile);
+
+	}
+
+	/**
+	 * Compresses JS input files through symbolic links (to the input directory, to a sub-directory, and looping back to the input directory), and
+	 * checks the output is the same as without links.
+	 *
+	 * @throws Exception
+	 *           If an error occurred while compressing.
+	 */
+	@Test
+	public void compressThroughSymbolicLinks() throws Exception {
+
+		File realDir = Files.createTempDir();
+		copyDir(this.jsInputDir, realDir);
+		File libDir = Files.createTempDir();
+		java.nio.file.Files.move(new File(realDir, "dir1").toPath(), new File(libDir, "dir1").toPath());
+		java.nio.file.Files.createSymbolicLink(new File(realDir, "dir1").toPath(), new File(libDir, "dir1").toPath());
+		java.nio.file.Files.createSymbolicLink(new File(realDir, "dir2/loop").toPath(), realDir.toPath());
+		File jsInputDir = new File(Files.createTempDir(), "js");
+		java.nio.file.Files.createSymbolicLink(jsInputDir.toPath(), realDir.toPath());
+
+		for (int threads : new int[] { 1, 4 }) {
+			YuiCompressorTask compressor = new YuiCompressorTask();
+			compressor.setThreads(threads);
+			compressor.setKeepInputs(true);
+			File jsOutputFile = File.createTempFile("yui", "tmp");
+			jsOutputFile.delete();
+			compressor.setJsInputDir(jsInputDir.getAbsolutePath());
+			compressor.setJsOutputFile(jsOutputFile.getAbsolutePath());
+			compressor.setJsExcludes(JS_EXCLUDES);
+			compressor.execute();
+			FileAssert.assertEquals(getFile("/compressWithExcludes.js"), jsOutputFile);
+		}
+
+	}
+
+	/**
+	 * Compresses JS and CSS input files in parallel, and checks the merged output is the same as the sequential one.
+	 *
+	 * @throws Exception
+	 *           If an error occurred while compressing.
+	 */
+	@Test
+	public void compressInParallel() throws Exception {
+		compress(true, 4, null, "compressWithExcludes");
+		compress(false, 4, null, "compressWithoutExcludes");
 	}
 
 	/**
@@ -61,7 +166,655 @@ public class YuiCompressorTaskTest {
 	 */
 	@Test
 	public void compressWithoutExcludes() throws Exception {
-		compress(false, "compressWithoutExcludes");
+		compress(false, 1, null, "compressWithoutExcludes");
+	}
+
+	/**
+	 * Compresses JS and CSS input files twice through the same cache, and checks the cached output is the same as the compressed one.
+	 *
+	 * @throws Exception
+	 *           If an error occurred while compressing.
+	 */
+	@Test
+	public void compressWithCache() throws Exception {
+		File cacheDir = Files.createTempDir();
+		compress(true, 1, cacheDir, "compressWithExcludes");
+		Assert.assertTrue(cacheDir.list().length > 0);
+		compress(true, 1, cacheDir, "compressWithExcludes");
+	}
+
+	/**
+	 * Compresses JS input files several times while keeping them, and checks the incremental builds give the same output as a full one.
+	 *
+	 * @throws Exception
+	 *           If an error occurred while compressing.
+	 */
+	@Test
+	public void compressIncrementally() throws Exception {
+
+		YuiCompressorTask compressor = new YuiCompressorTask();
+
+		File jsInputDir = Files.createTempDir();
+		copyDir(this.jsInputDir, jsInputDir);
+		File jsOutputFile = File.createTempFile("yui", "tmp");
+		jsOutputFile.delete();
+		compressor.setJsInputDir(jsInputDir.getAbsolutePath());
+		compressor.setJsOutputFile(jsOutputFile.getAbsolutePath());
+		compressor.setJsExcludes(JS_EXCLUDES);
+		compressor.setKeepInputs(true);
+
+		compressor.execute();
+		FileAssert.assertEquals(getFile("/compressWithExcludes.js"), jsOutputFile);
+
+		// unchanged input files, whatever their last modified dates: the output file must not be rewritten
+		jsOutputFile.setLastModified(0);
+		new File(jsInputDir, "4.js").setLastModified(System.currentTimeMillis());
+		compressor.execute();
+		Assert.assertEquals(0, jsOutputFile.lastModified());
+
+		// changed input file: the output file must be rebuilt
+		Files.append("\n/* comment */\n", new File(jsInputDir, "dir1/2.js"), Charsets.UTF_8);
+		compressor.execute();
+		Assert.assertTrue(jsOutputFile.lastModified() > 0);
+		FileAssert.assertEquals(getFile("/compressWithExcludes.js"), jsOutputFile);
+
+	}
+
+	/**
+	 * Compresses JS input files without keeping them, and checks an output file more recent than all of them is not rebuilt, while an older one is.
+	 *
+	 * @throws Exception
+	 *           If an error occurred while compressing.
+	 */
+	@Test
+	public void compressUpToDate() throws Exception {
+
+		YuiCompressorTask compressor = new YuiCompressorTask();
+
+		File jsInputDir = Files.createTempDir();
+		copyDir(this.jsInputDir, jsInputDir);
+		File jsOutputFile = File.createTempFile("yui", "tmp");
+		compressor.setJsInputDir(jsInputDir.getAbsolutePath());
+		compressor.setJsOutputFile(jsOutputFile.getAbsolutePath());
+		compressor.setJsExcludes(JS_EXCLUDES);
+
+		// output file more recent than the input files: neither rebuilt nor are the input files deleted
+		long lastModified = System.currentTimeMillis() + 60000;
+		jsOutputFile.setLastModified(lastModified);
+		compressor.execute();
+		Assert.assertEquals(0, jsOutputFile.length());
+		Assert.assertTrue(new File(jsInputDir, "dir1/2.js").exists());
+
+		// output file older than an input file: rebuilt, the input files being deleted
+		jsOutputFile.setLastModified(0);
+		compressor.execute();
+		FileAssert.assertEquals(getFile("/compressWithExcludes.js"), jsOutputFile);
+		Assert.assertFalse(new File(jsInputDir, "dir1/2.js").exists());
+
+	}
+
+	/**
+	 * Compresses a large JS input file while keeping it, truncates it, then compresses it again with the same compressor, and checks the output file
+	 * is rebuilt from the new content.
+	 *
+	 * @throws Exception
+	 *           If an error occurred while compressing.
+	 */
+	@Test
+	public void compressTruncatedLargeInput() throws Exception {
+
+		File jsInputDir = Files.createTempDir();
+		File largeFile = new File(jsInputDir, "large.js");
+		File jsOutputFile = File.createTempFile("yui", "tmp");
+		jsOutputFile.delete();
+		YuiCompressor yuiCompressor = new YuiCompressor(jsInputDir, jsOutputFile, null, null, null, null);
+		yuiCompressor.setKeepInputs(true);
+
+		StringBuilder large = new StringBuilder();
+		for (int i = 0; large.length() <= InputContent.MAPPING_THRESHOLD; i++) {
+			large.append("var variable").append(i).append(" = ").append(i).append(";\n");
+		}
+		Files.write(large, largeFile, Charsets.UTF_8);
+		yuiCompressor.compressAll();
+		Assert.assertEquals(yuiCompressor.compress(Bundle.Type.JS, large.toString()), Files.toString(jsOutputFile, Charsets.UTF_8));
+
+		String truncated = "var truncated = 0;\n";
+		Files.write(truncated, largeFile, Charsets.UTF_8);
+		yuiCompressor.compressAll();
+		Assert.assertEquals(yuiCompressor.compress(Bundle.Type.JS, truncated), Files.toString(jsOutputFile, Charsets.UTF_8));
+
+	}
+
+	/**
+	 * Compresses JS input files into an output directory without merging them, and checks the input directory is left untouched.
+	 *
+	 * @throws Exception
+	 *           If an error occurred while compressing.
+	 */
+	@Test
+	public void compressOutOfTree() throws Exception {
+
+		YuiCompressorTask compressor = new YuiCompressorTask();
+
+		File jsInputDir = Files.createTempDir();
+		copyDir(this.jsInputDir, jsInputDir);
+		File previouslyMinified = new File(jsInputDir, "dir1/0.min.js");
+		Files.write("var a=0;", previouslyMinified, Charsets.UTF_8);
+		File outputDir = Files.createTempDir();
+		compressor.setJsInputDir(jsInputDir.getAbsolutePath());
+		compressor.setJsExcludes(JS_EXCLUDES);
+		compressor.setOutputDir(outputDir.getAbsolutePath());
+
+		compressor.execute();
+		Assert.assertTrue(new File(jsInputDir, "dir1/2.js").exists());
+		Assert.assertTrue(previouslyMinified.exists());
+		Assert.assertFalse(new File(jsInputDir, "dir1/2.min.js").exists());
+		Assert.assertTrue(new File(outputDir, "dir1/2.min.js").exists());
+		Assert.assertTrue(new File(outputDir, "dir2/1.min.js").exists());
+		Assert.assertTrue(new File(outputDir, "4.min.js").exists());
+		Assert.assertFalse(new File(outputDir, "dir1/0.min.min.js").exists());
+
+	}
+
+	/**
+	 * Compresses JS input files with precompressed variants, and checks they decode to the output file, including after an incremental build.
+	 *
+	 * @throws Exception
+	 *           If an error occurred while compressing.
+	 */
+	@Test
+	public void compressWithVariants() throws Exception {
+
+		YuiCompressorTask compressor = new YuiCompressorTask();
+
+		File jsInputDir = Files.createTempDir();
+		copyDir(this.jsInputDir, jsInputDir);
+		File jsOutputFile = File.createTempFile("yui", "tmp");
+		jsOutputFile.delete();
+		compressor.setJsInputDir(jsInputDir.getAbsolutePath());
+		compressor.setJsOutputFile(jsOutputFile.getAbsolutePath());
+		compressor.setJsExcludes(JS_EXCLUDES);
+		compressor.setKeepInputs(true);
+		compressor.setGzip(true);
+		compressor.setDeflate(true);
+
+		compressor.execute();
+		assertVariants(jsOutputFile);
+
+		Files.append("\n/* comment */\n", new File(jsInputDir, "dir1/2.js"), Charsets.UTF_8);
+		compressor.execute();
+		assertVariants(jsOutputFile);
+
+		// variant no longer requested: it must be deleted
+		compressor.setDeflate(false);
+		compressor.execute();
+		Assert.assertTrue(BundleWriter.getGzipFile(jsOutputFile).exists());
+		Assert.assertFalse(BundleWriter.getDeflateFile(jsOutputFile).exists());
+
+	}
+
+	/**
+	 * Compresses JS input files twice while keeping them, and checks the summaries of both runs.
+	 *
+	 * @throws Exception
+	 *           If an error occurred while compressing.
+	 */
+	@Test
+	public void compressWithSummary() throws Exception {
+
+		File jsInputDir = Files.createTempDir();
+		copyDir(this.jsInputDir, jsInputDir);
+		File jsOutputFile = File.createTempFile("yui", "tmp");
+		jsOutputFile.delete();
+
+		YuiCompressor yuiCompressor = new YuiCompressor(jsInputDir, jsOutputFile, JS_EXCLUDES, null, null, null);
+		yuiCompressor.setKeepInputs(true);
+		CompressionSummary summary = new CompressionSummary(2);
+		yuiCompressor.addListener(summary);
+		yuiCompressor.compressAll();
+
+		Assert.assertEquals(4, summary.getFileCount(FileMetrics.Status.COMPRESSED));
+		Assert.assertEquals(jsOutputFile.length(), summary.getBytesOut());
+		Assert.assertTrue(summary.getBytesIn() > summary.getBytesOut());
+		Assert.assertTrue(summary.getNanos(FileMetrics.Phase.PARSE) > 0);
+		Assert.assertEquals(2, summary.getSlowestFiles().size());
+
+		// unchanged input files: the summary of the second run must report them as such
+		summary = new CompressionSummary(2);
+		yuiCompressor.addListener(summary);
+		yuiCompressor.compressAll();
+		Assert.assertEquals(4, summary.getFileCount(FileMetrics.Status.UNCHANGED));
+		Assert.assertEquals(jsOutputFile.length(), summary.getBytesOut());
+		Assert.assertEquals(0, summary.getNanos(FileMetrics.Phase.PARSE));
+		Assert.assertTrue(summary.toJson().contains("\"unchanged\": 4"));
+
+	}
+
+	/**
+	 * Compresses two JS bundles sharing their input files (one through excludes, the other through includes) and a CSS bundle defined in a
+	 * properties file, checks the shared input files are compressed once, and checks two bundles cannot share an output file.
+	 *
+	 * @throws Exception
+	 *           If an error occurred while compressing.
+	 */
+	@Test
+	public void compressBundles() throws Exception {
+
+		File dir = Files.createTempDir();
+		File jsDir = new File(dir, "js");
+		jsDir.mkdir();
+		copyDir(jsInputDir, jsDir);
+		File cssDir = new File(dir, "css");
+		cssDir.mkdir();
+		copyDir(cssInputDir, cssDir);
+		File bundlesFile = new File(dir, "bundles.properties");
+		StringBuilder bundles = new StringBuilder();
+		bundles.append("app.type = js\napp.inputDir = js\napp.excludes = ").append(JS_EXCLUDES).append("\napp.outputFile = out/app.js\n");
+		bundles.append("admin.type = js\nadmin.inputDir = js\nadmin.includes = 4.js; dir1/2.js; dir*/?.js\nadmin.outputFile = out/admin.js\n");
+		bundles.append("style.type = css\nstyle.inputDir = css\nstyle.excludes = ").append(CSS_EXCLUDES).append("\nstyle.outputFile = out/style.css\n");
+		Files.write(bundles, bundlesFile, Charsets.UTF_8);
+
+		YuiCompressor yuiCompressor = new YuiCompressor(Bundle.read(bundlesFile));
+		yuiCompressor.setKeepInputs(true);
+		yuiCompressor.setThreads(4);
+		CompressionSummary summary = new CompressionSummary(2);
+		yuiCompressor.addListener(summary);
+		yuiCompressor.compressAll();
+
+		FileAssert.assertEquals(getFile("/compressWithExcludes.js"), new File(dir, "out/app.js"));
+		FileAssert.assertEquals(getFile("/compressWithExcludes.js"), new File(dir, "out/admin.js"));
+		FileAssert.assertEquals(getFile("/compressWithExcludes.css"), new File(dir, "out/style.css"));
+		// 4 JS input files shared by both JS bundles, plus 4 CSS input files
+		Assert.assertEquals(8, summary.getFileCount(FileMetrics.Status.COMPRESSED));
+		Assert.assertEquals(3, summary.toString().split("\nOutput: ").length - 1);
+
+		// two bundles cannot share an output file
+		Files.append("other.type = js\nother.inputDir = js\nother.outputFile = out/../out/app.js\n", bundlesFile, Charsets.UTF_8);
+		try {
+			Bundle.read(bundlesFile);
+			Assert.fail("Duplicate output file not rejected");
+		} catch (YuiCompressorException e) {
+			Assert.assertTrue(e.getMessage(), e.getMessage().contains("same output file"));
+		}
+
+	}
+
+	/**
+	 * Compresses bundles with a budget of in-flight bytes smaller than any input file, and checks the input files are then read one at a time, the
+	 * outputs being the same.
+	 *
+	 * @throws Exception
+	 *           If an error occurred while compressing.
+	 */
+	@Test(timeout = 30000)
+	public void compressWithBoundedMemory() throws Exception {
+
+		File dir = Files.createTempDir();
+		File jsDir = new File(dir, "js");
+		jsDir.mkdir();
+		copyDir(jsInputDir, jsDir);
+		File cssDir = new File(dir, "css");
+		cssDir.mkdir();
+		copyDir(cssInputDir, cssDir);
+		File bundlesFile = new File(dir, "bundles.properties");
+		StringBuilder bundles = new StringBuilder();
+		bundles.append("app.type = js\napp.inputDir = js\napp.excludes = ").append(JS_EXCLUDES).append("\napp.outputFile = out/app.js\n");
+		bundles.append("admin.type = js\nadmin.inputDir = js\nadmin.excludes = ").append(JS_EXCLUDES).append("\nadmin.outputFile = out/admin.js\n");
+		bundles.append("style.type = css\nstyle.inputDir = css\nstyle.excludes = ").append(CSS_EXCLUDES).append("\nstyle.outputFile = out/style.css\n");
+		bundles.append("pages.type = css\npages.inputDir = css\npages.excludes = ").append(CSS_EXCLUDES).append("\n");
+		Files.write(bundles, bundlesFile, Charsets.UTF_8);
+		long maxInputSize = 0;
+		for (File inputFile : Files.fileTreeTraverser().preOrderTraversal(dir)) {
+			maxInputSize = Math.max(maxInputSize, inputFile.length());
+		}
+
+		YuiCompressor yuiCompressor = new YuiCompressor(Bundle.read(bundlesFile));
+		yuiCompressor.setKeepInputs(true);
+		yuiCompressor.setThreads(4);
+		yuiCompressor.setMaxInFlightBytes(1);
+		yuiCompressor.compressAll();
+
+		FileAssert.assertEquals(getFile("/compressWithExcludes.js"), new File(dir, "out/app.js"));
+		FileAssert.assertEquals(getFile("/compressWithExcludes.js"), new File(dir, "out/admin.js"));
+		FileAssert.assertEquals(getFile("/compressWithExcludes.css"), new File(dir, "out/style.css"));
+		Assert.assertTrue(new File(cssDir, "4.min.css").exists());
+		Assert.assertTrue(yuiCompressor.getPeakInFlightBytes() > 0);
+		Assert.assertTrue(yuiCompressor.getPeakInFlightBytes() <= maxInputSize);
+
+	}
+
+	/**
+	 * Compresses JS and CSS contents in memory, concurrently, and checks the results are the same as sequentially.
+	 *
+	 * @throws Exception
+	 *           If an error occurred while compressing.
+	 */
+	@Test
+	public void compressInMemory() throws Exception {
+
+		final YuiCompressor yuiCompressor = new YuiCompressor(null, null, null, null, null, null);
+		Assert.assertEquals("var foo=function(a){return a+1;};", yuiCompressor.compress(Bundle.Type.JS, "var foo = function (bar) { return bar + 1; };"));
+		Assert.assertEquals("a{color:red}", yuiCompressor.compress(Bundle.Type.CSS, "a {\n  color: red;\n}\n"));
+
+		final String js = Files.toString(new File(jsInputDir, "4.js"), Charsets.UTF_8);
+		final String css = Files.toString(new File(cssInputDir, "4.css"), Charsets.UTF_8);
+		final String compressedJs = yuiCompressor.compress(Bundle.Type.JS, js);
+		final String compressedCss = yuiCompressor.compress(Bundle.Type.CSS, css);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Boolean>> futures = new ArrayList<>();
+			for (int i = 0; i < 200; i++) {
+				futures.add(executor.submit(new Callable<Boolean>() {
+
+					@Override
+					public Boolean call() throws Exception {
+						return compressedJs.equals(yuiCompressor.compress(Bundle.Type.JS, js))
+								&& compressedCss.equals(yuiCompressor.compress(Bundle.Type.CSS, css));
+					}
+
+				}));
+			}
+			for (Future<Boolean> future : futures) {
+				Assert.assertTrue(future.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+	}
+
+	/**
+	 * Compresses JS input files in UTF-8 (the default charset) and in ISO-8859-1, and checks the compressed files are written in the same charset.
+	 *
+	 * @throws Exception
+	 *           If an error occurred while compressing.
+	 */
+	@Test
+	public void compressWithCharset() throws Exception {
+
+		File dir = Files.createTempDir();
+		File utf8File = new File(dir, "utf8/1.js");
+		utf8File.getParentFile().mkdirs();
+		Files.write("var s = \"caf\u00e9 \u20ac \ud83d\ude00\";\n", utf8File, Charsets.UTF_8);
+		File latin1File = new File(dir, "latin1/1.js");
+		latin1File.getParentFile().mkdirs();
+		Files.write("var s = \"caf\u00e9\";\n", latin1File, Charsets.ISO_8859_1);
+
+		YuiCompressor yuiCompressor = new YuiCompressor(Arrays.asList(new Bundle("utf8", Bundle.Type.JS, utf8File.getParentFile(), null, new File(dir,
+				"utf8.js"))));
+		yuiCompressor.compressAll();
+		Assert.assertEquals("var s=\"caf\u00e9 \u20ac \ud83d\ude00\";", Files.toString(new File(dir, "utf8.js"), Charsets.UTF_8));
+
+		yuiCompressor = new YuiCompressor(Arrays.asList(new Bundle("latin1", Bundle.Type.JS, latin1File.getParentFile(), null, new File(dir,
+				"latin1.js"))));
+		yuiCompressor.setCharset(Charsets.ISO_8859_1);
+		yuiCompressor.compressAll();
+		Assert.assertEquals("var s=\"caf\u00e9\";", Files.toString(new File(dir, "latin1.js"), Charsets.ISO_8859_1));
+
+	}
+
+	/**
+	 * Decodes input files read into the heap and memory-mapped, including malformed UTF-8 sequences, and checks they are decoded as by
+	 * {@link String#String(byte[], java.nio.charset.Charset)}.
+	 *
+	 * @throws Exception
+	 *           If an error occurred while reading.
+	 */
+	@Test
+	public void decodeInputContent() throws Exception {
+
+		File file = File.createTempFile("yui", ".js");
+		file.deleteOnExit();
+		byte[] bytes = ("var s = \"caf\u00e9 \u20ac \ud83d\ude00\";").getBytes(Charsets.UTF_8);
+		byte[][] malformed = { {}, { (byte) 0xc3 }, { (byte) 0xe2, (byte) 0x82 }, { (byte) 0xc0, (byte) 0xaf }, { (byte) 0xed, (byte) 0xa0, (byte) 0x80 },
+				{ (byte) 0xf4, (byte) 0x90, (byte) 0x80, (byte) 0x80 }, { (byte) 0xff, 'a' } };
+		for (byte[] suffix : malformed) {
+			byte[] content = Arrays.copyOf(bytes, bytes.length + suffix.length + 1);
+			System.arraycopy(suffix, 0, content, bytes.length, suffix.length);
+			content[content.length - 1] = ';';
+			Files.write(content, file);
+			for (Charset charset : Arrays.asList(Charsets.UTF_8, Charsets.US_ASCII, Charsets.ISO_8859_1, Charset.forName("windows-1252"))) {
+				String expected = new String(content, charset);
+				Assert.assertEquals(expected, InputContent.read(file).decode(charset).toString());
+				Assert.assertEquals(expected, InputContent.read(file, 0).decode(charset).toString());
+			}
+		}
+
+	}
+
+	/**
+	 * Compresses CSS idioms with the single-pass CSS compressor, alone and together (breaking the lines), and checks they are compressed as by
+	 * {@link CssCompressor}, including the stylesheets it falls back to {@link CssCompressor} for, directly and when selected in the YUI compressor.
+	 *
+	 * @throws Exception
+	 *           If an error occurred while compressing.
+	 */
+	@Test
+	public void compressCssInSinglePass() throws Exception {
+
+		List<String> stylesheets = new ArrayList<>(Arrays.asList(" @charset \"utf-8\";", "/*! preserved */ /* removed */ a { color : red ; }",
+				"body{margin:0px;padding:0.0em 0 0 0}.x{margin:0 0 0 0;border:0 0 0}", "p{background-position:0}div{-WEBKIT-transform-origin:0;}",
+				".a{color:#AABBCC;background:#aabbcd;border-color:#FFF #808080}", ".f{color:rgb(255, 0, 0);background:RGB(1,2,3) url(x.png)}",
+				".b{filter:progid:DXImageTransform.Microsoft.Alpha(Opacity=80);-ms-filter:\"progid:DXImageTransform.Microsoft.Alpha(Opacity=80)\"}",
+				".e{filter:progid:DXImageTransform.Microsoft.gradient(startColorstr=#FFAABBCC,endColorstr='#AABBCC')}",
+				".i{border:none;outline:NONE;border-top:none!important}", "a:HOVER,a:First-Child , b:first-line,c:first-letter{x:y}",
+				"ul :hover, p:NOT(.a):nth-child(2n+1)::SELECTION{x:y}", "@MEDIA screen AND(max-width:100px){.a{color:red}.empty{}}",
+				"@media (-webkit-min-device-pixel-ratio:3/2){a{b:c}}", "@font-face{font-family:\"Foo\";src:url('foo.woff') format(\"woff\")}",
+				"@-webkit-keyframes spin{FROM{transform:rotate(0deg)}TO{transform:rotate(360deg)}}",
+				".k{width:calc(100% - 10px);background:-MOZ-linear-gradient(top,rgba(0,0,0,.5),#FFF 0%)}",
+				".o{background:url( data:image/png;base64,iVBORw0KGgo AAAANSUhEUg== )}.p{background:url(\"data:image/svg+xml;charset=utf8,%3Csvg%3E\")}",
+				".r{content:\"a/b\";content:'it\\'s';font-family:\"Helvetica Neue\",Arial}", "/* hack \\*/ .t{x:y} /* end hack */ html>/**/body .u{x:y}",
+				".v{margin:-0.5em;padding:.5em 0.50em;font:12px/1.5 Arial;x:0S}", ".y{color:red !important;margin:0!important}.z{;}.z2{color:red;;}",
+				".b1{zoom:1;*display:inline;_height:1px}a{}b{}", "a { b : c", ".xx{x:\"/* not a comment */\"}", ".c{x:y}/* unterminated",
+				"@media print{a{color:red}}:root .x :hover{color:blue}", "@media screen{a{b:c}}:not(.a) .b :hover{x:y}", "}:root .a :b{c:d}"));
+		StringBuilder all = new StringBuilder();
+		for (String stylesheet : stylesheets) {
+			all.append(stylesheet).append('\n');
+		}
+		for (int i = 0; i < 20; i++) {
+			all.append(".rule").append(i).append(" { color : #FFFFFF ; margin : 0px auto }\n");
+		}
+		stylesheets.add(all.toString());
+		stylesheets.add(Files.toString(new File(cssInputDir, "4.css"), Charsets.UTF_8));
+
+		for (String stylesheet : stylesheets) {
+			assertCompressedInSinglePass(stylesheet);
+		}
+
+		YuiCompressor yuiCompressor = new YuiCompressor(null, null, null, null, null, null);
+		YuiCompressor singlePassYuiCompressor = new YuiCompressor(null, null, null, null, null, null);
+		singlePassYuiCompressor.setSinglePassCss(true);
+		for (String stylesheet : stylesheets) {
+			Assert.assertEquals(yuiCompressor.compress(Bundle.Type.CSS, stylesheet), singlePassYuiCompressor.compress(Bundle.Type.CSS, stylesheet));
+		}
+
+	}
+
+	/**
+	 * Compresses random mixes of the CSS idioms of the cssIdioms.txt resource (one stylesheet per line, "\\n" denoting a line break), reformatted
+	 * at random, with the single-pass CSS compressor, and checks they are compressed as by {@link CssCompressor}.
+	 *
+	 * @throws Exception
+	 *           If an error occurred while compressing.
+	 */
+	@Test(timeout = 120000)
+	public void compressRandomCssInSinglePass() throws Exception {
+
+		List<String> idioms = new ArrayList<>();
+		for (String line : Files.readLines(getFile("/cssIdioms.txt"), Charsets.UTF_8)) {
+			if (!line.isEmpty()) {
+				idioms.add(line.replace("\\n", "\n"));
+			}
+		}
+		String[] separators = { "", " ", "  ", "\n", "\t", " \n ", "/* c */", "/**/", " /* x */ " };
+		Random random = new Random(42);
+
+		for (String idiom : idioms) {
+			assertCompressedInSinglePass(idiom);
+		}
+		for (int i = 0; i < 5000; i++) {
+			StringBuilder stylesheet = new StringBuilder();
+			for (int j = random.nextInt(8); j >= 0; j--) {
+				String idiom = idioms.get(random.nextInt(idioms.size()));
+				if (random.nextInt(4) == 0) {
+					idiom = random.nextBoolean() ? idiom.toUpperCase() : idiom.replace(" ", separators[random.nextInt(separators.length)]);
+				}
+				if (random.nextInt(5) == 0) {
+					idiom = idiom.replace(";", " ; ").replace(":", " : ").replace("{", " { ").replace("}", " } ");
+				}
+				stylesheet.append(separators[random.nextInt(separators.length)]).append(idiom);
+			}
+			assertCompressedInSinglePass(stylesheet.toString());
+		}
+
+	}
+
+	/**
+	 * Compresses an invalid JS content then a large one in memory, and checks the next contents are compressed as usual, by the same reused JS
+	 * compressor.
+	 *
+	 * @throws Exception
+	 *           If an error occurred while compressing.
+	 */
+	@Test
+	public void compressInMemoryAfterError() throws Exception {
+
+		YuiCompressor yuiCompressor = new YuiCompressor(null, null, null, null, null, null);
+		Assert.assertEquals("var foo=function(a){return a+1;};", yuiCompressor.compress(Bundle.Type.JS, "var foo = function (bar) { return bar + 1; };"));
+		try {
+			yuiCompressor.compress(Bundle.Type.JS, "var foo = function (bar) { return bar + ; };");
+			Assert.fail("Invalid JS content compressed");
+		} catch (YuiCompressorException e) {
+			// expected
+		}
+		Assert.assertEquals("var foo=function(a){return a+1;};", yuiCompressor.compress(Bundle.Type.JS, "var foo = function (bar) { return bar + 1; };"));
+		Assert.assertEquals("var bar=function(a,b){return a+b;};", yuiCompressor.compress(Bundle.Type.JS, "var bar = function (x, y) { return x + y; };"));
+
+		// content larger than the arrays kept by an idle JS compressor
+		StringBuilder large = new StringBuilder("var baz = function (x) { return [x");
+		for (int i = 0; i < 50000; i++) {
+			large.append(", x");
+		}
+		large.append("]; };");
+		Assert.assertTrue(yuiCompressor.compress(Bundle.Type.JS, large.toString()).startsWith("var baz=function(a){return[a,a,"));
+		Assert.assertEquals("var foo=function(a){return a+1;};", yuiCompressor.compress(Bundle.Type.JS, "var foo = function (bar) { return bar + 1; };"));
+
+	}
+
+	/**
+	 * Serves JS input files as a bundle, and checks the conditional requests, the input files not being checked again within the check interval,
+	 * then the stale bundle being served while recompressed.
+	 *
+	 * @throws Exception
+	 *           If an error occurred while serving.
+	 */
+	@Test(timeout = 30000)
+	public void serveBundles() throws Exception {
+
+		File jsInputDir = Files.createTempDir();
+		copyDir(this.jsInputDir, jsInputDir);
+
+		YuiCompressor yuiCompressor = new YuiCompressor(jsInputDir, null, JS_EXCLUDES, null, null, null);
+		AssetHandler handler = new AssetHandler(yuiCompressor, AssetHandler.DEFAULT_CACHE_MAX_SIZE);
+		HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.createContext("/assets/", handler);
+		server.start();
+		try {
+			URL url = new URL("http", InetAddress.getLoopbackAddress().getHostAddress(), server.getAddress().getPort(), "/assets/js.js");
+
+			HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+			Assert.assertEquals(200, connection.getResponseCode());
+			String etag = connection.getHeaderField("ETag");
+			try (InputStream body = connection.getInputStream()) {
+				Assert.assertArrayEquals(Files.toByteArray(getFile("/compressWithExcludes.js")), ByteStreams.toByteArray(body));
+			}
+
+			connection = (HttpURLConnection) url.openConnection();
+			connection.setRequestProperty("If-None-Match", etag);
+			Assert.assertEquals(304, connection.getResponseCode());
+
+			// changed input file, not checked again before the check interval elapses
+			handler.setCheckInterval(60000);
+			Files.append("\n/* comment */\n", new File(jsInputDir, "dir1/2.js"), Charsets.UTF_8);
+			connection = (HttpURLConnection) url.openConnection();
+			Assert.assertEquals(200, connection.getResponseCode());
+			Assert.assertEquals(etag, connection.getHeaderField("ETag"));
+			Assert.assertEquals(0, handler.getStaleResponses());
+
+			// then checked: the stale bundle must be served while recompressed in the background
+			handler.setCheckInterval(0);
+			connection = (HttpURLConnection) url.openConnection();
+			Assert.assertEquals(200, connection.getResponseCode());
+			Assert.assertEquals(etag, connection.getHeaderField("ETag"));
+			Assert.assertEquals(1, handler.getStaleResponses());
+			String newEtag;
+			do {
+				Thread.sleep(50);
+				connection = (HttpURLConnection) url.openConnection();
+				newEtag = connection.getHeaderField("ETag");
+			} while (etag.equals(newEtag));
+			Assert.assertEquals(3, handler.getCacheHits());
+			Assert.assertEquals(5, handler.getCacheMisses());
+
+			connection = (HttpURLConnection) new URL(url, "missing.js").openConnection();
+			Assert.assertEquals(404, connection.getResponseCode());
+		} finally {
+			server.stop(0);
+			handler.close();
+		}
+
+	}
+
+	/**
+	 * Watches JS input files, one of their directories being reached through a symbolic link, and checks the output file is rebuilt when one of them
+	 * changes.
+	 *
+	 * @throws Exception
+	 *           If an error occurred while compressing.
+	 */
+	@Test(timeout = 30000)
+	public void compressOnChange() throws Exception {
+
+		File jsInputDir = Files.createTempDir();
+		copyDir(this.jsInputDir, jsInputDir);
+		File libDir = Files.createTempDir();
+		java.nio.file.Files.move(new File(jsInputDir, "dir1").toPath(), new File(libDir, "dir1").toPath());
+		java.nio.file.Files.createSymbolicLink(new File(jsInputDir, "dir1").toPath(), new File(libDir, "dir1").toPath());
+		java.nio.file.Files.createSymbolicLink(new File(jsInputDir, "dir2/loop").toPath(), jsInputDir.toPath());
+		File jsOutputFile = File.createTempFile("yui", "tmp");
+		jsOutputFile.delete();
+
+		YuiCompressor yuiCompressor = new YuiCompressor(jsInputDir, jsOutputFile, JS_EXCLUDES, null, null, null);
+		final YuiCompressorWatcher watcher = new YuiCompressorWatcher(yuiCompressor, 50);
+		Thread thread = new Thread() {
+
+			@Override
+			public void run() {
+				try {
+					watcher.watch();
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			}
+
+		};
+		thread.start();
+
+		while (!jsOutputFile.exists()) {
+			Thread.sleep(50);
+		}
+		FileAssert.assertEquals(getFile("/compressWithExcludes.js"), jsOutputFile);
+
+		jsOutputFile.setLastModified(0);
+		Files.append("\n/* comment */\n", new File(libDir, "dir1/2.js"), Charsets.UTF_8);
+		while (jsOutputFile.lastModified() == 0) {
+			Thread.sleep(50);
+		}
+		FileAssert.assertEquals(getFile("/compressWithExcludes.js"), jsOutputFile);
+
+		watcher.close();
+		thread.join();
+
 	}
 
 	/**
@@ -69,14 +822,22 @@ public class YuiCompressorTaskTest {
 	 *
 	 * @param withExcludes
 	 *          If true, {@link #JS_EXCLUDES} and {@link #CSS_EXCLUDES} will be taken into account.
+	 * @param threads
+	 *          The number of threads used to compress.
+	 * @param cacheDir
+	 *          The cache directory, may be null.
 	 * @param expectedFileName
 	 *          The expected file name (without extension).
 	 * @throws Exception
 	 *           If an error occurred while compressing.
 	 */
-	private void compress(boolean withExcludes, String expectedFileName) throws Exception {
+	private void compress(boolean withExcludes, int threads, File cacheDir, String expectedFileName) throws Exception {
 
 		YuiCompressorTask compressor = new YuiCompressorTask();
+		compressor.setThreads(threads);
+		if (cacheDir != null) {
+			compressor.setCacheDir(cacheDir.getAbsolutePath());
+		}
 
 		File jsInputDir = Files.createTempDir();
 		copyDir(this.jsInputDir, jsInputDir);
@@ -113,6 +874,56 @@ public class YuiCompressorTaskTest {
 
 	}
 
+	/**
+	 * Checks the precompressed variants of an output file decode to the expected output file.
+	 *
+	 * @param outputFile
+	 *          The output file.
+	 * @throws Exception
+	 *           If an error occurred while decoding.
+	 */
+	private void assertVariants(File outputFile) throws Exception {
+		byte[] expected = Files.toByteArray(getFile("/compressWithExcludes.js"));
+		Assert.assertArrayEquals(expected, Files.toByteArray(outputFile));
+		try (InputStream gzip = new GZIPInputStream(new FileInputStream(BundleWriter.getGzipFile(outputFile)))) {
+			Assert.assertArrayEquals(expected, ByteStreams.toByteArray(gzip));
+		}
+		try (InputStream deflate = new InflaterInputStream(new FileInputStream(BundleWriter.getDeflateFile(outputFile)))) {
+			Assert.assertArrayEquals(expected, ByteStreams.toByteArray(deflate));
+		}
+	}
+
+	/**
+	 * Compresses a stylesheet with the single-pass CSS compressor, with and without line breaks, and checks it is compressed as by
+	 * {@link CssCompressor}, or fails the same way.
+	 *
+	 * @param stylesheet
+	 *          The stylesheet.
+	 * @throws Exception
+	 *           If an error occurred while reading the stylesheet.
+	 */
+	private static void assertCompressedInSinglePass(String stylesheet) throws Exception {
+		for (int linebreakpos : new int[] { -1, 0, 200 }) {
+			String expected;
+			try {
+				StringWriter out = new StringWriter();
+				new CssCompressor(new StringReader(stylesheet)).compress(out, linebreakpos);
+				expected = out.toString();
+			} catch (RuntimeException e) {
+				expected = e.getClass().getName();
+			}
+			String actual;
+			try {
+				StringWriter out = new StringWriter();
+				new SinglePassCssCompressor(new StringReader(stylesheet)).compress(out, linebreakpos);
+				actual = out.toString();
+			} catch (RuntimeException e) {
+				actual = e.getClass().getName();
+			}
+			Assert.assertEquals(stylesheet, expected, actual);
+		}
+	}
+
 	/**
 	 * Returns the file denoted by a path (see {@link Class#getResource(String)}).
 	 *